@@ -232,7 +232,7 @@
      console.log('requesting continuous update mode');
      $('#ContinuousUpdatePlayButton').addClass('ButtonGlowDefault');
      $('#ContinuousUpdatePauseButton').removeClass('ButtonGlowDefault');
-     downloadRepeatedly(this.updateTimescaleInMilliseconds);
+     receiveRepeatedly(this.updateTimescaleInMilliseconds);
     }
     
     function ContinuousUpdatePauseButtonClicked() {
@@ -890,7 +890,7 @@
    /*
     * Data structures, constants and references
     */
-   var servlet = 'http://localhost:8080/web-charts/DataBrowserServlet';
+   var servlet = 'http://localhost:8080/web-charts/browse';
    var charts = {};
   </script>
   <script type="text/javascript">
@@ -900,6 +900,7 @@
    var
     isRepeatingMode = false;
     updateIntervalInMiliseconds = 1000;
+    repeatingModeGeneration = 0;
    
    function downloadRepeatedly(intervalInMiliseconds) {
     window.updateIntervalInMiliseconds = intervalInMiliseconds;
@@ -907,28 +908,148 @@
     if(window.isRepeatingMode)
      return;
     window.isRepeatingMode = true;
+    // A long-polling request from an earlier repeating mode may still be outstanding
+    var generation = ++window.repeatingModeGeneration;
     (function repeater() {
-     downloadOnce();
-     if(window.isRepeatingMode)
-      setTimeout(repeater, window.updateIntervalInMiliseconds);
+     downloadOnce(function() {
+      if(window.isRepeatingMode && generation == window.repeatingModeGeneration)
+       setTimeout(repeater, window.updateIntervalInMiliseconds);
+     });
     })();
    }
    
    /*
-    * Signal that downloadOnce should no longer be called repeatedly.
+    * The WebSocket channel on which the servlet pushes live chart data in continuous
+    * update mode, or null if no channel is open, and the names of the charts to which
+    * the channel is subscribed.
+    */
+   var
+    liveChartChannel = null;
+    liveChartChannelNames = {};
+   
+   /*
+    * Receive chart data pushed by the servlet on a live chart channel. The chart list and
+    * the subscriptions of the channel are refreshed at the specified interval. If the
+    * channel cannot be opened, or is closed by the servlet, downloadOnce is called
+    * repeatedly instead.
+    */
+   function receiveRepeatedly(intervalInMiliseconds) {
+    if(!window.WebSocket) {
+     downloadRepeatedly(intervalInMiliseconds);
+     return;
+    }
+    window.updateIntervalInMiliseconds = intervalInMiliseconds;
+    console.log('adjusting update interval to ' + intervalInMiliseconds + 'ms');
+    if(window.isRepeatingMode)
+     return;
+    window.isRepeatingMode = true;
+    var
+     generation = ++window.repeatingModeGeneration,
+     channel = openChartSubscriptionChannel(function() {
+      redrawActiveChart();
+     });
+    window.liveChartChannel = channel;
+    window.liveChartChannelNames = {};
+    channel.addEventListener('open', function() {
+     (function synchronizer() {
+      if(!window.isRepeatingMode || generation != window.repeatingModeGeneration)
+       return;
+      synchronizeLiveChartChannel(channel);
+      setTimeout(synchronizer, window.updateIntervalInMiliseconds);
+     })();
+    });
+    channel.addEventListener('close', function() {
+     if(window.liveChartChannel === channel)
+      window.liveChartChannel = null;
+     if(window.isRepeatingMode && generation == window.repeatingModeGeneration) {
+      console.log('live chart channel unavailable; downloading chart data repeatedly.');
+      window.isRepeatingMode = false;
+      downloadRepeatedly(window.updateIntervalInMiliseconds);
+     }
+    });
+   }
+   
+   /*
+    * Refresh the chart list, and subscribe the live chart channel to exactly the charts
+    * in the subscription grid. Newly subscribed charts are caught up with a download_data
+    * request, as data may have been uploaded since they were last downloaded.
+    */
+   function synchronizeLiveChartChannel(channel) {
+    try {
+     getChartNamesFromServer();
+    }
+    catch(err) {
+     console.log(err);
+     stopDownloadingRepeatedly();
+     ContinuousUpdatePauseButtonClicked();
+     popup('Failed To Interact With Server', err.toString());
+     return;
+    }
+    var
+     subscriptionGrid = w2ui['SubscribedChartsGrid'],
+     chartNames = {},
+     subscribe = [],
+     unsubscribe = [];
+    for(var i = 0; i< subscriptionGrid.total; ++i) {
+     var
+      chartName = subscriptionGrid.get(i).id;
+     chartNames[chartName] = true;
+     if(!window.liveChartChannelNames.hasOwnProperty(chartName))
+      subscribe.push(chartName);
+    }
+    for(var chartName in window.liveChartChannelNames)
+     if(!chartNames.hasOwnProperty(chartName))
+      unsubscribe.push(chartName);
+    window.liveChartChannelNames = chartNames;
+    if(unsubscribe.length > 0)
+     channel.send(JSON.stringify({ unsubscribe: unsubscribe }));
+    if(subscribe.length > 0) {
+     channel.send(JSON.stringify({ subscribe: subscribe }));
+     for(var i = 0; i< subscribe.length; ++i)
+      catchUpChartFromServer(subscribe[i], function() {
+       redrawActiveChart();
+      });
+    }
+   }
+   
+   /*
+    * Signal that downloadOnce should no longer be called repeatedly, and close the live
+    * chart channel, if any.
     */
    function stopDownloadingRepeatedly() {
     window.isRepeatingMode = false;
+    if(window.liveChartChannel != null) {
+     window.liveChartChannel.close();
+     window.liveChartChannel = null;
+    }
    }
    
+   /*
+    * The time for which the servlet may hold a repeated download request open while
+    * no new data is available.
+    */
+   var longPollWaitInMiliseconds = 25000;
+   
    /*
     * Perform one full interaction cycle with the server.
+    *
+    * @param onComplete
+    *        An optional function callback. If this argument is specified, the servlet
+    *        is asked to wait for new data before responding, and the callback is
+    *        executed when the chart data has been downloaded and redrawn.
     */
-   function downloadOnce() {
+   function downloadOnce(onComplete) {
     try {
      getChartNamesFromServer();
-     getChartDataFromServerForAllSubscribedCharts();
-     redrawActiveChart();
+     if(onComplete)
+      getChartDataFromServerForAllSubscribedCharts(longPollWaitInMiliseconds, function() {
+       redrawActiveChart();
+       onComplete();
+      });
+     else {
+      getChartDataFromServerForAllSubscribedCharts();
+      redrawActiveChart();
+     }
     }
     catch(err) {
      console.log(err);
@@ -17,6 +17,93 @@
   * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
   */
 
+/**
+  * Decode a value of a servlet response. Older servlets embed JSON documents in the
+  * response as strings, whereas newer servlets write them directly.
+  */
+function decodeResponseValue(value) {
+ return typeof value === 'string' ? JSON.parse(value) : value;
+}
+
+/**
+  * Whether this platform stores float64 numbers in little-endian byte order, as used by
+  * the binary download_data response format.
+  */
+var isPlatformLittleEndian = new Uint8Array(new Float64Array([1.]).buffer)[7] === 0x3f;
+
+/**
+  * Send download_data requests to the servlet and add the data points received to the
+  * data tables of the corresponding charts. On little-endian platforms the binary
+  * response format is requested and decoded with a Float64Array; otherwise the
+  * columnar JSON format is requested.
+  * 
+  * @param chartNames <br>
+  *        The names of the charts for which data is requested.
+  * @param request <br>
+  *        The download_data request strings, in the same order as chartNames.
+  * @param onSuccess <br>
+  *        A function callback to execute when the data points have been added.
+  * @param onFailure <br>
+  *        An optional function callback to execute if the request fails.
+  */
+function downloadChartData(chartNames, request, onSuccess, onFailure) {
+ var
+  xhr = new XMLHttpRequest(),
+  body = 'format=' + (isPlatformLittleEndian ? 'binary' : 'columnar');
+ for(var i = 0; i< request.length; ++i)
+  body += '&download_data=' + encodeURIComponent(request[i]);
+ xhr.open('POST', servlet, true);
+ xhr.responseType = 'arraybuffer';
+ xhr.setRequestHeader('Content-Type', 'application/x-www-form-urlencoded; charset=UTF-8');
+ xhr.onload = function() {
+  if(xhr.status !== 200) {
+   console.log('servlet download_data request failed.');
+   if(onFailure)
+    onFailure();
+   return;
+  }
+  var contentType = xhr.getResponseHeader('Content-Type') || '';
+  if(contentType.indexOf('application/octet-stream') === 0) {
+   var
+    numbers = new Float64Array(xhr.response),
+    position = 0;
+   for(var k = 0; k< chartNames.length && position< numbers.length; ++k) {
+    var
+     data = window.chartData[chartNames[k]],
+     size = numbers[position++];
+    for(var i = 0; i< size; ++i)
+     data.addRow([numbers[position + i], numbers[position + size + i]]);
+    position += 2 * size;
+   }
+  }
+  else {
+   var response = JSON.parse(new TextDecoder('utf-8').decode(new Uint8Array(xhr.response)));
+   for(var key in response) {
+    var
+     data = window.chartData[key],
+     packet = decodeResponseValue(response[key]);
+    if(data === undefined)
+     continue;
+    if(Array.isArray(packet)) {
+     for(var i = 0; i< packet.length; ++i)
+      data.addRow([packet[i].time, packet[i].value]);
+    }
+    else {
+     for(var i = 0; i< packet.t.length; ++i)
+      data.addRow([packet.t[i], packet.v[i]]);
+    }
+   }
+  }
+  onSuccess();
+ };
+ xhr.onerror = function() {
+  console.log('servlet download_data request failed.');
+  if(onFailure)
+   onFailure();
+ };
+ xhr.send(body);
+}
+
 /**
   * Get a list of chart names from the servlet.
   */
@@ -33,7 +120,7 @@ function getChartNamesFromServer() {
   traditional: true,
   async: false,
   success: function(response){
-   addAllChartsToAvailableChartsList(JSON.parse(response['known_charts']));
+   addAllChartsToAvailableChartsList(decodeResponseValue(response['known_charts']));
   },
   error: function(x,e){
    w2ui['AvailableChartsGrid'].clear();
@@ -88,9 +175,18 @@ function queryIsServletReady(onSuccess, onFailure) {
 
 /**
   * Retrieve all subscribed chart data from the servlet.
+  * 
+  * @param waitMillis <br>
+  *        An optional time, in milliseconds, for which the servlet should wait for new
+  *        data if no subscribed chart has data newer than the data already downloaded.
+  * @param onComplete <br>
+  *        An optional function callback to execute when the request has completed,
+  *        whether or not it succeeded.
   */
-function getChartDataFromServerForAllSubscribedCharts() {
- var request = [];
+function getChartDataFromServerForAllSubscribedCharts(waitMillis, onComplete) {
+ var
+  request = [],
+  chartNames = [];
  for(var i = 0; i< w2ui['SubscribedChartsGrid'].total; ++i) {
   var
    chartName = w2ui['SubscribedChartsGrid'].get(i).id;
@@ -103,30 +199,14 @@ function getChartDataFromServerForAllSubscribedCharts() {
   var
    dataTable = window.chartData[chartName],
    size = dataTable.getNumberOfRows();
+  chartNames.push(chartName);
   request.push(JSON.stringify(
    { chartName: chartName, timeOfInterest: size == 0. ? 
-     -Number.MAX_VALUE : dataTable.getValue(size - 1, 0) }));
+     -Number.MAX_VALUE : dataTable.getValue(size - 1, 0),
+     waitMillis: waitMillis || 0 }));
  }
- $.ajax({
-  type: 'POST',
-  url: servlet,
-  data: { download_data : request },
-  traditional: true,
-  async: true,
-  success: function(response){
-   for(var key in response) {
-    var
-     data = window.chartData[key];
-     packet = JSON.parse(response[key]);
-    for(var i = 0; i< packet.length; ++i) {
-     var datum = packet[i];
-     data.addRow([datum.time, datum.value]);
-    }
-   };
-  },
-  error: function(x,e){
-  } 
- });
+ var done = onComplete || function() { };
+ downloadChartData(chartNames, request, done, done);
 }
 
 /**
@@ -158,27 +238,96 @@ function getChartDataFromServer(chartName, callback) {
  request.push(JSON.stringify(
   { chartName: chartName, timeOfInterest: size == 0. ? 
     -Number.MAX_VALUE : dataTable.getValue(size - 1, 0) }));
- var callback_ = callback;
- $.ajax({
-  type: 'POST',
-  url: servlet,
-  data: { download_data : request },
-  traditional: true,
-  async: true,
-  success: function(response){
-   for(var key in response) {
-    var
-     data = window.chartData[key];
-     packet = JSON.parse(response[key]);
-    for(var i = 0; i< packet.length; ++i) {
-     var datum = packet[i];
-     data.addRow([datum.time, datum.value]);
-    }
-   };
-   callback_(chartName);
-  },
-  error: function(x,e){
-   console.log('servlet download_data request failed.');
-  } 
+ downloadChartData([chartName], request, function() {
+  callback(chartName);
  });
-}
\ No newline at end of file
+}
+
+/**
+  * The names of the charts being caught up with a download_data request. The value of a
+  * chart is true if data for the chart was pushed while the request was in flight.
+  */
+var chartCatchUps = {};
+
+/**
+  * Catch a chart up with a download_data request. Data pushed for the chart on the live
+  * chart channel is not added until the request has completed. If data was pushed
+  * meanwhile, the chart is caught up again.
+  * 
+  * @param chartName <br>
+  *        The name of the chart to catch up.
+  * @param onData <br>
+  *        A function callback to execute, with the name of the chart, when the chart has
+  *        been caught up.
+  */
+function catchUpChartFromServer(chartName, onData) {
+ if(window.chartCatchUps.hasOwnProperty(chartName)) {
+  window.chartCatchUps[chartName] = true;
+  return;
+ }
+ var
+  dataTable = window.chartData[chartName],
+  size = dataTable.getNumberOfRows();
+ window.chartCatchUps[chartName] = false;
+ downloadChartData([chartName], [JSON.stringify(
+  { chartName: chartName, timeOfInterest: size == 0. ? 
+    -Number.MAX_VALUE : dataTable.getValue(size - 1, 0) })],
+  function() {
+   var missed = window.chartCatchUps[chartName];
+   delete window.chartCatchUps[chartName];
+   if(missed)
+    catchUpChartFromServer(chartName, onData);
+   else
+    onData(chartName);
+  },
+  function() {
+   delete window.chartCatchUps[chartName];
+  });
+}
+
+/**
+  * Open a WebSocket channel for live chart data. Data points later than the last row of
+  * the data table of a chart are added to the table as they arrive. If the servlet
+  * discarded data points for a chart because this client did not keep up, or if the
+  * chart is being caught up, the chart is caught up with a download_data request.
+  * 
+  * @param onData <br>
+  *        A function callback to execute, with the name of the chart, when data has been
+  *        added to a chart.
+  * @return
+  *    The WebSocket of the channel. Send { subscribe: [names] } or
+  *    { unsubscribe: [names] } as JSON to this object to change the subscriptions.
+  */
+function openChartSubscriptionChannel(onData) {
+ var
+  url = servlet.replace(/^http/, 'ws').replace(/\/[^\/]*$/, '/live-charts'),
+  socket = new WebSocket(url);
+ socket.onmessage = function(event) {
+  var message = JSON.parse(event.data);
+  if(message.error)
+   console.log('live chart channel: ' + message.error);
+  for(var key in message.data) {
+   var
+    data = window.chartData[key],
+    packet = message.data[key];
+   if(data === undefined)
+    continue;
+   if(window.chartCatchUps.hasOwnProperty(key) ||
+      (message.discarded && message.discarded.hasOwnProperty(key))) {
+    catchUpChartFromServer(key, onData);
+    continue;
+   }
+   var
+    size = data.getNumberOfRows(),
+    lastTime = size == 0 ? -Number.MAX_VALUE : data.getValue(size - 1, 0);
+   for(var i = 0; i< packet.length; ++i)
+    if(packet[i].time > lastTime)
+     data.addRow([packet[i].time, packet[i].value]);
+   onData(key);
+  }
+ };
+ socket.onclose = function() {
+  console.log('live chart channel closed.');
+ };
+ return socket;
+}
@@ -18,6 +18,8 @@
   */
 package servlet.core;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.ServletContext;
@@ -71,6 +73,37 @@ abstract class AbstractAdminConfigurationInstruction implements AdminConfigurati
       logger.info("enabled client access to data browser servlet.");
    }
    
+   /**
+     * Bind a {@link DataSourceConnector} to the servlet context, replacing any existing
+     * connector. If the existing connector is {@link Closeable}, and is not the buffer of
+     * the live data receiver, it is closed, so that repeated configuration does not leak
+     * its resources (for instance, the thread following a CSV file).
+     * 
+     * @param context <br>
+     *        The servlet context to configure.
+     * @param dataSourceConnector <br>
+     *        The new connector. This argument must be non-<code>null</code>.
+     */
+   protected static void replaceDataSourceConnector(
+      final ServletContext context,
+      final DataSourceConnector dataSourceConnector
+      ) {
+      Preconditions.checkNotNull(dataSourceConnector);
+      final Object
+         previous = context.getAttribute("data-source-connector");
+      if(previous instanceof Closeable && previous != dataSourceConnector
+         && previous != context.getAttribute("live-receiver-data-buffer")) {
+         try {
+            ((Closeable) previous).close();
+            logger.info("closed the previous data source connector.");
+         }
+         catch(final IOException e) {
+            logger.warn("failed to close the previous data source connector: {}", e);
+         }
+      }
+      context.setAttribute("data-source-connector", dataSourceConnector);
+   }
+   
    public final String getApplicationName() {
       return this.applicationName;
    }
@@ -0,0 +1,526 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+  * A concurrency limiter whose limit adapts to the observed latency of the requests it
+  * admits, by additive increase and multiplicative decrease (AIMD), and which shares
+  * the limit between several classes of request.<br><br>
+  * 
+  * Each {@link RequestClass} may reserve a share of the limit, which requests of other
+  * classes cannot use. The remainder of the limit is shared by all classes. A request
+  * is admitted immediately if its class has reserved capacity left, or if shared
+  * capacity is left. Otherwise the request waits in a first-in, first-out queue for its
+  * class, for at most a fixed timeout. When capacity becomes available, the waiting
+  * classes are served by weighted fair (stride) scheduling, so that under contention
+  * each class receives a share of the admissions proportional to its weight.<br><br>
+  * 
+  * The total number of waiting requests is bounded. When the queues are full, a new
+  * request displaces the most recently queued request of a class with lower priority,
+  * if any, and is otherwise rejected. Requests which are displaced or which time out
+  * are rejected. {@link RequestClass#BROWSE} requests therefore are the first to be
+  * shed under overload.<br><br>
+  * 
+  * When an admitted request completes, its latency is reported to
+  * {@link #release(RequestClass, long)}. If the latency exceeds a threshold, the limit
+  * is reduced by a constant factor. Otherwise, if at least half of the limit is in use,
+  * the limit is increased by <code>1 / limit</code>, so that it grows by about one for
+  * every <code>limit</code> requests completed. The limit is kept within fixed
+  * bounds.<br><br>
+  * 
+  * This class is thread safe.
+  * 
+  * @author phillips
+  */
+public final class AdaptiveConcurrencyLimiter implements AdaptiveConcurrencyLimiterMBean {
+   
+   /**
+     * The factor by which the limit is multiplied when a request is too slow.
+     */
+   public static final double
+      BACKOFF_RATIO = 0.9;
+   
+   /**
+     * Classes of request, in order of decreasing priority.
+     */
+   public enum RequestClass {
+      /**
+        * Uploads of live data.
+        */
+      INGEST,
+      /**
+        * Administrative requests.
+        */
+      ADMIN,
+      /**
+        * Requests for chart data by viewers.
+        */
+      BROWSE
+   }
+   
+   private static final RequestClass[]
+      REQUEST_CLASSES = RequestClass.values();
+   
+   private static final class Waiter {
+      final Condition
+         condition;
+      boolean
+         isGranted,
+         isShed;
+      
+      Waiter(final Condition condition) {
+         this.condition = condition;
+      }
+   }
+   
+   private final int
+      minimumLimit,
+      maximumLimit,
+      maximumQueueSize;
+   private final long
+      queueTimeoutNanos,
+      latencyThresholdNanos;
+   private final double[]
+      reservedShares,
+      strides;
+   private final ReentrantLock
+      lock;
+   
+   // All of the following are guarded by lock, and indexed by RequestClass ordinal
+   private final List<ArrayDeque<Waiter>>
+      waiters;
+   private final int[]
+      inFlight;
+   private final long[]
+      acceptedCounts,
+      rejectedCounts,
+      timedOutCounts;
+   private final double[]
+      passes;
+   private double
+      limit,
+      virtualTime;
+   private int
+      queueDepth;
+   
+   /**
+     * Create an {@link AdaptiveConcurrencyLimiter} object with no reserved capacity and
+     * equal weights for all classes of request.<br><br>
+     * 
+     * See also {@link #AdaptiveConcurrencyLimiter(int, int, int, int, long, long, Map,
+     * Map)}.
+     */
+   public AdaptiveConcurrencyLimiter(
+      final int initialLimit,
+      final int minimumLimit,
+      final int maximumLimit,
+      final int maximumQueueSize,
+      final long queueTimeoutMillis,
+      final long latencyThresholdMillis
+      ) {
+      this(initialLimit, minimumLimit, maximumLimit, maximumQueueSize, queueTimeoutMillis,
+         latencyThresholdMillis, new EnumMap<RequestClass, Double>(RequestClass.class),
+         new EnumMap<RequestClass, Integer>(RequestClass.class));
+   }
+   
+   /**
+     * Create an {@link AdaptiveConcurrencyLimiter} object.
+     * 
+     * @param initialLimit <br>
+     *        The initial concurrency limit. This argument must lie between
+     *        <code>minimumLimit</code> and <code>maximumLimit</code>.
+     * @param minimumLimit <br>
+     *        The lowest concurrency limit. This argument must be strictly positive.
+     * @param maximumLimit <br>
+     *        The highest concurrency limit.
+     * @param maximumQueueSize <br>
+     *        The maximum number of requests which may wait to be admitted. This
+     *        argument must be non-negative.
+     * @param queueTimeoutMillis <br>
+     *        The maximum time, in milliseconds, for which a request may wait to be
+     *        admitted. This argument must be non-negative.
+     * @param latencyThresholdMillis <br>
+     *        The latency, in milliseconds, above which a completed request causes the
+     *        limit to be reduced. This argument must be strictly positive.
+     * @param reservedShares <br>
+     *        The share of the current limit reserved for each class of request. Classes
+     *        not in this map reserve no capacity. The shares must be non-negative, and
+     *        must sum to less than <code>1</code>.
+     * @param weights <br>
+     *        The scheduling weight of each class of request. Classes not in this map have
+     *        weight <code>1</code>. The weights must be strictly positive.
+     * @throws IllegalArgumentException if any argument is out of range.
+     */
+   @SuppressWarnings("unchecked")
+   public AdaptiveConcurrencyLimiter(
+      final int initialLimit,
+      final int minimumLimit,
+      final int maximumLimit,
+      final int maximumQueueSize,
+      final long queueTimeoutMillis,
+      final long latencyThresholdMillis,
+      final Map<RequestClass, Double> reservedShares,
+      final Map<RequestClass, Integer> weights
+      ) {
+      if(minimumLimit <= 0 || maximumLimit < minimumLimit)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": limit bounds are invalid (minimum: "
+          + minimumLimit + ", maximum: " + maximumLimit + ")");
+      if(initialLimit < minimumLimit || initialLimit > maximumLimit)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": initial limit is out of bounds (value: "
+          + initialLimit + ")");
+      if(maximumQueueSize < 0 || queueTimeoutMillis < 0L)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": queue size or timeout is negative.");
+      if(latencyThresholdMillis <= 0L)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": latency threshold is not strictly positive "
+          + "(value: " + latencyThresholdMillis + ")");
+      this.minimumLimit = minimumLimit;
+      this.maximumLimit = maximumLimit;
+      this.maximumQueueSize = maximumQueueSize;
+      this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+      this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+      this.reservedShares = new double[REQUEST_CLASSES.length];
+      this.strides = new double[REQUEST_CLASSES.length];
+      double
+         totalReservedShare = 0.;
+      for(final RequestClass requestClass : REQUEST_CLASSES) {
+         final Double
+            share = reservedShares.get(requestClass);
+         final Integer
+            weight = weights.get(requestClass);
+         if(share != null && !(share >= 0.))
+            throw new IllegalArgumentException(
+               getClass().getSimpleName() + ": reserved share of " + requestClass
+             + " is negative (value: " + share + ")");
+         if(weight != null && weight <= 0)
+            throw new IllegalArgumentException(
+               getClass().getSimpleName() + ": weight of " + requestClass
+             + " is not strictly positive (value: " + weight + ")");
+         this.reservedShares[requestClass.ordinal()] = share == null ? 0. : share;
+         this.strides[requestClass.ordinal()] = 1. / (weight == null ? 1 : weight);
+         totalReservedShare += this.reservedShares[requestClass.ordinal()];
+      }
+      if(totalReservedShare >= 1.)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": reserved shares sum to at least 1 (value: "
+          + totalReservedShare + ")");
+      this.lock = new ReentrantLock();
+      this.waiters = new ArrayList<ArrayDeque<Waiter>>(REQUEST_CLASSES.length);
+      for(int i = 0; i< REQUEST_CLASSES.length; ++i)
+         this.waiters.add(new ArrayDeque<Waiter>());
+      this.inFlight = new int[REQUEST_CLASSES.length];
+      this.acceptedCounts = new long[REQUEST_CLASSES.length];
+      this.rejectedCounts = new long[REQUEST_CLASSES.length];
+      this.timedOutCounts = new long[REQUEST_CLASSES.length];
+      this.passes = new double[REQUEST_CLASSES.length];
+      this.limit = initialLimit;
+   }
+   
+   /**
+     * Admit a request, waiting in the queue if necessary. If this method returns
+     * <code>true</code>, {@link #release(RequestClass, long)} must be called exactly
+     * once when the request completes.
+     * 
+     * @param requestClass <br>
+     *        The class of the request. This argument must be non-<code>null</code>.
+     * @return
+     *    <code>True</code> if the request was admitted, or <code>false</code> if it was
+     *    rejected.
+     * @throws InterruptedException if the calling thread was interrupted while waiting,
+     *         in which case the request was not admitted.
+     */
+   public boolean tryAcquire(final RequestClass requestClass) throws InterruptedException {
+      final int
+         index = requestClass.ordinal();
+      this.lock.lock();
+      try {
+         if(this.waiters.get(index).isEmpty() && isAdmissible(index)) {
+            ++this.inFlight[index];
+            ++this.acceptedCounts[index];
+            return true;
+         }
+         if(this.queueDepth >= this.maximumQueueSize && !shedLowerPriorityWaiter(index)) {
+            ++this.rejectedCounts[index];
+            return false;
+         }
+         final Waiter
+            waiter = new Waiter(this.lock.newCondition());
+         if(this.waiters.get(index).isEmpty())                     // Idle classes earn no credit
+            this.passes[index] = Math.max(this.passes[index], this.virtualTime);
+         this.waiters.get(index).addLast(waiter);
+         ++this.queueDepth;
+         long
+            remaining = this.queueTimeoutNanos;
+         try {
+            while(!waiter.isGranted) {
+               if(waiter.isShed)
+                  return false;
+               if(remaining <= 0L) {
+                  this.waiters.get(index).remove(waiter);
+                  --this.queueDepth;
+                  ++this.timedOutCounts[index];
+                  return false;
+               }
+               remaining = waiter.condition.awaitNanos(remaining);
+            }
+         }
+         catch(final InterruptedException e) {
+            if(waiter.isGranted) {
+               --this.inFlight[index];
+               admitWaiters();
+            }
+            else if(!waiter.isShed) {
+               this.waiters.get(index).remove(waiter);
+               --this.queueDepth;
+            }
+            throw e;
+         }
+         ++this.acceptedCounts[index];
+         return true;
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   /**
+     * Reject the most recently queued request of the class with the lowest priority
+     * below the priority of the specified class, if any.
+     * 
+     * @return
+     *    <code>True</code> if a request was rejected.
+     */
+   private boolean shedLowerPriorityWaiter(final int index) {
+      for(int i = REQUEST_CLASSES.length - 1; i> index; --i) {
+         final Waiter
+            waiter = this.waiters.get(i).pollLast();
+         if(waiter != null) {
+            waiter.isShed = true;
+            --this.queueDepth;
+            ++this.rejectedCounts[i];
+            waiter.condition.signal();
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   /**
+     * @return
+     *    <code>True</code> if a request of the class with the specified ordinal may be
+     *    admitted now.
+     */
+   private boolean isAdmissible(final int index) {
+      final int
+         limit = getLimit();
+      int
+         totalReserved = 0,
+         sharedInUse = 0;
+      for(int i = 0; i< REQUEST_CLASSES.length; ++i) {
+         final int
+            reserved = (int) (this.reservedShares[i] * limit);
+         if(i == index && this.inFlight[i] < reserved)
+            return true;
+         totalReserved += reserved;
+         sharedInUse += Math.max(0, this.inFlight[i] - reserved);
+      }
+      return sharedInUse < limit - totalReserved;
+   }
+   
+   /**
+     * Signal that an admitted request has completed, and adapt the limit to its
+     * latency.
+     * 
+     * @param requestClass <br>
+     *        The class of the request, as passed to {@link #tryAcquire(RequestClass)}.
+     * @param latencyNanos <br>
+     *        The time, in nanoseconds, for which the request was processed.
+     */
+   public void release(final RequestClass requestClass, final long latencyNanos) {
+      this.lock.lock();
+      try {
+         if(latencyNanos > this.latencyThresholdNanos)
+            this.limit = Math.max(this.minimumLimit, this.limit * BACKOFF_RATIO);
+         else if(2 * getInFlight() >= this.limit)
+            this.limit = Math.min(this.maximumLimit, this.limit + 1. / this.limit);
+         --this.inFlight[requestClass.ordinal()];
+         admitWaiters();
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   /**
+     * Admit waiting requests while the limit allows. Each admission goes to the
+     * admissible class with the lowest pass, whose pass then advances by the inverse of
+     * its weight.
+     */
+   private void admitWaiters() {
+      while(true) {
+         int
+            selected = -1;
+         for(int i = 0; i< REQUEST_CLASSES.length; ++i)
+            if(!this.waiters.get(i).isEmpty() && isAdmissible(i)
+               && (selected < 0 || this.passes[i] < this.passes[selected]))
+               selected = i;
+         if(selected < 0)
+            return;
+         final Waiter
+            waiter = this.waiters.get(selected).pollFirst();
+         --this.queueDepth;
+         waiter.isGranted = true;
+         ++this.inFlight[selected];
+         this.virtualTime = this.passes[selected];
+         this.passes[selected] += this.strides[selected];
+         waiter.condition.signal();
+      }
+   }
+   
+   @Override
+   public int getLimit() {
+      this.lock.lock();
+      try {
+         return Math.max(this.minimumLimit, (int) this.limit);
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   @Override
+   public int getInFlight() {
+      this.lock.lock();
+      try {
+         int
+            result = 0;
+         for(final int value : this.inFlight)
+            result += value;
+         return result;
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   @Override
+   public int getQueueDepth() {
+      this.lock.lock();
+      try {
+         return this.queueDepth;
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   @Override
+   public long getAcceptedCount() {
+      return sum(this.acceptedCounts);
+   }
+   
+   @Override
+   public long getRejectedCount() {
+      return sum(this.rejectedCounts);
+   }
+   
+   @Override
+   public long getTimedOutCount() {
+      return sum(this.timedOutCounts);
+   }
+   
+   private long sum(final long[] values) {
+      this.lock.lock();
+      try {
+         long
+            result = 0L;
+         for(final long value : values)
+            result += value;
+         return result;
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   @Override
+   public Map<String, Integer> getInFlightByClass() {
+      this.lock.lock();
+      try {
+         final Map<String, Integer>
+            result = new LinkedHashMap<String, Integer>();
+         for(final RequestClass requestClass : REQUEST_CLASSES)
+            result.put(requestClass.name(), this.inFlight[requestClass.ordinal()]);
+         return result;
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   @Override
+   public Map<String, Integer> getQueueDepthByClass() {
+      this.lock.lock();
+      try {
+         final Map<String, Integer>
+            result = new LinkedHashMap<String, Integer>();
+         for(final RequestClass requestClass : REQUEST_CLASSES)
+            result.put(requestClass.name(), this.waiters.get(requestClass.ordinal()).size());
+         return result;
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   @Override
+   public Map<String, Long> getRejectedCountByClass() {
+      this.lock.lock();
+      try {
+         final Map<String, Long>
+            result = new LinkedHashMap<String, Long>();
+         for(final RequestClass requestClass : REQUEST_CLASSES)
+            result.put(requestClass.name(), this.rejectedCounts[requestClass.ordinal()]
+               + this.timedOutCounts[requestClass.ordinal()]);
+         return result;
+      }
+      finally {
+         this.lock.unlock();
+      }
+   }
+   
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + ", limit: " + getLimit() + ", in flight: "
+            + getInFlightByClass() + ", queue depth: " + getQueueDepthByClass() + ".";
+   }
+}
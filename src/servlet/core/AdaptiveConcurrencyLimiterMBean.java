@@ -0,0 +1,84 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.util.Map;
+
+/**
+  * The JMX management interface of an {@link AdaptiveConcurrencyLimiter}.
+  * 
+  * @author phillips
+  */
+public interface AdaptiveConcurrencyLimiterMBean {
+   
+   /**
+     * @return
+     *    The current concurrency limit.
+     */
+   public int getLimit();
+   
+   /**
+     * @return
+     *    The number of requests currently admitted.
+     */
+   public int getInFlight();
+   
+   /**
+     * @return
+     *    The number of requests currently waiting to be admitted.
+     */
+   public int getQueueDepth();
+   
+   /**
+     * @return
+     *    The total number of requests admitted.
+     */
+   public long getAcceptedCount();
+   
+   /**
+     * @return
+     *    The total number of requests rejected because the wait queue was full.
+     */
+   public long getRejectedCount();
+   
+   /**
+     * @return
+     *    The total number of requests rejected because they waited longer than the queue
+     *    timeout.
+     */
+   public long getTimedOutCount();
+   
+   /**
+     * @return
+     *    The number of requests currently admitted, by request class.
+     */
+   public Map<String, Integer> getInFlightByClass();
+   
+   /**
+     * @return
+     *    The number of requests currently waiting to be admitted, by request class.
+     */
+   public Map<String, Integer> getQueueDepthByClass();
+   
+   /**
+     * @return
+     *    The total number of requests rejected for any reason, by request class.
+     */
+   public Map<String, Long> getRejectedCountByClass();
+}
@@ -0,0 +1,290 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+  * The parsed columns of a CSV file, and their binary sidecar file.<br><br>
+  * 
+  * A sidecar file stores the columns parsed from a CSV file so that the CSV file need
+  * not be parsed again. It consists of a header, identifying the CSV file by its size
+  * and last modification time, followed by the name of each column and then the values
+  * of each column, stored contiguously as little-endian <code>double</code> values.
+  * A sidecar file is stale, and is ignored, if the size or last modification time of
+  * the CSV file differ from those recorded in the sidecar file.<br><br>
+  * 
+  * Sidecar files are written to a temporary file and then moved into place, so that a
+  * partially written sidecar file is never read.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class CSVColumnSidecar {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(CSVColumnSidecar.class);
+   
+   /**
+     * The suffix appended to the name of a CSV file to obtain the name of its sidecar
+     * file.
+     */
+   static final String
+      FILE_SUFFIX = ".columns";
+   
+   private static final byte[]
+      MAGIC = "WCCOLS01".getBytes(StandardCharsets.US_ASCII);
+   private static final int
+      MAXIMUM_DOUBLES_PER_MAPPING = 1 << 27;
+   
+   final String[]
+      headers;
+   final double[][]
+      data;
+   final int
+      length;
+   final long
+      dataEnd;
+   
+   /**
+     * @param headers <br>
+     *        The names of the columns.
+     * @param data <br>
+     *        The values of each column. Each array must contain at least
+     *        <code>length</code> values.
+     * @param length <br>
+     *        The number of rows.
+     * @param dataEnd <br>
+     *        The position in the CSV file following the last parsed row.
+     */
+   CSVColumnSidecar(
+      final String[] headers,
+      final double[][] data,
+      final int length,
+      final long dataEnd
+      ) {
+      this.headers = headers;
+      this.data = data;
+      this.length = length;
+      this.dataEnd = dataEnd;
+   }
+   
+   /**
+     * Write these columns to a sidecar file, replacing any existing sidecar file.
+     * Failures are logged and otherwise ignored.
+     * 
+     * @param sidecar <br>
+     *        The sidecar file to write.
+     * @param sourceSize <br>
+     *        The size of the CSV file when it was parsed.
+     * @param sourceModifiedTime <br>
+     *        The last modification time, in milliseconds, of the CSV file when it was
+     *        parsed.
+     * @param timeColumnName <br>
+     *        The name of the column which was parsed as the time column.
+     */
+   void write(
+      final Path sidecar,
+      final long sourceSize,
+      final long sourceModifiedTime,
+      final String timeColumnName
+      ) {
+      final long
+         startTime = System.nanoTime();
+      Path
+         temporaryFile = null;
+      try {
+         temporaryFile = Files.createTempFile(
+            sidecar.toAbsolutePath().getParent(), sidecar.getFileName().toString(), ".tmp");
+         try (FileChannel channel = FileChannel.open(
+            temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer
+               header = encodeHeader(sourceSize, sourceModifiedTime, timeColumnName);
+            while(header.hasRemaining())
+               channel.write(header);
+            final ByteBuffer
+               buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            final DoubleBuffer
+               doubles = buffer.asDoubleBuffer();
+            for(final double[] column : this.data) {
+               for(int i = 0; i< this.length; i += doubles.capacity()) {
+                  final int
+                     count = Math.min(doubles.capacity(), this.length - i);
+                  doubles.clear();
+                  doubles.put(column, i, count);
+                  buffer.clear();
+                  buffer.limit(8 * count);
+                  while(buffer.hasRemaining())
+                     channel.write(buffer);
+               }
+            }
+         }
+         Files.move(temporaryFile, sidecar,
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         logger.info("wrote column sidecar file {} in {} ms.",
+            sidecar, (System.nanoTime() - startTime) / 1000000L);
+      }
+      catch(final IOException | UnsupportedOperationException e) {
+         logger.warn("could not write column sidecar file {}: {}", sidecar, e);
+         if(temporaryFile != null) {
+            try {
+               Files.deleteIfExists(temporaryFile);
+            }
+            catch(final IOException f) {
+               logger.warn("could not delete {}: {}", temporaryFile, f);
+            }
+         }
+      }
+   }
+   
+   private ByteBuffer encodeHeader(
+      final long sourceSize,
+      final long sourceModifiedTime,
+      final String timeColumnName
+      ) {
+      final byte[][]
+         names = new byte[this.headers.length + 1][];
+      int
+         size = MAGIC.length + 8 + 8 + 8 + 4 + 4;
+      for(int j = 0; j< names.length; ++j) {
+         names[j] = (j == 0 ? timeColumnName : this.headers[j - 1])
+            .getBytes(StandardCharsets.UTF_8);
+         size += 4 + names[j].length;
+      }
+      size = (size + 7) & ~7;
+      final ByteBuffer
+         result = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      result.put(MAGIC);
+      result.putLong(sourceSize);
+      result.putLong(sourceModifiedTime);
+      result.putLong(this.dataEnd);
+      result.putInt(this.length);
+      result.putInt(this.headers.length);
+      for(final byte[] name : names) {
+         result.putInt(name.length);
+         result.put(name);
+      }
+      result.position(0);
+      return result;
+   }
+   
+   /**
+     * Read the columns stored in a sidecar file.
+     * 
+     * @param sidecar <br>
+     *        The sidecar file to read.
+     * @param sourceSize <br>
+     *        The current size of the CSV file.
+     * @param sourceModifiedTime <br>
+     *        The current last modification time, in milliseconds, of the CSV file.
+     * @param timeColumnName <br>
+     *        The name of the column to be parsed as the time column.
+     * @return
+     *    The stored columns, or <code>null</code> if the sidecar file does not exist, is
+     *    stale, was written for a different time column, or could not be read.
+     */
+   static CSVColumnSidecar read(
+      final Path sidecar,
+      final long sourceSize,
+      final long sourceModifiedTime,
+      final String timeColumnName
+      ) {
+      final long
+         startTime = System.nanoTime();
+      try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+         final MappedByteBuffer
+            header = channel.map(FileChannel.MapMode.READ_ONLY, 0L,
+               Math.min(channel.size(), 1L << 26));
+         header.order(ByteOrder.LITTLE_ENDIAN);
+         final byte[]
+            magic = new byte[MAGIC.length];
+         header.get(magic);
+         if(!Arrays.equals(magic, MAGIC)) {
+            logger.warn("{} is not a column sidecar file; ignoring it.", sidecar);
+            return null;
+         }
+         final long
+            storedSourceSize = header.getLong(),
+            storedSourceModifiedTime = header.getLong(),
+            dataEnd = header.getLong();
+         final int
+            length = header.getInt(),
+            numberOfColumns = header.getInt();
+         final String
+            storedTimeColumnName = readName(header);
+         if(storedSourceSize != sourceSize || storedSourceModifiedTime != sourceModifiedTime
+            || !storedTimeColumnName.equals(timeColumnName)) {
+            logger.info("column sidecar file {} is stale; ignoring it.", sidecar);
+            return null;
+         }
+         final String[]
+            headers = new String[numberOfColumns];
+         for(int j = 0; j< numberOfColumns; ++j)
+            headers[j] = readName(header);
+         long
+            position = (header.position() + 7) & ~7;
+         if(channel.size() != position + 8L * length * numberOfColumns)
+            throw new IOException("unexpected size " + channel.size());
+         final double[][]
+            data = new double[numberOfColumns][length];
+         for(final double[] column : data) {
+            for(int i = 0; i< length; i += MAXIMUM_DOUBLES_PER_MAPPING) {
+               final int
+                  count = Math.min(MAXIMUM_DOUBLES_PER_MAPPING, length - i);
+               channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * count)
+                  .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(column, i, count);
+               position += 8L * count;
+            }
+         }
+         logger.info("read {} columns and {} rows from column sidecar file {} in {} ms.",
+            numberOfColumns, length, sidecar, (System.nanoTime() - startTime) / 1000000L);
+         return new CSVColumnSidecar(headers, data, length, dataEnd);
+      }
+      catch(final NoSuchFileException e) {
+         return null;
+      }
+      catch(final IOException | RuntimeException e) {
+         logger.warn("could not read column sidecar file {}: {}", sidecar, e);
+         return null;
+      }
+   }
+   
+   private static String readName(final ByteBuffer buffer) {
+      final byte[]
+         name = new byte[buffer.getInt()];
+      buffer.get(name);
+      return new String(name, StandardCharsets.UTF_8);
+   }
+}
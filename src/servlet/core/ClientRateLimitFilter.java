@@ -0,0 +1,224 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+  * A filter limiting the rate of servlet requests of each client with a
+  * {@link ClientRateLimiter}. Requests over the rate of their client are rejected at
+  * once with <code>429 Too Many Requests</code> and a <code>Retry-After</code> header
+  * stating when the client may next make a request. This filter is configured by
+  * web.xml.<br><br>
+  * 
+  * A client is identified by its API key header, if present and the key is one of the
+  * configured <code>apiKeys</code>, and otherwise by its HTTP session, if one exists,
+  * and otherwise by its remote address. Unknown keys are ignored, so that a client
+  * cannot obtain a fresh allowance, or evict the allowances of other clients, by
+  * sending a new key with each request.<br><br>
+  * 
+  * The limiter is registered as a JMX MBean named
+  * <code>servlet.core:type=ClientRateLimiter,name=[filter name]</code>, exposing the
+  * number of tracked clients, the allowed and throttled request counts, and the
+  * throttled clients.<br><br>
+  * 
+  * web.xml parameters:
+  * 
+  * <ul>
+  *   <li> <b><code>refillTokensPerSecond</code></b> (default <code>10</code>)<br>
+  *        The sustained rate, in requests per second, allowed to each client. This
+  *        parameter must be parseable as a strictly positive number.
+  *   <li> <b><code>burstSize</code></b> (default <code>20</code>)<br>
+  *        The largest number of requests a client may make at once after being idle.
+  *   <li> <b><code>maxTrackedClients</code></b> (default <code>10000</code>)<br>
+  *        The maximum number of clients whose rates are tracked.
+  *   <li> <b><code>idleExpirySeconds</code></b> (default <code>600</code>)<br>
+  *        The time, in seconds, after which an idle client is forgotten.
+  *   <li> <b><code>apiKeyHeader</code></b> (default <code>X-API-Key</code>)<br>
+  *        The name of the request header identifying a client by API key.
+  *   <li> <b><code>apiKeys</code></b> (default none)<br>
+  *        The API keys by which clients may be identified, separated by commas or
+  *        whitespace. If no keys are specified, API key headers are ignored.
+  * </ul>
+  * 
+  * @author phillips
+  */
+public final class ClientRateLimitFilter implements Filter {
+   
+   private ClientRateLimiter
+      limiter;
+   
+   private ObjectName
+      objectName;
+   
+   private String
+      apiKeyHeader;
+   
+   private Set<String>
+      apiKeys;
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(ClientRateLimitFilter.class);
+   
+   @Override
+   public void doFilter(
+      ServletRequest request,
+      ServletResponse response,
+      FilterChain chain
+      ) throws IOException, ServletException {
+      final String
+         client = identify(request);
+      final long
+         waitNanos = this.limiter.tryConsume(client);
+      if(waitNanos == 0L)
+         chain.doFilter(request, response);
+      else
+         reject(client, waitNanos, response);
+   }
+   
+   private String identify(final ServletRequest request) {
+      if(request instanceof HttpServletRequest) {
+         final HttpServletRequest
+            httpRequest = (HttpServletRequest) request;
+         final String
+            apiKey = httpRequest.getHeader(this.apiKeyHeader);
+         if(apiKey != null && this.apiKeys.contains(apiKey.trim()))
+            return "key:" + apiKey.trim();
+         final HttpSession
+            session = httpRequest.getSession(false);
+         if(session != null)
+            return "session:" + session.getId();
+      }
+      return "address:" + request.getRemoteAddr();
+   }
+   
+   private void reject(
+      final String client,
+      final long waitNanos,
+      final ServletResponse response
+      ) throws IOException {
+      logger.debug("request of {} throttled: {}", client, this.limiter);
+      if(response instanceof HttpServletResponse) {
+         final HttpServletResponse
+            httpResponse = (HttpServletResponse) response;
+         final long
+            retryAfterSeconds = Math.max(1L,
+               (waitNanos + TimeUnit.SECONDS.toNanos(1L) - 1L) / TimeUnit.SECONDS.toNanos(1L));
+         httpResponse.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+         httpResponse.sendError(429);
+      }
+   }
+   
+   @Override
+   public void destroy() {
+      if(this.objectName != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+         }
+         catch(final JMException e) {
+            logger.warn("failed to unregister {}: {}", this.objectName, e);
+         }
+      }
+   }
+   
+   /**
+     * Parse a numerical web.xml parameter.
+     * 
+     * @param defaultValue <br>
+     *        The value of the parameter if it is not specified.
+     */
+   private static double parseParameter(
+      final FilterConfig config,
+      final String name,
+      final double defaultValue
+      ) throws ServletException {
+      final String
+         value = config.getInitParameter(name);
+      if(value == null)
+         return defaultValue;
+      try {
+         return Double.parseDouble(value.trim());
+      }
+      catch(final NumberFormatException e) {
+         logger.error("the expression '" + value + "' is not a valid number.");
+         throw new ServletException(e);
+      }
+   }
+   
+   @Override
+   public void init(FilterConfig config) throws ServletException {
+      final double
+         refillTokensPerSecond = parseParameter(config, "refillTokensPerSecond", 10.);
+      final int
+         burstSize = (int) parseParameter(config, "burstSize", 20.);
+      try {
+         this.limiter = new ClientRateLimiter(
+            refillTokensPerSecond,
+            burstSize,
+            (long) parseParameter(config, "maxTrackedClients", 10000.),
+            (long) parseParameter(config, "idleExpirySeconds", 600.)
+            );
+      }
+      catch(final IllegalArgumentException e) {
+         logger.error("the rate limit parameters are invalid: " + e.getMessage());
+         throw new ServletException(e);
+      }
+      final String
+         apiKeyHeader = config.getInitParameter("apiKeyHeader");
+      this.apiKeyHeader = apiKeyHeader == null ? "X-API-Key" : apiKeyHeader.trim();
+      final String
+         apiKeys = config.getInitParameter("apiKeys");
+      this.apiKeys = new HashSet<String>();
+      if(apiKeys != null)
+         for(final String apiKey : apiKeys.split("[,\\s]+"))
+            if(!apiKey.isEmpty())
+               this.apiKeys.add(apiKey);
+      logger.info("{} API keys identify clients.", this.apiKeys.size());
+      logger.info("client request rate is at most " + refillTokensPerSecond
+         + " per second, with bursts of at most " + burstSize + ".");
+      try {
+         this.objectName = new ObjectName("servlet.core:type=ClientRateLimiter,name="
+            + ObjectName.quote(config.getFilterName()));
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this.limiter, this.objectName);
+      }
+      catch(final JMException e) {
+         logger.warn("failed to register the client rate limiter with JMX: {}", e);
+         this.objectName = null;
+      }
+   }
+}
@@ -0,0 +1,188 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+  * Per-client token buckets limiting the rate of requests of each client.<br><br>
+  * 
+  * Each client has a bucket holding at most <code>burstSize</code> tokens, which is
+  * refilled at a constant rate. A request consumes one token, and is throttled if the
+  * bucket is empty. Buckets are implemented by the generic cell rate algorithm: the
+  * state of a bucket is one {@link AtomicLong}, the time at which the bucket would be
+  * full again, which is advanced by compare-and-set. Allowing a request therefore
+  * costs a cache lookup and a few atomic operations.<br><br>
+  * 
+  * Buckets are held in a bounded cache, and expire when their client has been idle for
+  * a fixed time. The bucket of a new or expired client is full.<br><br>
+  * 
+  * This class is thread safe.
+  * 
+  * @author phillips
+  */
+public final class ClientRateLimiter implements ClientRateLimiterMBean {
+   
+   private static final class TokenBucket {
+      final AtomicLong
+         fullTime,
+         throttledCount;
+      
+      TokenBucket(final long now) {
+         this.fullTime = new AtomicLong(now);
+         this.throttledCount = new AtomicLong();
+      }
+   }
+   
+   private final long
+      nanosPerToken,
+      burstNanos;
+   private final Cache<String, TokenBucket>
+      buckets;
+   private final AtomicLong
+      allowedCount,
+      throttledCount;
+   
+   /**
+     * Create a {@link ClientRateLimiter} object.
+     * 
+     * @param tokensPerSecond <br>
+     *        The rate at which each bucket is refilled. This argument must be strictly
+     *        positive.
+     * @param burstSize <br>
+     *        The capacity of each bucket, and hence the largest number of requests a
+     *        client may make at once. This argument must be strictly positive.
+     * @param maximumClients <br>
+     *        The maximum number of buckets to hold. This argument must be strictly
+     *        positive.
+     * @param idleExpirySeconds <br>
+     *        The time, in seconds, after which the bucket of an idle client is
+     *        discarded. This argument must be strictly positive.
+     * @throws IllegalArgumentException if any argument is out of range.
+     */
+   public ClientRateLimiter(
+      final double tokensPerSecond,
+      final int burstSize,
+      final long maximumClients,
+      final long idleExpirySeconds
+      ) {
+      if(!(tokensPerSecond > 0.) || burstSize <= 0)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": refill rate and burst size must be strictly "
+          + "positive (values: " + tokensPerSecond + ", " + burstSize + ")");
+      if(maximumClients <= 0L || idleExpirySeconds <= 0L)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": maximum number of clients and idle expiry "
+          + "must be strictly positive (values: " + maximumClients + ", "
+          + idleExpirySeconds + ")");
+      this.nanosPerToken = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1L) / tokensPerSecond));
+      this.burstNanos = this.nanosPerToken * burstSize;
+      this.buckets = CacheBuilder.newBuilder()
+         .maximumSize(maximumClients)
+         .expireAfterAccess(idleExpirySeconds, TimeUnit.SECONDS)
+         .build();
+      this.allowedCount = new AtomicLong();
+      this.throttledCount = new AtomicLong();
+   }
+   
+   /**
+     * Consume one token from the bucket of the specified client.
+     * 
+     * @param client <br>
+     *        The key identifying the client. This argument must be non-<code>null</code>.
+     * @return
+     *    <code>0</code> if the request is allowed, or otherwise the time, in
+     *    nanoseconds, after which the bucket of the client will hold a token again.
+     */
+   public long tryConsume(final String client) {
+      Preconditions.checkNotNull(client);
+      final long
+         now = System.nanoTime();
+      TokenBucket
+         bucket = this.buckets.getIfPresent(client);
+      if(bucket == null) {
+         try {
+            bucket = this.buckets.get(client, () -> new TokenBucket(now));
+         }
+         catch(final ExecutionException e) {
+            throw new IllegalStateException(e);                // The loader cannot fail
+         }
+      }
+      final AtomicLong
+         fullTime = bucket.fullTime;
+      while(true) {
+         final long
+            current = fullTime.get(),
+            next = Math.max(current, now) + this.nanosPerToken,
+            excess = next - now - this.burstNanos;
+         if(excess > 0L) {
+            bucket.throttledCount.incrementAndGet();
+            this.throttledCount.incrementAndGet();
+            return excess;
+         }
+         if(fullTime.compareAndSet(current, next)) {
+            this.allowedCount.incrementAndGet();
+            return 0L;
+         }
+      }
+   }
+   
+   @Override
+   public long getTrackedClientCount() {
+      return this.buckets.size();
+   }
+   
+   @Override
+   public long getAllowedCount() {
+      return this.allowedCount.get();
+   }
+   
+   @Override
+   public long getThrottledCount() {
+      return this.throttledCount.get();
+   }
+   
+   @Override
+   public Map<String, Long> getThrottledClients() {
+      final Map<String, Long>
+         result = new TreeMap<String, Long>();
+      for(final Entry<String, TokenBucket> record : this.buckets.asMap().entrySet()) {
+         final long
+            count = record.getValue().throttledCount.get();
+         if(count > 0L)
+            result.put(record.getKey(), count);
+      }
+      return result;
+   }
+   
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + ", tracked clients: " + getTrackedClientCount()
+            + ", allowed: " + getAllowedCount() + ", throttled: " + getThrottledCount() + ".";
+   }
+}
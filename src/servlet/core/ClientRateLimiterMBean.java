@@ -0,0 +1,54 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.util.Map;
+
+/**
+  * The JMX management interface of a {@link ClientRateLimiter}.
+  * 
+  * @author phillips
+  */
+public interface ClientRateLimiterMBean {
+   
+   /**
+     * @return
+     *    The number of clients whose token buckets are currently tracked.
+     */
+   public long getTrackedClientCount();
+   
+   /**
+     * @return
+     *    The total number of requests allowed.
+     */
+   public long getAllowedCount();
+   
+   /**
+     * @return
+     *    The total number of requests throttled.
+     */
+   public long getThrottledCount();
+   
+   /**
+     * @return
+     *    The number of requests throttled for each currently tracked client which has
+     *    been throttled at least once, keyed by client.
+     */
+   public Map<String, Long> getThrottledClients();
+}
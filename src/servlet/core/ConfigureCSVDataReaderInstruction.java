@@ -18,6 +18,8 @@
   */
 package servlet.core;
 
+import java.nio.file.Paths;
+
 import javax.servlet.ServletContext;
 
 import org.apache.commons.lang3.StringUtils;
@@ -43,9 +45,34 @@ final class ConfigureCSVDataReaderInstruction extends AbstractAdminConfiguration
    private final static Logger
       logger = LoggerFactory.getLogger(AdminServlet.class);
    
+   /**
+     * The read mode in which the whole CSV file is parsed into memory. This is the
+     * default read mode. The parsed columns are stored in a binary sidecar file next to
+     * the CSV file, and are read from the sidecar file while the CSV file is unchanged.
+     * See {@link TitledCSVDataSource}.
+     */
+   static final String
+      EAGER_READ_MODE = "eager";
+   
+   /**
+     * The read mode in which the CSV file is memory-mapped and indexed, and columns are
+     * decoded on demand. See {@link MappedCSVDataSource}.
+     */
+   static final String
+      MAPPED_READ_MODE = "mapped";
+   
+   /**
+     * The interval at which a followed CSV file is polled for appended rows.
+     */
+   static final long
+      TAIL_INTERVAL_MILLISECONDS = 1000L;
+   
    private final String
       fileName,
-      nameOfTimeColumn;
+      nameOfTimeColumn,
+      readMode;
+   private final boolean
+      tailFile;
    
    /**
      * Create a {@link ConfigureCSVDataReaderInstruction} object.
@@ -65,20 +92,80 @@ final class ConfigureCSVDataReaderInstruction extends AbstractAdminConfiguration
       final String fileName,
       final String nameOfTimeColumn
       ) {
+      this(applicationName, fileName, nameOfTimeColumn, EAGER_READ_MODE);
+   }
+   
+   /**
+     * Create a {@link ConfigureCSVDataReaderInstruction} object with a custom read mode.
+     * <br><br>
+     * 
+     * See also {@link #ConfigureCSVDataReaderInstruction(String, String, String)}.
+     * 
+     * @param readMode <br>
+     *        Either {@link #EAGER_READ_MODE} or {@link #MAPPED_READ_MODE}. If this
+     *        argument is <code>null</code> or empty, the eager read mode is used.
+     */
+   public ConfigureCSVDataReaderInstruction(
+      final String applicationName,
+      final String fileName,
+      final String nameOfTimeColumn,
+      final String readMode
+      ) {
+      this(applicationName, fileName, nameOfTimeColumn, readMode, false);
+   }
+   
+   /**
+     * Create a {@link ConfigureCSVDataReaderInstruction} object with a custom read mode,
+     * optionally following rows appended to the CSV file.<br><br>
+     * 
+     * See also {@link #ConfigureCSVDataReaderInstruction(String, String, String, String)}.
+     * 
+     * @param tailFile <br>
+     *        Whether to follow rows appended to the CSV file after it has been parsed.
+     *        This option is supported in the eager read mode only.
+     */
+   public ConfigureCSVDataReaderInstruction(
+      final String applicationName,
+      final String fileName,
+      final String nameOfTimeColumn,
+      final String readMode,
+      final boolean tailFile
+      ) {
       super(applicationName);
       this.fileName = fileName;
       this.nameOfTimeColumn = nameOfTimeColumn;
+      this.readMode = readMode;
+      this.tailFile = tailFile;
    }
-
+   
    @Override
    public void configure(final ServletContext context)
       throws AdminConfigurationInstructionException {
       try {
          final DataSourceConnector
+            dataSourceConnector;
+         if(this.readMode == null || this.readMode.isEmpty()
+            || this.readMode.equals(EAGER_READ_MODE))
             dataSourceConnector = new TitledCSVDataSource(
+               this.fileName, this.nameOfTimeColumn,
+               Runtime.getRuntime().availableProcessors(),
+               this.tailFile ? TAIL_INTERVAL_MILLISECONDS : 0L,
+               Paths.get(this.fileName + CSVColumnSidecar.FILE_SUFFIX));
+         else if(this.tailFile)
+            throw new IllegalArgumentException(
+               "appended rows can only be followed in the " + EAGER_READ_MODE + " read mode");
+         else if(this.readMode.equals(MAPPED_READ_MODE))
+            dataSourceConnector = new MappedCSVDataSource(
                this.fileName, this.nameOfTimeColumn);
-         context.setAttribute("data-source-connector", dataSourceConnector);
-         logger.info("connected browser servlet to CSV data source.");
+         else
+            throw new IllegalArgumentException(
+               "unknown read mode '" + this.readMode + "'");
+         replaceDataSourceConnector(context, dataSourceConnector);
+         if(dataSourceConnector instanceof MappedCSVDataSource)
+            ((MappedCSVDataSource) dataSourceConnector).registerMBean();
+         logger.info("connected browser servlet to CSV data source (read mode: {}{}).",
+            this.readMode == null || this.readMode.isEmpty() ? EAGER_READ_MODE : this.readMode,
+            this.tailFile ? ", following appended rows" : "");
       }
       catch(final Exception e) {
          final String
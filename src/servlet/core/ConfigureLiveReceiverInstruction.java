@@ -26,6 +26,9 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import servlet.data.ChartRetentionPolicy;
+import servlet.data.LiveDataBuffer;
+
 /**
   * An implementation of the {@link AdminConfigurationInstruction} interface.<br><br>
   * 
@@ -35,6 +38,8 @@ import org.slf4j.LoggerFactory;
   *  <li> Enables the live receiver servlet (to receive and process incoming chart data)
   *  <li> Configures the data browser servlet with a data connection to the live
   *       receiver servlet.
+  *  <li> Optionally, sets the default {@link ChartRetentionPolicy} of the live data
+  *       buffer, bounding the number and the age of data points retained per chart.
   * </ul>
   * 
   * @author phillips
@@ -44,15 +49,48 @@ final class ConfigureLiveReceiverInstruction extends AbstractAdminConfigurationI
    private final static Logger
       logger = LoggerFactory.getLogger(AdminServlet.class);
    
+   private final int
+      maximumNumberOfPointsPerChart;
+   private final double
+      maximumAgeOfPoints;
+   
    /**
-     * Create a {@link ConfigureLiveReceiverInstruction} object.
+     * Create a {@link ConfigureLiveReceiverInstruction} object with unbounded
+     * chart retention.
      * 
      * @param applicationName <br>
      *        The name of the charting application. This string is required by the user
      *        browser. This argument must be non-<code>null</code> and non-empty.
      */
    public ConfigureLiveReceiverInstruction(final String applicationName) {
+      this(applicationName, 0, 0.);
+   }
+   
+   /**
+     * Create a {@link ConfigureLiveReceiverInstruction} object.<br><br>
+     * 
+     * See also {@link ChartRetentionPolicy#create(int, double)}.
+     * 
+     * @param applicationName <br>
+     *        The name of the charting application. This string is required by the user
+     *        browser. This argument must be non-<code>null</code> and non-empty.
+     * @param maximumNumberOfPointsPerChart <br>
+     *        The maximum number of data points to retain for each chart created by the
+     *        live receiver servlet. If this argument is zero, charts are unbounded.
+     *        This argument must be non-negative.
+     * @param maximumAgeOfPoints <br>
+     *        The maximum age of data points retained for each chart, relative to the
+     *        latest time stamp on the chart. If this argument is zero, data points are
+     *        not discarded on the basis of their age. This argument must be non-negative.
+     */
+   public ConfigureLiveReceiverInstruction(
+      final String applicationName,
+      final int maximumNumberOfPointsPerChart,
+      final double maximumAgeOfPoints
+      ) {
       super(applicationName);
+      this.maximumNumberOfPointsPerChart = maximumNumberOfPointsPerChart;
+      this.maximumAgeOfPoints = maximumAgeOfPoints;
    }
 
    @Override
@@ -60,17 +98,18 @@ final class ConfigureLiveReceiverInstruction extends AbstractAdminConfigurationI
       throws AdminConfigurationInstructionException {
       super.configure(context);
       try {
+         final LiveDataBuffer
+            dataBuffer = (LiveDataBuffer) context.getAttribute("live-receiver-data-buffer");
+         if(dataBuffer == null)
+            throw new NullPointerException("live data receiver has no data buffer.");
+         dataBuffer.setDefaultRetentionPolicy(ChartRetentionPolicy.create(
+            this.maximumNumberOfPointsPerChart, this.maximumAgeOfPoints));
          final AtomicBoolean
             liveReceiverServletLock =
                (AtomicBoolean) context.getAttribute("live-data-receiver-initialized");
          liveReceiverServletLock.set(true);
          logger.info("enabled live data receiver servlet.");
-         final DataSourceConnector
-            dataSourceConnector = (DataSourceConnector)
-               context.getAttribute("live-receiver-data-buffer");
-         if(dataSourceConnector == null)
-            throw new NullPointerException("live data receiver has no data buffer.");
-         context.setAttribute("data-source-connector", dataSourceConnector);
+         replaceDataSourceConnector(context, dataBuffer);
          logger.info("connected live data receiver buffer to charting servlet.");
       }
       catch(final Exception e) {
@@ -140,7 +140,7 @@ final class ConfigureRandomDataGeneratorInstruction extends AbstractAdminConfigu
             throw new AdminConfigurationInstructionException(
                "data type '" + this.dataType + "' is not recognized.");
          }
-         context.setAttribute("data-source-connector", dataSourceConnector);
+         replaceDataSourceConnector(context, dataSourceConnector);
          logger.info("connected random data generator, type: " + this.dataType);
       }
       catch(final Exception e) {
@@ -18,8 +18,14 @@
   */
 package servlet.core;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
@@ -33,15 +39,49 @@ import net.engio.mbassy.bus.error.PublicationError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import servlet.data.ColumnarLiveDataBuffer;
+import servlet.data.JournaledLiveDataBuffer;
+import servlet.data.LiveDataBuffer;
+import servlet.data.MappedLiveDataBuffer;
+import servlet.data.TreeSetLiveDataBuffer;
+import servlet.data.WriteAheadLog;
+
 /**
   * A {@link ServletContextListener}. This context listener adds attributes
   * to the global servlet context, including:
   * 
   * <ul>
-  *  <li> a reference to a {@link DataSourceConnector}, and
-  *  <li> an event bus.
+  *  <li> a reference to a {@link DataSourceConnector},
+  *  <li> the {@link LiveDataBuffer} used by the {@link LiveDataReceiver},
+  *  <li> an event bus, and
+  *  <li> the {@link LiveChartSubscriptionHub} of the {@link LiveChartWebSocketEndpoint},
+  *       which this listener deploys.
+  * </ul>
+  * 
+  * The type of the {@link LiveDataBuffer} is selected by the context parameter
+  * <code>liveDataBuffer</code>, which may take the following values:
+  * 
+  * <ul>
+  *   <li> <code>tree-set</code> (default) - a {@link TreeSetLiveDataBuffer}.
+  *   <li> <code>columnar</code> - a {@link ColumnarLiveDataBuffer}, storing chart
+  *        data in chunks of primitive arrays.
+  *   <li> <code>mapped</code> - a {@link MappedLiveDataBuffer}, storing chart data in
+  *        memory-mapped files in the directory specified by the context parameter
+  *        <code>liveDataBufferDirectory</code>. Charts stored by a previous instance of
+  *        the web application are reopened. If no directory is specified, the servlet
+  *        container temporary directory is used.
   * </ul>
   * 
+  * If the context parameter <code>liveDataJournalDirectory</code> is specified, the
+  * {@link LiveDataBuffer} is wrapped in a {@link JournaledLiveDataBuffer}, which records
+  * all incoming live data in a {@link WriteAheadLog} in that directory before
+  * acknowledging it. The context parameter <code>liveDataJournalCheckpointInterval</code>
+  * specifies the interval, in seconds, between checkpoints of the log (default 60).<br><br>
+  * 
+  * The context parameter <code>liveChartWebSocketMaximumPendingPoints</code> specifies
+  * the maximum number of data points queued per chart for each WebSocket client
+  * (default {@value LiveChartSubscriptionHub#DEFAULT_MAXIMUM_PENDING_POINTS}).
+  * 
   * @author phillips
   */
 public final class ContextStartupListener implements ServletContextListener {
@@ -52,6 +92,139 @@ public final class ContextStartupListener implements ServletContextListener {
    @Override
    public void contextDestroyed(final ServletContextEvent event) {
       logger.info("servlet context is shutting down.");
+      final Object
+         dataBuffer = event.getServletContext().getAttribute("live-receiver-data-buffer");
+      if(dataBuffer instanceof Closeable) {
+         try {
+            ((Closeable) dataBuffer).close();
+         }
+         catch(final IOException e) {
+            logger.error("failed to close live data buffer: {}", e);
+         }
+      }
+      final Object
+         subscriptionHub = event.getServletContext().getAttribute("live-chart-subscription-hub");
+      if(subscriptionHub instanceof Closeable) {
+         try {
+            ((Closeable) subscriptionHub).close();
+         }
+         catch(final IOException e) {
+            logger.error("failed to close live chart subscription hub: {}", e);
+         }
+      }
+      final Object
+         dataSourceConnector = event.getServletContext().getAttribute("data-source-connector");
+      if(dataSourceConnector instanceof Closeable && dataSourceConnector != dataBuffer) {
+         try {
+            ((Closeable) dataSourceConnector).close();
+         }
+         catch(final IOException e) {
+            logger.error("failed to close data source connector: {}", e);
+         }
+      }
+   }
+   
+   /**
+     * Create a {@link LiveDataBuffer} as specified by the context parameters
+     * <code>liveDataBuffer</code> and <code>liveDataBufferDirectory</code>.
+     * 
+     * @throws IllegalStateException if the buffer type is not recognized, or if the
+     *         buffer could not be created.
+     */
+   private static LiveDataBuffer createLiveDataBuffer(final ServletContext context) {
+      final String
+         bufferType = context.getInitParameter("liveDataBuffer");
+      switch(bufferType == null ? "tree-set" : bufferType.trim()) {
+      case "tree-set":
+         return new TreeSetLiveDataBuffer("Live Data Receiver");
+      case "columnar":
+         return new ColumnarLiveDataBuffer("Live Data Receiver");
+      case "mapped":
+         {
+         final String
+            directoryName = context.getInitParameter("liveDataBufferDirectory");
+         final Path
+            directory;
+         if(directoryName == null || directoryName.trim().isEmpty()) {
+            directory = ((File) context.getAttribute("javax.servlet.context.tempdir"))
+               .toPath().resolve("live-data");
+            logger.warn("no live data buffer directory specified, using {}", directory);
+         }
+         else
+            directory = Paths.get(directoryName.trim());
+         try {
+            return new MappedLiveDataBuffer("Live Data Receiver", directory);
+         }
+         catch(final IOException e) {
+            final String
+               errMsg = "failed to open live data buffer in " + directory + ": " + e;
+            logger.error(errMsg);
+            throw new IllegalStateException(errMsg, e);
+         }
+         }
+      default:
+         {
+         final String
+            errMsg = bufferType + " is not a valid live data buffer type.";
+         logger.error(errMsg);
+         throw new IllegalStateException(errMsg);
+         }
+      }
+   }
+   
+   /**
+     * Wrap the specified {@link LiveDataBuffer} in a {@link JournaledLiveDataBuffer}, if
+     * the context parameter <code>liveDataJournalDirectory</code> is specified.
+     * 
+     * @throws IllegalStateException if the write-ahead log could not be opened or
+     *         replayed.
+     */
+   private static LiveDataBuffer createJournal(
+      final ServletContext context,
+      final LiveDataBuffer dataBuffer
+      ) {
+      final String
+         directoryName = context.getInitParameter("liveDataJournalDirectory"),
+         checkpointInterval = context.getInitParameter("liveDataJournalCheckpointInterval");
+      if(directoryName == null || directoryName.trim().isEmpty())
+         return dataBuffer;
+      try {
+         return new JournaledLiveDataBuffer(
+            "Live Data Receiver", dataBuffer,
+            new WriteAheadLog(Paths.get(directoryName.trim())),
+            checkpointInterval == null ? 60L : Long.parseLong(checkpointInterval.trim()));
+      }
+      catch(final IOException | IllegalArgumentException e) {
+         final String
+            errMsg = "failed to open live data journal in " + directoryName + ": " + e;
+         logger.error(errMsg);
+         throw new IllegalStateException(errMsg, e);
+      }
+   }
+   
+   /**
+     * Create a {@link LiveChartSubscriptionHub}, subscribe it to the bus, and deploy the
+     * {@link LiveChartWebSocketEndpoint}. If the servlet container does not support
+     * WebSockets, neither is created. The WebSocket API is referenced only by
+     * {@link LiveChartWebSocketDeployment}, which is not loaded in that case.
+     * 
+     * @return
+     *    The hub, or <code>null</code> if the endpoint was not deployed.
+     * @throws IllegalStateException if the context parameter
+     *         <code>liveChartWebSocketMaximumPendingPoints</code> is not a strictly
+     *         positive integer.
+     */
+   private static Closeable deployLiveChartWebSocketEndpoint(
+      final ServletContext context,
+      final MBassador<Object> bus
+      ) {
+      if(context.getAttribute(LiveChartWebSocketDeployment.SERVER_CONTAINER_ATTRIBUTE) == null) {
+         logger.warn("the servlet container does not support websockets; "
+            + "live chart websocket endpoint not deployed.");
+         return null;
+      }
+      return LiveChartWebSocketDeployment.deploy(context, bus,
+         context.getInitParameter("liveChartWebSocketMaximumPendingPoints"));
    }
    
    private static final class BusPublicationErrorHandler implements IPublicationErrorHandler {
@@ -78,8 +251,15 @@ public final class ContextStartupListener implements ServletContextListener {
             .setProperty(Properties.Handler.PublicationError, new BusPublicationErrorHandler()
             ));
       event.getServletContext().setAttribute("bus", bus);
+      event.getServletContext().setAttribute("live-chart-subscription-hub",
+         deployLiveChartWebSocketEndpoint(event.getServletContext(), bus));
       event.getServletContext().setAttribute("data-browser-initialized", new AtomicBoolean());
       event.getServletContext().setAttribute("live-data-receiver-initialized", new AtomicBoolean());
+      final LiveDataBuffer
+         dataBuffer = createJournal(
+            event.getServletContext(), createLiveDataBuffer(event.getServletContext()));
+      logger.info("live data buffer type: {}", dataBuffer.getClass().getSimpleName());
+      event.getServletContext().setAttribute("live-receiver-data-buffer", dataBuffer);
       logger.info("success.");
    }
 }
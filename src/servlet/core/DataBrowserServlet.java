@@ -18,27 +18,55 @@
   */
 package servlet.core;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.engio.mbassy.bus.MBassador;
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import servlet.core.DataSourceConnector.DataSourceException;
+import servlet.data.ChartInformation;
+import servlet.data.DownsamplingUtils;
 import servlet.data.TimestampedDatum;
 
+import com.google.common.base.Throwables;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
 /**
   * Servlet implementation class DataBrowserServlet
@@ -48,6 +76,7 @@ import com.google.gson.GsonBuilder;
    description = "Browser for data charts",
    urlPatterns = { "/DataBrowserServlet" }
    )
+@Listener(references = References.Strong)
 public final class DataBrowserServlet extends HttpServlet {
    
    private static final long serialVersionUID = 8026415575589209128L;
@@ -64,6 +93,38 @@ public final class DataBrowserServlet extends HttpServlet {
    private AtomicBoolean
       isInitialized;
    
+   /**
+     * The maximum time, in milliseconds, for which a <code>download_data</code> request
+     * may wait for new data.
+     */
+   public static final long
+      MAXIMUM_WAIT_MILLISECONDS = 60000L;
+   
+   private static final String
+      RESUMED_ATTRIBUTE = DataBrowserServlet.class.getName() + ".resumed";
+   
+   private MBassador<Object>
+      bus;
+   
+   private final Map<String, Set<ParkedRequest>>
+      parkedRequests;
+   
+   private final SingleFlight<DownloadDataKey, byte[]>
+      inFlightDownloads;
+   
+   /**
+     * The default maximum total size, in bytes, of cached <code>download_data</code>
+     * responses.
+     */
+   public static final long
+      DEFAULT_RESPONSE_CACHE_MAXIMUM_BYTES = 16L << 20;
+   
+   private ResponseCache<DownloadDataKey>
+      responseCache;
+   
+   private ObjectName
+      responseCacheName;
+   
    /**
      * Create a {@link DataBrowserServlet} object.
      * 
@@ -74,14 +135,65 @@ public final class DataBrowserServlet extends HttpServlet {
       logger.info("loading data browser servlet..");
       this.dataSourceConnector = null;
       this.gson = new GsonBuilder().create();
+      this.parkedRequests = new ConcurrentHashMap<String, Set<ParkedRequest>>();
+      this.inFlightDownloads = new SingleFlight<DownloadDataKey, byte[]>();
       logger.info("data browser servlet loaded successfully.");
    }
    
+   @SuppressWarnings("unchecked")
    @Override
    public void init() throws ServletException {
       super.init();
       this.isInitialized =
          (AtomicBoolean) super.getServletContext().getAttribute("data-browser-initialized");
+      this.bus = (MBassador<Object>) super.getServletContext().getAttribute("bus");
+      if(this.bus != null)
+         this.bus.subscribe(this);
+      else
+         logger.warn("no event bus is bound to the servlet context; "
+            + "download_data requests will not wait for new data.");
+      final String
+         cacheSizeParameter = super.getInitParameter("responseCacheMaximumBytes");
+      try {
+         this.responseCache = new ResponseCache<DownloadDataKey>(
+            cacheSizeParameter == null ? DEFAULT_RESPONSE_CACHE_MAXIMUM_BYTES :
+               Long.parseLong(cacheSizeParameter.trim()));
+      }
+      catch(final IllegalArgumentException e) {
+         throw new ServletException(getClass().getSimpleName()
+            + ": response cache size is not a non-negative integer.", e);
+      }
+      try {
+         this.responseCacheName = new ObjectName("servlet.core:type=ResponseCache,name="
+            + ObjectName.quote(super.getServletName()));
+         ManagementFactory.getPlatformMBeanServer().registerMBean(
+            this.responseCache, this.responseCacheName);
+      }
+      catch(final JMException e) {
+         logger.warn("failed to register the response cache with JMX: {}", e);
+         this.responseCacheName = null;
+      }
+   }
+   
+   @Override
+   public void destroy() {
+      logger.info("download_data responses computed: {}, shared with identical requests: {}.",
+         this.inFlightDownloads.getExecutedCount(), this.inFlightDownloads.getSharedCount());
+      logger.info("download_data response cache: {}", this.responseCache);
+      if(this.responseCacheName != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.responseCacheName);
+         }
+         catch(final JMException e) {
+            logger.warn("failed to unregister {}: {}", this.responseCacheName, e);
+         }
+      }
+      if(this.bus != null)
+         this.bus.unsubscribe(this);
+      for(final Set<ParkedRequest> requests : this.parkedRequests.values())
+         for(final ParkedRequest request : requests)
+            request.release();
+      super.destroy();
    }
    
    /**
@@ -101,60 +213,564 @@ public final class DataBrowserServlet extends HttpServlet {
    /**
      * Process a <code>list_known_charts</code> request.
      * 
-     * @param responseMap <br>
-     *        The map to which responses are to be inserted. This argument must be
-     *        non-<code>null</code>.
+     * @param writer <br>
+     *        The {@link JsonWriter} to which the value of the response is to be
+     *        written. This argument must be non-<code>null</code>.
      */
-   private void listKnownCharts(final Map<String, Object> responseMap) {
+   private void listKnownCharts(final JsonWriter writer) throws IOException {
       try {
-         responseMap.put("known_charts", this.gson.toJson(
-            this.dataSourceConnector.getKnownCharts()));
+         final List<ChartInformation>
+            knownCharts = this.dataSourceConnector.getKnownCharts();
+         this.gson.toJson(knownCharts, knownCharts.getClass(), writer);
       } catch (final DataSourceException e) {
-         responseMap.put("known_charts", this.gson.toJson(""));
+         writer.beginArray().endArray();
       }
    }
    
    /**
      * Process a <code>get_data_name</code> request.
      * 
-     * @param responseMap <br>
-     *        The map to which responses are to be inserted. This argument must be
-     *        non-<code>null</code>.
+     * @param writer <br>
+     *        The {@link JsonWriter} to which the value of the response is to be
+     *        written. This argument must be non-<code>null</code>.
      */
-   private void processGetDataNameRequest(final Map<String, Object> responseMap) {
-      responseMap.put("data_name", this.dataSourceConnector.getDataSourceName());
+   private void processGetDataNameRequest(final JsonWriter writer) throws IOException {
+      writer.value(this.dataSourceConnector.getDataSourceName());
    }
    
    private static final class DownloadDataRequest {
       private String
          chartName;
       private double
-         timeOfInterest;
+         timeOfInterest,
+         resolution;
+      private Double
+         toTimeOfInterest;
+      private int
+         pixels,
+         maxPoints;
+      private long
+         waitMillis;
+      private String
+         aggregate;
+      
+      boolean isMeanRequested() {
+         return "mean".equalsIgnoreCase(this.aggregate);
+      }
+   }
+   
+   /**
+     * The parameters of a <code>download_data</code> request which determine its
+     * response, together with the version of the chart data from which the response is
+     * generated.
+     */
+   private static final class DownloadDataKey {
+      private final String
+         chartName;
+      private final double
+         timeOfInterest,
+         resolution;
+      private final Double
+         toTimeOfInterest;
+      private final int
+         pixels,
+         maxPoints;
+      private final boolean
+         isMeanRequested;
+      private final ResponseFormat
+         format;
+      private final long
+         version;
+      
+      DownloadDataKey(
+         final DownloadDataRequest request,
+         final ResponseFormat format,
+         final long version
+         ) {
+         this.chartName = request.chartName;
+         this.timeOfInterest = request.timeOfInterest;
+         this.resolution = request.resolution;
+         this.toTimeOfInterest = request.toTimeOfInterest;
+         this.pixels = request.pixels;
+         this.maxPoints = request.maxPoints;
+         this.isMeanRequested = request.isMeanRequested();
+         this.format = format;
+         this.version = version;
+      }
+      
+      @Override
+      public boolean equals(final Object object) {
+         if(this == object)
+            return true;
+         if(!(object instanceof DownloadDataKey))
+            return false;
+         final DownloadDataKey
+            other = (DownloadDataKey) object;
+         return Objects.equals(this.chartName, other.chartName)
+            && Double.compare(this.timeOfInterest, other.timeOfInterest) == 0
+            && Double.compare(this.resolution, other.resolution) == 0
+            && Objects.equals(this.toTimeOfInterest, other.toTimeOfInterest)
+            && this.pixels == other.pixels
+            && this.maxPoints == other.maxPoints
+            && this.isMeanRequested == other.isMeanRequested
+            && this.format == other.format
+            && this.version == other.version;
+      }
+      
+      @Override
+      public int hashCode() {
+         return Objects.hash(this.chartName, this.timeOfInterest, this.resolution,
+            this.toTimeOfInterest, this.pixels, this.maxPoints, this.isMeanRequested,
+            this.format, this.version);
+      }
    }
    
    /**
-     * Process a <code>download-data</code> request.
+     * A <code>download_data</code> request suspended until new data is uploaded to any
+     * of its charts, or until its timeout expires. In either case, the request is
+     * dispatched to this servlet again, and is then answered without waiting.
+     */
+   private final class ParkedRequest implements AsyncListener {
+      final Set<String>
+         chartNames;
+      private AsyncContext
+         context;                                              // Guarded by this
+      private boolean
+         isReleased;                                           // Guarded by this
+      
+      ParkedRequest(final Set<String> chartNames) {
+         this.chartNames = chartNames;
+         for(final String chartName : chartNames)
+            parkedRequests.computeIfAbsent(
+               chartName, name -> ConcurrentHashMap.newKeySet()).add(this);
+      }
+      
+      /**
+        * Suspend this request in the specified {@link AsyncContext}. If this request has
+        * already been released, it is dispatched at once.
+        */
+      synchronized void park(final AsyncContext context) {
+         this.context = context;
+         if(this.isReleased)
+            context.dispatch();
+      }
+      
+      /**
+        * Resume this request. This method has no effect if the request has already been
+        * released.
+        */
+      synchronized void release() {
+         if(this.isReleased)
+            return;
+         this.isReleased = true;
+         unregister();
+         if(this.context != null)
+            this.context.dispatch();
+      }
+      
+      void unregister() {
+         for(final String chartName : this.chartNames) {
+            final Set<ParkedRequest>
+               requests = parkedRequests.get(chartName);
+            if(requests != null)
+               requests.remove(this);
+         }
+      }
+      
+      @Override
+      public void onTimeout(final AsyncEvent event) {
+         release();
+      }
+      
+      @Override
+      public void onComplete(final AsyncEvent event) {
+         unregister();
+      }
+      
+      @Override
+      public void onError(final AsyncEvent event) {
+         unregister();
+      }
+      
+      @Override
+      public void onStartAsync(final AsyncEvent event) { }
+   }
+   
+   /**
+     * Release all <code>download_data</code> requests waiting for data from the chart
+     * named by a {@link LiveDataUploadedEvent}.
+     */
+   @Handler
+   public void onLiveDataUploaded(final LiveDataUploadedEvent event) {
+      final Set<ParkedRequest>
+         requests = this.parkedRequests.get(event.getChartName());
+      if(requests != null)
+         for(final ParkedRequest request : requests)
+            request.release();
+   }
+   
+   /**
+     * Suspend a request until new data is available, if any of its
+     * <code>download_data</code> values specifies a <code>waitMillis</code> and none of
+     * its charts has data after the requested time of interest.
      * 
-     * @param values <br>
-     *        The raw value list for this parameter.
-     * @param responseMap <br>
-     *        The map to which responses are to be inserted. This argument must be
-     *        non-<code>null</code>.
+     * @return
+     *    <code>True</code> if the request was suspended, in which case it must not be
+     *    answered now.
      */
-   private void processDownloadDataRequest(
-      final String requestString,
-      final Map<String, Object> results
+   private boolean parkUntilDataArrives(
+      final HttpServletRequest request,
+      final String[] requestStrings
       ) {
-      final DownloadDataRequest
-         request = this.gson.fromJson(requestString, DownloadDataRequest.class);
+      if(requestStrings == null || this.bus == null || !request.isAsyncSupported()
+         || request.getAttribute(RESUMED_ATTRIBUTE) != null)
+         return false;
+      final List<DownloadDataRequest>
+         downloadRequests = new ArrayList<DownloadDataRequest>();
+      final Set<String>
+         chartNames = new HashSet<String>();
+      long
+         waitMillis = 0L;
+      for(final String requestString : requestStrings) {
+         final DownloadDataRequest
+            downloadRequest = this.gson.fromJson(requestString, DownloadDataRequest.class);
+         if(downloadRequest == null || downloadRequest.chartName == null)
+            continue;
+         downloadRequests.add(downloadRequest);
+         chartNames.add(downloadRequest.chartName);
+         waitMillis = Math.max(waitMillis, downloadRequest.waitMillis);
+      }
+      if(waitMillis <= 0L || chartNames.isEmpty())
+         return false;
+      /*
+       * Register before testing for data, so that an upload arriving in between
+       * releases the request instead of being missed:
+       */
+      final ParkedRequest
+         parkedRequest = new ParkedRequest(chartNames);
       try {
+         for(final DownloadDataRequest downloadRequest : downloadRequests)
+            if(this.dataSourceConnector.hasData(
+               downloadRequest.chartName, downloadRequest.timeOfInterest, false)) {
+               parkedRequest.unregister();
+               return false;
+            }
+      }
+      catch(final DataSourceException e) {
+         parkedRequest.unregister();
+         return false;
+      }
+      request.setAttribute(RESUMED_ATTRIBUTE, Boolean.TRUE);
+      final AsyncContext
+         context = request.startAsync();
+      context.setTimeout(Math.min(waitMillis, MAXIMUM_WAIT_MILLISECONDS));
+      context.addListener(parkedRequest);
+      parkedRequest.park(context);
+      return true;
+   }
+   
+   /**
+     * The shape in which <code>download_data</code> responses are written. See
+     * {@link DataBrowserServlet#doPost(HttpServletRequest, HttpServletResponse)}.
+     */
+   private enum ResponseFormat {
+      POINTS("points"),
+      COLUMNAR("columnar"),
+      COLUMNAR_DELTA("columnar-delta"),
+      BINARY("binary");
+      
+      private final String
+         name;
+      
+      private ResponseFormat(final String name) {
+         this.name = name;
+      }
+      
+      /**
+        * Select the response format for a request. An explicit <code>format</code>
+        * parameter takes precedence over the <code>Accept</code> header.
+        */
+      static ResponseFormat negotiate(final HttpServletRequest request) {
+         final String
+            format = request.getParameter("format");
+         if(format != null) {
+            for(final ResponseFormat candidate : values())
+               if(candidate.name.equalsIgnoreCase(format.trim()))
+                  return candidate;
+            logger.warn("unknown response format: {}; using {}.", format, POINTS.name);
+            return POINTS;
+         }
+         final String
+            accept = request.getHeader("Accept");
+         if(accept != null && accept.contains(BINARY_CONTENT_TYPE))
+            return BINARY;
+         return POINTS;
+      }
+   }
+   
+   private static final String
+      BINARY_CONTENT_TYPE = "application/octet-stream";
+   
+   /**
+     * Read the data points selected by a <code>download_data</code> request, and pass
+     * them in time order to the specified handler.
+     */
+   private void readData(
+      final DownloadDataRequest request,
+      final DataSourceConnector.DataPointHandler handler
+      ) throws DataSourceException, IOException {
+      if(request.resolution > 0. || request.toTimeOfInterest != null ||
+         request.pixels > 0 || request.maxPoints > 0) {
+         final double
+            toTimeOfInterest = request.toTimeOfInterest == null ?
+               Double.POSITIVE_INFINITY : request.toTimeOfInterest;
+         double
+            resolution = request.resolution;
+         if(request.pixels > 0 && toTimeOfInterest < Double.POSITIVE_INFINITY
+            && request.timeOfInterest > -Double.MAX_VALUE)         // Both ends specified
+            resolution = Math.max(resolution,
+               (toTimeOfInterest - request.timeOfInterest) / request.pixels);
          final List<TimestampedDatum>
-            result = this.dataSourceConnector.getData(
-               request.chartName, request.timeOfInterest, false);
-         results.put(request.chartName, this.gson.toJson(result));
+            data = request.isMeanRequested() && resolution > 0. ?
+               this.dataSourceConnector.getMeans(request.chartName,
+                  Math.nextUp(request.timeOfInterest), toTimeOfInterest, resolution) :
+               this.dataSourceConnector.getData(request.chartName,
+                  Math.nextUp(request.timeOfInterest), toTimeOfInterest, resolution),
+            result;
+         if(request.pixels > 0)
+            result = DownsamplingUtils.m4(data, request.pixels);
+         else if(request.maxPoints >= 3)
+            result = DownsamplingUtils.lttb(data, request.maxPoints);
+         else
+            result = data;
+         for(final TimestampedDatum datum : result)
+            handler.handle(datum.getTime(), datum.getValue());
+      }
+      else
+         this.dataSourceConnector.streamData(
+            request.chartName, request.timeOfInterest, false, handler);
+   }
+   
+   /**
+     * A growable column of numbers, buffered in a primitive array.
+     */
+   private static final class DoubleColumn {
+      double[]
+         data = new double[1024];
+      int
+         size;
+      
+      void add(final double value) {
+         if(this.size == this.data.length)
+            this.data = Arrays.copyOf(this.data, this.size * 2);
+         this.data[this.size++] = value;
+      }
+   }
+   
+   /**
+     * Process a <code>download-data</code> request. Identical requests in flight at the
+     * same time share one computation of the response: the data points are read from
+     * the {@link DataSourceConnector} and serialized once, and the serialized bytes are
+     * written to the response of every such request.<br><br>
+     * 
+     * If the chart is versioned (see {@link DataSourceConnector#getVersion(String)}),
+     * the serialized response is also cached under the version of the chart, and
+     * identical requests are answered from the cache until data is next uploaded to
+     * the chart. The version is read before the data, so that a cached response is
+     * never older than its version.
+     * 
+     * @param request <br>
+     *        The parsed value of this parameter.
+     * @param format <br>
+     *        The {@link ResponseFormat} in which to write the data points.
+     * @return
+     *    The serialized response, which must not be modified.
+     */
+   private byte[] processDownloadDataRequest(
+      final DownloadDataRequest request,
+      final ResponseFormat format
+      ) throws IOException {
+      final long
+         version = request.chartName == null ? -1L :
+            this.dataSourceConnector.getVersion(request.chartName);
+      final DownloadDataKey
+         key = new DownloadDataKey(request, format, version);
+      if(version >= 0L) {
+         final byte[]
+            cached = this.responseCache.get(key);
+         if(cached != null)
+            return cached;
+      }
+      try {
+         return this.inFlightDownloads.execute(key, () -> {
+            final byte[]
+               result = encodeDownloadData(request, format);
+            if(version >= 0L)
+               this.responseCache.put(key, result);
+            return result;
+         });
+      }
+      catch(final ExecutionException e) {
+         Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+         throw Throwables.propagate(e.getCause());
+      }
+   }
+   
+   /**
+     * Serialize the response of a <code>download-data</code> request in the specified
+     * format: a JSON value for the JSON formats, or one block of <code>float64</code>
+     * numbers for the binary format.
+     */
+   private byte[] encodeDownloadData(
+      final DownloadDataRequest request,
+      final ResponseFormat format
+      ) throws IOException {
+      if(format == ResponseFormat.BINARY)
+         return encodeBinaryDownloadData(request);
+      final ByteArrayOutputStream
+         bytes = new ByteArrayOutputStream();
+      final JsonWriter
+         writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+      if(format == ResponseFormat.POINTS) {
+         writer.beginArray();
+         try {
+            readData(request, (time, value) -> writeDataPoint(writer, time, value));
+         }
+         catch(final DataSourceException e) {
+            logger.debug("download_data: {}", e.getMessage());
+         }
+         writer.endArray().close();
+         return bytes.toByteArray();
+      }
+      /*
+       * Time stamps are written as they are read, and values are buffered until the
+       * time stamps are complete. Delta-encoded time stamps are the difference from
+       * the time stamp reconstructed by the client, so that rounding errors do not
+       * accumulate along the column.
+       */
+      final boolean
+         isDeltaEncoded = format == ResponseFormat.COLUMNAR_DELTA;
+      final DoubleColumn
+         values = new DoubleColumn();
+      final double[]
+         lastTime = { 0. };
+      writer.beginObject().name("t").beginArray();
+      try {
+         readData(request, (time, value) -> {
+            if(isDeltaEncoded && values.size > 0) {
+               final double
+                  delta = time - lastTime[0];
+               writer.value(delta);
+               lastTime[0] += delta;
+            }
+            else {
+               writer.value(time);
+               lastTime[0] = time;
+            }
+            values.add(value);
+         });
       }
       catch(final DataSourceException e) {
-         results.put(request.chartName, this.gson.toJson(""));
+         logger.debug("download_data: {}", e.getMessage());
+      }
+      writer.endArray().name("v").beginArray();
+      for(int i = 0; i< values.size; ++i)
+         writer.value(values.data[i]);
+      writer.endArray().endObject().close();
+      return bytes.toByteArray();
+   }
+   
+   private static void writeDataPoint(
+      final JsonWriter writer,
+      final double time,
+      final double value
+      ) throws IOException {
+      writer.beginObject().name("time").value(time).name("value").value(value).endObject();
+   }
+   
+   /**
+     * Serialize the response of a <code>download-data</code> request in the binary
+     * {@link ResponseFormat}: one block of little-endian IEEE 754 <code>float64</code>
+     * numbers, being the number of data points <code>n</code>, followed by
+     * <code>n</code> time stamps and <code>n</code> values.
+     */
+   private byte[] encodeBinaryDownloadData(
+      final DownloadDataRequest request
+      ) throws IOException {
+      final DoubleColumn
+         times = new DoubleColumn(),
+         values = new DoubleColumn();
+      try {
+         readData(request, (time, value) -> {
+            times.add(time);
+            values.add(value);
+         });
+      }
+      catch(final DataSourceException e) {
+         logger.debug("download_data: {}", e.getMessage());
+      }
+      final ByteBuffer
+         buffer = ByteBuffer.allocate(Double.BYTES * (1 + 2 * times.size))
+            .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putDouble(times.size);
+      for(int i = 0; i< times.size; ++i)
+         buffer.putDouble(times.data[i]);
+      for(int i = 0; i< values.size; ++i)
+         buffer.putDouble(values.data[i]);
+      return buffer.array();
+   }
+   
+   /**
+     * A JSON value written by a {@link JsonWriter}.
+     */
+   private interface JsonValue {
+      public void write(JsonWriter writer) throws IOException;
+   }
+   
+   /**
+     * The JSON object of a response, written to the response stream member by member.
+     * The value of each member is either written by a {@link JsonValue} or copied from
+     * already serialized bytes.
+     */
+   private static final class ResponseObject {
+      private final OutputStream
+         stream;
+      private boolean
+         isEmpty;
+      
+      ResponseObject(final OutputStream stream) throws IOException {
+         this.stream = stream;
+         this.isEmpty = true;
+         stream.write('{');
+      }
+      
+      void member(final String name, final JsonValue value) throws IOException {
+         member(name, serialize(value));
+      }
+      
+      void member(final String name, final byte[] value) throws IOException {
+         if(!this.isEmpty)
+            this.stream.write(',');
+         this.isEmpty = false;
+         this.stream.write(serialize(writer -> writer.value(name)));
+         this.stream.write(':');
+         this.stream.write(value);
+      }
+      
+      void close() throws IOException {
+         this.stream.write('}');
+         this.stream.close();
+      }
+      
+      private static byte[] serialize(final JsonValue value) throws IOException {
+         final ByteArrayOutputStream
+            bytes = new ByteArrayOutputStream();
+         final JsonWriter
+            writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+         writer.setLenient(true);
+         value.write(writer);
+         writer.close();
+         return bytes.toByteArray();
       }
    }
    
@@ -170,8 +786,8 @@ public final class DataBrowserServlet extends HttpServlet {
      *         then the response is an empty string keyed by <code>not_ready</code>.
      * 
      *    <li> For parameters named <code>list_known_charts</code> with no value
-     *         the response is an ordered {@link List} of strings in JSON format.
-     *         This list may or may not be empty, keyed by <code>known-charts</code>.
+     *         the response is an ordered JSON array of {@link ChartInformation} objects.
+     *         This array may or may not be empty, keyed by <code>known_charts</code>.
      * 
      *    <li> For parameters named <code>get_data_name</code> with no value
      *         the response is a single {@link String} keyed by <code>data_name</code>.
@@ -187,13 +803,80 @@ public final class DataBrowserServlet extends HttpServlet {
      *         after (and not including) time <code>T</code>.<br><br>
      * 
      *         The response of the servlet is to insert a key <code>M</code> with
-     *         name <code>X</code>. The value of this key is a JSON formatted
-     *         array of double pairs <code>{ t1, v1 }, { t2, v2 }</code> with
-     *         <code>t > T</code> for all <code>t1, t2 ...</code>.
+     *         name <code>X</code>. The value of this key is a JSON array of
+     *         objects <code>{ time: t1, value: v1 }, { time: t2, value: v2 }</code>
+     *         with <code>t > T</code> for all <code>t1, t2 ...</code>. If chart
+     *         <code>X</code> is not known, the array is empty.<br><br>
+     * 
+     *         The request may optionally specify a strictly positive
+     *         <code>resolution</code>, being the width of time represented by one
+     *         pixel of the requesting chart. In this case the data source may return
+     *         only the minimum and maximum data points in each interval of (about)
+     *         this width. See {@link DataSourceConnector#getData(String, double, double,
+     *         double)}.<br><br>
+     * 
+     *         The request may also optionally specify:
+     *         <ul>
+     *          <li> <code>toTimeOfInterest</code>, the (inclusive) end of the time range
+     *               of interest;
+     *          <li> <code>pixels</code>, the width in pixels of the requesting chart. In
+     *               this case the response is reduced by M4 aggregation to at most four
+     *               data points per pixel column (see
+     *               {@link DownsamplingUtils#m4(List, int)}), or
+     *          <li> <code>maxPoints</code>, the maximum number of data points required. In
+     *               this case the response is reduced by Largest-Triangle-Three-Buckets
+     *               downsampling (see {@link DownsamplingUtils#lttb(List, int)});
+     *          <li> <code>aggregate</code>, which, if <code>mean</code> and a
+     *               <code>resolution</code> or <code>pixels</code> is specified, requests
+     *               the mean of the data in each interval of (about) the resolution in
+     *               place of its minimum and maximum (see
+     *               {@link DataSourceConnector#getMeans(String, double, double, double)}),
+     *               and
+     *          <li> <code>waitMillis</code>, a time in milliseconds for which to wait for
+     *               new data. If no chart named by the <code>download_data</code> values
+     *               of the request has data after its time of interest, the request is
+     *               suspended without holding a thread until data is uploaded to any of
+     *               these charts by the {@link LiveDataReceiver}, or until the largest
+     *               <code>waitMillis</code> of the request (at most
+     *               {@value #MAXIMUM_WAIT_MILLISECONDS}) has elapsed. The request is
+     *               then answered as usual.
+     *         </ul>
      *  </ul>
      * </ul>
      * 
-     * The servlet response is UTF-8 JSON.<br><br>
+     * The shape of <code>download_data</code> responses may be selected by a
+     * <code>format</code> parameter, or otherwise by the <code>Accept</code> header of
+     * the request:
+     * 
+     * <ul>
+     *    <li> <code>points</code> (the default): the JSON array of objects described
+     *         above;
+     * 
+     *    <li> <code>columnar</code>: a JSON object <code>{ t: [t1, t2 ...],
+     *         v: [v1, v2 ...] }</code> keyed by <code>X</code>, holding the time stamps
+     *         and values of the data points in two arrays;
+     * 
+     *    <li> <code>columnar-delta</code>: as <code>columnar</code>, except that every
+     *         time stamp but the first is the difference from the preceding time stamp;
+     * 
+     *    <li> <code>binary</code>, or an <code>Accept</code> header naming
+     *         <code>application/octet-stream</code>: a response of that content type
+     *         containing, for each <code>download_data</code> value in order, a block of
+     *         little-endian <code>float64</code> numbers: the number of data points
+     *         <code>n</code>, followed by <code>n</code> time stamps and <code>n</code>
+     *         values. The block of a chart which is not known is <code>[0]</code>. Other
+     *         requests cannot be combined with a binary response, and are ignored. If
+     *         this servlet has not been initialised, the response is JSON as above.
+     * </ul>
+     * 
+     * The servlet response is UTF-8 JSON. Concurrent identical
+     * <code>download_data</code> requests (with equal parameters and format) share one
+     * read from the {@link DataSourceConnector} and one serialized response, which is
+     * then copied to the response stream of each request. Serialized responses for
+     * versioned charts are cached until new data is uploaded to the chart (see
+     * {@link ResponseCache}); the size of this cache, in bytes, is given by the init
+     * parameter <code>responseCacheMaximumBytes</code> (default
+     * {@value #DEFAULT_RESPONSE_CACHE_MAXIMUM_BYTES}).<br><br>
      * 
      * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse
      *      response)
@@ -203,9 +886,6 @@ public final class DataBrowserServlet extends HttpServlet {
       final HttpServletRequest request,
       final HttpServletResponse response
       ) throws ServletException, IOException {
-      response.setContentType("application/json");
-      response.setCharacterEncoding("UTF-8");
-      
       // Lazy initialisation of data connector:
       if(this.dataSourceConnector == null && this.isInitialized.get())
          this.dataSourceConnector =
@@ -213,8 +893,33 @@ public final class DataBrowserServlet extends HttpServlet {
       
       final Map<String, String[]>
          parameters = request.getParameterMap();
-      final Map<String, Object>
-         responseMap = new HashMap<String, Object>();
+      final ResponseFormat
+         format = ResponseFormat.negotiate(request);
+      
+      if(this.isInitialized.get() && parkUntilDataArrives(
+         request, parameters.get("download_data")))
+         return;
+      
+      if(format == ResponseFormat.BINARY && this.isInitialized.get()
+         && parameters.containsKey("download_data")) {
+         response.setContentType(BINARY_CONTENT_TYPE);
+         for(final String name : parameters.keySet())
+            if(!name.equals("download_data") && !name.equals("format"))
+               logger.error("request {} is not supported in the binary format.", name);
+         final OutputStream
+            stream = new BufferedOutputStream(response.getOutputStream(), 1 << 16);
+         for(final String json : parameters.get("download_data"))
+            stream.write(processDownloadDataRequest(
+               this.gson.fromJson(json, DownloadDataRequest.class), format));
+         stream.close();
+         return;
+      }
+      
+      response.setContentType("application/json");
+      response.setCharacterEncoding("UTF-8");
+      final ResponseObject
+         result = new ResponseObject(
+            new BufferedOutputStream(response.getOutputStream(), 1 << 16));
       
       if(parameters.size() == 1) {
          final Entry<String, String[]>
@@ -222,15 +927,16 @@ public final class DataBrowserServlet extends HttpServlet {
          final String
             name = record.getKey();
          if(name.equals("is_ready")) {
-            responseMap.put("is_ready", this.isInitialized.get());
-            response.getWriter().write(this.gson.toJson(responseMap));
+            result.member("is_ready", writer -> writer.value(this.isInitialized.get()));
+            result.close();
             return;
          }
       }
       
       if(!this.isInitialized.get()) {
-         responseMap.put("not_ready", "");
-         response.getWriter().write(this.gson.toJson(responseMap));
+         result.member("not_ready", writer -> writer.value(""));
+         result.close();
+         return;
       }
       
       for(final Entry<String, String[]> record : parameters.entrySet()) {
@@ -238,20 +944,26 @@ public final class DataBrowserServlet extends HttpServlet {
             name = record.getKey();
          switch(name) {
          case "download_data":
-            for(final String json : record.getValue())
-               processDownloadDataRequest(json, responseMap);
+            for(final String json : record.getValue()) {
+               final DownloadDataRequest
+                  downloadRequest = this.gson.fromJson(json, DownloadDataRequest.class);
+               result.member(String.valueOf(downloadRequest.chartName),
+                  processDownloadDataRequest(downloadRequest, format));
+            }
+            break;
+         case "format":
             break;
          case "get_data_name":
-            processGetDataNameRequest(responseMap);
+            result.member("data_name", this::processGetDataNameRequest);
             break;
          case "list_known_charts":
-            listKnownCharts(responseMap);
+            result.member("known_charts", this::listKnownCharts);
             break;
          default:
             logger.error("unknown request: {}", name);
          }
       }
       
-      response.getWriter().write(this.gson.toJson(responseMap));
+      result.close();
    }
 }
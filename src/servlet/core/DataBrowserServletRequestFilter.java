@@ -19,42 +19,167 @@
 package servlet.core;
 
 import java.io.IOException;
-import java.util.concurrent.Semaphore;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import servlet.core.AdaptiveConcurrencyLimiter.RequestClass;
+
 /**
-  * A semaphore filter restricting the number of concurrent servlet requests. This
+  * A filter restricting the number of concurrent servlet requests with an
+  * {@link AdaptiveConcurrencyLimiter}. The concurrency limit adapts to the observed
+  * latency of requests. Requests over the limit wait in a bounded queue for at most a
+  * fixed timeout, and are otherwise rejected at once with
+  * <code>503 Service Unavailable</code> and a <code>Retry-After</code> header, so
+  * that a spike of requests cannot exhaust the threads of the servlet container. This
   * filter is configured by web.xml.<br><br>
   * 
+  * Requests are classified by servlet path as {@link RequestClass#INGEST} (uploads to
+  * the {@link LiveDataReceiver}), {@link RequestClass#ADMIN} (requests to the
+  * {@link AdminServlet}) or {@link RequestClass#BROWSE} (all other requests). Each class
+  * may reserve a share of the concurrency limit, and waiting requests are scheduled in
+  * proportion to the weights of their classes. Under overload, browse requests are
+  * rejected first.<br><br>
+  * 
+  * A request which is suspended (for instance, a long-poll or event stream) holds its
+  * permit until it completes, including while it is dispatched again to answer it. The
+  * filter should therefore also be mapped to <code>ASYNC</code> dispatches; these reuse
+  * the permit of the request rather than acquiring another. The latency of a request is
+  * the time spent in its dispatches, excluding the time for which it is suspended
+  * without a thread.<br><br>
+  * 
+  * The limiter is registered as a JMX MBean named
+  * <code>servlet.core:type=AdaptiveConcurrencyLimiter,name=[filter name]</code>,
+  * exposing the current limit, the queue depth and the rejection counts.<br><br>
+  * 
   * web.xml parameters:
   * 
   * <ul>
   *   <li> <b><code>maxConcurrentRequests</code></b><br>
   *        This parameter must be parseable as a non-negative nonzero integer. 
-  *        <code>maxConcurrentRequests</code> is the size of the semaphore gate for this filter. 
-  *        If <code>maxConcurrentRequests = 2</code>, then at most two concurrent requests will 
-  *        be processed by the servlet simultaneously.
+  *        <code>maxConcurrentRequests</code> is the highest concurrency limit of this
+  *        filter. If <code>maxConcurrentRequests = 2</code>, then at most two concurrent
+  *        requests will be processed by the servlet simultaneously.
+  *   <li> <b><code>minConcurrentRequests</code></b> (default <code>1</code>)<br>
+  *        The lowest concurrency limit of this filter.
+  *   <li> <b><code>initialConcurrentRequests</code></b> (default
+  *        <code>maxConcurrentRequests</code>)<br>
+  *        The concurrency limit of this filter before any latency is observed.
+  *   <li> <b><code>maxQueuedRequests</code></b> (default
+  *        <code>maxConcurrentRequests</code>)<br>
+  *        The maximum number of requests waiting to be processed.
+  *   <li> <b><code>queueTimeoutMillis</code></b> (default <code>1000</code>)<br>
+  *        The maximum time, in milliseconds, for which a request may wait.
+  *   <li> <b><code>latencyThresholdMillis</code></b> (default <code>1000</code>)<br>
+  *        The latency, in milliseconds, above which the concurrency limit is reduced.
+  *   <li> <b><code>retryAfterSeconds</code></b> (default <code>1</code>)<br>
+  *        The value of the <code>Retry-After</code> header of rejected requests.
+  *   <li> <b><code>ingestPaths</code></b> (default
+  *        <code>/receiver,/LiveDataReceiver</code>) and <b><code>adminPaths</code></b>
+  *        (default <code>/admin,/AdminServlet</code>)<br>
+  *        Comma-separated servlet paths of ingest and admin requests.
+  *   <li> <b><code>ingestReservedPercent</code></b> (default <code>30</code>),
+  *        <b><code>adminReservedPercent</code></b> (default <code>10</code>) and
+  *        <b><code>browseReservedPercent</code></b> (default <code>0</code>)<br>
+  *        The percentage of the concurrency limit reserved for each class of request.
+  *        These percentages must sum to less than <code>100</code>.
+  *   <li> <b><code>ingestWeight</code></b> (default <code>4</code>),
+  *        <b><code>adminWeight</code></b> (default <code>2</code>) and
+  *        <b><code>browseWeight</code></b> (default <code>1</code>)<br>
+  *        The scheduling weight of each class of request.
   * </ul>
   * 
   * @author phillips
   */
 public final class DataBrowserServletRequestFilter implements Filter {
    
-   private Semaphore
-      gate;
+   private AdaptiveConcurrencyLimiter
+      limiter;
+   
+   private ObjectName
+      objectName;
+   
+   private int
+      retryAfterSeconds;
+   
+   private Set<String>
+      ingestPaths,
+      adminPaths;
    
    private final static Logger
       logger = LoggerFactory.getLogger(DataBrowserServletRequestFilter.class);
    
+   private static final String
+      PERMIT_ATTRIBUTE = DataBrowserServletRequestFilter.class.getName() + ".permit";
+   
+   /**
+     * The permit of an admitted request, which is released once the request has
+     * completed.
+     */
+   private final class Permit implements AsyncListener {
+      final RequestClass
+         requestClass;
+      private long
+         activeNanos;                                          // Guarded by this
+      private boolean
+         isReleased;                                           // Guarded by this
+      
+      Permit(final RequestClass requestClass) {
+         this.requestClass = requestClass;
+      }
+      
+      synchronized void addActiveTime(final long nanos) {
+         this.activeNanos += nanos;
+      }
+      
+      void release() {
+         final long
+            latencyNanos;
+         synchronized(this) {
+            if(this.isReleased)
+               return;
+            this.isReleased = true;
+            latencyNanos = this.activeNanos;
+         }
+         DataBrowserServletRequestFilter.this.limiter.release(
+            this.requestClass, latencyNanos);
+      }
+      
+      @Override
+      public void onComplete(final AsyncEvent event) {
+         release();
+      }
+      
+      @Override
+      public void onTimeout(final AsyncEvent event) { }        // Followed by onComplete
+      
+      @Override
+      public void onError(final AsyncEvent event) { }          // Followed by onComplete
+      
+      @Override
+      public void onStartAsync(final AsyncEvent event) {
+         event.getAsyncContext().addListener(this);            // Listen to the new cycle
+      }
+   }
+   
    /**
      * @param request
      * @param response
@@ -68,44 +193,165 @@ public final class DataBrowserServletRequestFilter implements Filter {
       ServletResponse response,
       FilterChain chain
       ) throws IOException, ServletException {
-      try {
+      Permit
+         permit = (Permit) request.getAttribute(PERMIT_ATTRIBUTE);
+      final boolean
+         isNewPermit = permit == null;
+      if(isNewPermit) {
+         final RequestClass
+            requestClass = classify(request);
          try {
-            this.gate.acquire();
+            if(!this.limiter.tryAcquire(requestClass)) {
+               reject(response);
+               return;
+            }
          } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
             return;
          }
+         permit = new Permit(requestClass);
+         request.setAttribute(PERMIT_ATTRIBUTE, permit);
+      }
+      final long
+         startTime = System.nanoTime();
+      try {
          chain.doFilter(request, response);
       } finally {
-         this.gate.release();
+         permit.addActiveTime(System.nanoTime() - startTime);
+         if(request.isAsyncStarted()) {
+            if(isNewPermit)
+               request.getAsyncContext().addListener(permit);
+         }
+         else if(isNewPermit)
+            permit.release();
+         // Otherwise, this is the final dispatch of a suspended request: see onComplete
+      }
+   }
+   
+   private RequestClass classify(final ServletRequest request) {
+      if(!(request instanceof HttpServletRequest))
+         return RequestClass.BROWSE;
+      final String
+         path = ((HttpServletRequest) request).getServletPath();
+      if(this.ingestPaths.contains(path))
+         return RequestClass.INGEST;
+      if(this.adminPaths.contains(path))
+         return RequestClass.ADMIN;
+      return RequestClass.BROWSE;
+   }
+   
+   private static Set<String> parsePaths(
+      final FilterConfig config,
+      final String name,
+      final String defaultValue
+      ) {
+      final String
+         value = config.getInitParameter(name);
+      final Set<String>
+         result = new HashSet<String>();
+      for(final String path : (value == null ? defaultValue : value).split(","))
+         if(!path.trim().isEmpty())
+            result.add(path.trim());
+      return result;
+   }
+   
+   private void reject(final ServletResponse response) throws IOException {
+      logger.debug("request rejected: {}", this.limiter);
+      if(response instanceof HttpServletResponse) {
+         final HttpServletResponse
+            httpResponse = (HttpServletResponse) response;
+         httpResponse.setHeader("Retry-After", Integer.toString(this.retryAfterSeconds));
+         httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
       }
    }
    
    @Override
    public void destroy() {
-      // No action
+      if(this.objectName != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+         }
+         catch(final JMException e) {
+            logger.warn("failed to unregister {}: {}", this.objectName, e);
+         }
+      }
    }
    
-   @Override
-   public void init(FilterConfig config) throws ServletException {
+   /**
+     * Parse an integer web.xml parameter.
+     * 
+     * @param defaultValue <br>
+     *        The value of the parameter if it is not specified, or <code>null</code> if the
+     *        parameter is required.
+     */
+   private static long parseParameter(
+      final FilterConfig config,
+      final String name,
+      final Long defaultValue
+      ) throws ServletException {
       final String
-         gateSizeSz = config.getInitParameter("maxConcurrentRequests");
+         value = config.getInitParameter(name);
+      if(value == null) {
+         if(defaultValue != null)
+            return defaultValue;
+         logger.error("the parameter " + name + " is required.");
+         throw new ServletException("missing parameter: " + name);
+      }
       try {
-         if(gateSizeSz == null)
-            throw new IllegalArgumentException();
-         final int
-            maxConcurrentRequests = Integer.parseInt(gateSizeSz);
-         if(maxConcurrentRequests <= 0)
-            throw new IllegalArgumentException();
-         this.gate = new Semaphore(maxConcurrentRequests);
-         logger.info("servlet gate size is " + maxConcurrentRequests + ".");
+         return Long.parseLong(value.trim());
       }
       catch(final NumberFormatException e) {
-         logger.error("the expression '" + gateSizeSz + "' is not a valid integer.");
+         logger.error("the expression '" + value + "' is not a valid integer.");
          throw new ServletException(e);
       }
+   }
+   
+   @Override
+   public void init(FilterConfig config) throws ServletException {
+      final int
+         maxConcurrentRequests = (int) parseParameter(config, "maxConcurrentRequests", null);
+      final Map<RequestClass, Double>
+         reservedShares = new EnumMap<RequestClass, Double>(RequestClass.class);
+      final Map<RequestClass, Integer>
+         weights = new EnumMap<RequestClass, Integer>(RequestClass.class);
+      reservedShares.put(RequestClass.INGEST,
+         parseParameter(config, "ingestReservedPercent", 30L) / 100.);
+      reservedShares.put(RequestClass.ADMIN,
+         parseParameter(config, "adminReservedPercent", 10L) / 100.);
+      reservedShares.put(RequestClass.BROWSE,
+         parseParameter(config, "browseReservedPercent", 0L) / 100.);
+      weights.put(RequestClass.INGEST, (int) parseParameter(config, "ingestWeight", 4L));
+      weights.put(RequestClass.ADMIN, (int) parseParameter(config, "adminWeight", 2L));
+      weights.put(RequestClass.BROWSE, (int) parseParameter(config, "browseWeight", 1L));
+      this.ingestPaths = parsePaths(config, "ingestPaths", "/receiver,/LiveDataReceiver");
+      this.adminPaths = parsePaths(config, "adminPaths", "/admin,/AdminServlet");
+      try {
+         this.limiter = new AdaptiveConcurrencyLimiter(
+            (int) parseParameter(
+               config, "initialConcurrentRequests", (long) maxConcurrentRequests),
+            (int) parseParameter(config, "minConcurrentRequests", 1L),
+            maxConcurrentRequests,
+            (int) parseParameter(config, "maxQueuedRequests", (long) maxConcurrentRequests),
+            parseParameter(config, "queueTimeoutMillis", 1000L),
+            parseParameter(config, "latencyThresholdMillis", 1000L),
+            reservedShares,
+            weights
+            );
+      }
       catch(final IllegalArgumentException e) {
-         logger.error("the gate size must be strictly positive (value is " + gateSizeSz + ").");
+         logger.error("the gate parameters are invalid: " + e.getMessage());
          throw new ServletException(e);
       }
+      this.retryAfterSeconds = (int) parseParameter(config, "retryAfterSeconds", 1L);
+      logger.info("servlet gate size is at most " + maxConcurrentRequests + ".");
+      try {
+         this.objectName = new ObjectName("servlet.core:type=AdaptiveConcurrencyLimiter,name="
+            + ObjectName.quote(config.getFilterName()));
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this.limiter, this.objectName);
+      }
+      catch(final JMException e) {
+         logger.warn("failed to register the concurrency limiter with JMX: {}", e);
+         this.objectName = null;
+      }
    }
 }
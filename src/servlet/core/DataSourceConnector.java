@@ -18,12 +18,14 @@
   */
 package servlet.core;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import servlet.data.ChartInformation;
+import servlet.data.DownsamplingUtils;
 import servlet.data.TimestampedDatum;
 
 /**
@@ -89,6 +91,187 @@ public interface DataSourceConnector {
       final boolean inclusive
       ) throws DataSourceException;
    
+   /**
+     * Get an ordered data array for the chart with the specified name, restricted to a
+     * time range and summarized at a specified resolution. This method is intended for
+     * views of a wide time range, in which only a limited number of data points can be
+     * distinguished.<br><br>
+     * 
+     * Implementations may return fewer data points than exist in the time range, but
+     * should then preserve the minimum and maximum values within each interval of
+     * length <code>resolution</code>. By default, this method returns all data in the
+     * time range.
+     * 
+     * @param chartName <br>
+     *        The name of the chart data set to query. This argument must be non-<code>null</code>.
+     * @param fromTimeOfInterest <br>
+     *        The (inclusive) start of the time range.
+     * @param toTimeOfInterest <br>
+     *        The (inclusive) end of the time range.
+     * @param resolution <br>
+     *        The width of time represented by one pixel (or one point) of the requesting
+     *        view. If this argument is not strictly positive, all data in the time range
+     *        is returned.
+     * @return
+     *    A valid {@link List} of {@link TimestampedDatum} objects.
+     * @throws DataSourceException if the underlying data connection has failed, or if the
+     *         request made to this method was valid but the data connection could not 
+     *         provide the result because of the state of the connection.
+     */
+   public default List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      final List<TimestampedDatum>
+         data = getData(chartName, fromTimeOfInterest, true);
+      int
+         low = 0,
+         high = data.size() - 1;
+      while(low <= high) {
+         final int
+            middle = (low + high) >>> 1;
+         if(data.get(middle).getTime() > toTimeOfInterest)
+            high = middle - 1;
+         else
+            low = middle + 1;
+      }
+      return data.subList(0, low);
+   }
+   
+   /**
+     * Get the mean of the data of the chart with the specified name in each interval of
+     * a time range. This method is intended for views of a wide time range which plot
+     * the average of the data rather than its extremes.<br><br>
+     * 
+     * Each non-empty interval yields one data point, whose time stamp is the middle of
+     * the interval. Implementations may use intervals no wider than
+     * <code>resolution</code>, and may include data outside the time range in the
+     * intervals at either end. By default, this method computes the means of the data
+     * returned by {@link #getData(String, double, double, double)} at full resolution,
+     * in intervals of length <code>resolution</code>.
+     * 
+     * @param chartName <br>
+     *        The name of the chart data set to query. This argument must be non-<code>null</code>.
+     * @param fromTimeOfInterest <br>
+     *        The (inclusive) start of the time range.
+     * @param toTimeOfInterest <br>
+     *        The (inclusive) end of the time range.
+     * @param resolution <br>
+     *        The width of the intervals. This argument must be strictly positive.
+     * @return
+     *    A valid {@link List} of {@link TimestampedDatum} objects.
+     * @throws IllegalArgumentException if <code>resolution</code> is not strictly
+     *         positive.
+     * @throws DataSourceException if the underlying data connection has failed, or if the
+     *         request made to this method was valid but the data connection could not 
+     *         provide the result because of the state of the connection.
+     */
+   public default List<TimestampedDatum> getMeans(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      return DownsamplingUtils.means(
+         getData(chartName, fromTimeOfInterest, toTimeOfInterest, 0.), resolution);
+   }
+   
+   /**
+     * A callback for data points streamed by
+     * {@link DataSourceConnector#streamData(String, double, boolean, DataPointHandler)}.
+     */
+   public interface DataPointHandler {
+      /**
+        * Process one data point.
+        * 
+        * @param time <br>
+        *        The time stamp of the data point.
+        * @param value <br>
+        *        The value of the data point.
+        * @throws IOException if the data point could not be processed (for instance, if
+        *         it could not be written to a client).
+        */
+      public void handle(double time, double value) throws IOException;
+   }
+   
+   /**
+     * Pass the data returned by {@link #getData(String, double, boolean)} to a
+     * {@link DataPointHandler}, in order of increasing time stamps. This method is
+     * intended for writing data directly to a client without materializing it.<br><br>
+     * 
+     * By default, this method calls {@link #getData(String, double, boolean)} and passes
+     * each element of the result to the handler. Implementations which can read data
+     * points without copying them should override this method.
+     * 
+     * @param chartName <br>
+     *        The name of the chart data set to query. This argument must be non-<code>null</code>.
+     * @param fromTimeOfInterest (<code>T</code>) <br> 
+     *        The time after which data is required for this chart.
+     * @param inclusive <br>
+     *        Whether or not <code>T</code> is to be considered inclusive or
+     *        exclusive in the resulting data.
+     * @param handler <br>
+     *        The {@link DataPointHandler} to which to pass data points. This argument must
+     *        be non-<code>null</code>.
+     * @throws DataSourceException if the underlying data connection has failed, or if the
+     *         request made to this method was valid but the data connection could not 
+     *         provide the result because of the state of the connection.
+     * @throws IOException if the handler raised an {@link IOException}.
+     */
+   public default void streamData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws DataSourceException, IOException {
+      for(final TimestampedDatum datum : getData(chartName, fromTimeOfInterest, inclusive))
+         handler.handle(datum.getTime(), datum.getValue());
+   }
+   
+   /**
+     * Test whether the chart with the specified name has any data after the time of
+     * interest. By default, this method calls {@link #getData(String, double, boolean)}.
+     * 
+     * @param chartName <br>
+     *        The name of the chart data set to query. This argument must be non-<code>null</code>.
+     * @param fromTimeOfInterest (<code>T</code>) <br> 
+     *        The time after which data is required for this chart.
+     * @param inclusive <br>
+     *        Whether or not <code>T</code> is to be considered inclusive or
+     *        exclusive in the resulting data.
+     * @return
+     *    <code>True</code> if {@link #getData(String, double, boolean)} would return
+     *    a non-empty {@link List}.
+     * @throws DataSourceException if the underlying data connection has failed, or if the
+     *         request made to this method was valid but the data connection could not 
+     *         provide the result because of the state of the connection.
+     */
+   public default boolean hasData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive
+      ) throws DataSourceException {
+      return !getData(chartName, fromTimeOfInterest, inclusive).isEmpty();
+   }
+   
+   /**
+     * Get the version of the data of the chart with the specified name. The version of a
+     * chart is incremented after each change to its data becomes visible to readers, so
+     * that any two reads of the chart at the same version return the same data. By
+     * default, this method returns <code>-1</code>.
+     * 
+     * @param chartName <br>
+     *        The name of the chart to query. This argument must be non-<code>null</code>.
+     * @return
+     *    A non-negative version, or <code>-1</code> if the data of the chart is not
+     *    versioned (for instance, because no such chart is known to this data source).
+     */
+   public default long getVersion(final String chartName) {
+      return -1L;
+   }
+   
    /**
      * Get ordered data arrays for the charts with the specified names. This method returns a
      * {@link Map} whose keys are the elements in the first argument. If, for any such key,
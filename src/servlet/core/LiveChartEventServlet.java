@@ -0,0 +1,387 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.engio.mbassy.bus.MBassador;
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import servlet.data.TimestampedDatum;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+  * A Server-Sent Events endpoint pushing live chart data to browsers.<br><br>
+  * 
+  * A client subscribes to a set of charts by a GET request with one parameter
+  * <code>chart</code> per chart name, for example with a JavaScript
+  * <code>EventSource</code>. The response is a <code>text/event-stream</code> which
+  * remains open until the client disconnects. Whenever the {@link LiveDataReceiver}
+  * publishes a {@link LiveDataUploadedEvent}, the uploaded data points are pushed to
+  * every subscriber of the chart. Uploads are coalesced over a short interval, so that
+  * each subscriber receives at most one message per interval. The data of each message
+  * is a JSON object keyed by chart name, in the format of a <code>download_data</code>
+  * response of the {@link DataBrowserServlet}:
+  * 
+  * <center>
+  *  <code>data: { "X": [{ "time": t1, "value": v1 }, ...], ... }</code>
+  * </center><br>
+  * 
+  * Connections are held by {@link AsyncContext}s and written with non-blocking IO by
+  * one dispatch thread, so that idle subscribers hold no container threads. A subscriber
+  * which does not keep up with its messages is disconnected; the client is expected to
+  * reconnect and to catch up with a <code>download_data</code> request.<br><br>
+  * 
+  * This servlet is declared and mapped in web.xml only, so that one instance, with the
+  * configured parameters, serves all subscribers.<br><br>
+  * 
+  * web.xml parameters:
+  * 
+  * <ul>
+  *   <li> <b><code>coalescingIntervalMilliseconds</code></b><br>
+  *        The interval over which uploads are coalesced (default
+  *        {@value #DEFAULT_COALESCING_INTERVAL_MILLISECONDS}).
+  * </ul>
+  * 
+  * @author phillips
+  */
+@Listener(references = References.Strong)
+public final class LiveChartEventServlet extends HttpServlet {
+   
+   private static final long serialVersionUID = -2785193462038271145L;
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(LiveChartEventServlet.class);
+   
+   /**
+     * The default interval, in milliseconds, over which uploads are coalesced.
+     */
+   public static final long
+      DEFAULT_COALESCING_INTERVAL_MILLISECONDS = 250L;
+   
+   private static final long
+      HEARTBEAT_INTERVAL_MILLISECONDS = 15000L;
+   private static final int
+      MAXIMUM_PENDING_BYTES = 1 << 20;
+   private static final byte[]
+      HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+   
+   /**
+     * One open event stream, with the messages not yet written to it.
+     */
+   private final class Subscriber implements WriteListener, AsyncListener {
+      final AsyncContext
+         context;
+      final Set<String>
+         chartNames;
+      private final ArrayDeque<byte[]>
+         pending;                                              // Guarded by this
+      private int
+         pendingBytes;                                         // Guarded by this
+      private ServletOutputStream
+         stream;                                               // Guarded by this
+      
+      Subscriber(
+         final AsyncContext context,
+         final Set<String> chartNames
+         ) {
+         this.context = context;
+         this.chartNames = chartNames;
+         this.pending = new ArrayDeque<byte[]>();
+      }
+      
+      /**
+        * Queue a message, and write as much of the queue as the stream accepts without
+        * blocking. If the messages already queued and the new message exceed
+        * the limit on pending bytes, this subscriber is disconnected.
+        */
+      synchronized void send(final byte[] message) {
+         if(!this.pending.isEmpty()
+            && this.pendingBytes + message.length > MAXIMUM_PENDING_BYTES) {
+            logger.info("disconnecting slow event stream subscriber.");
+            close();
+            return;
+         }
+         this.pending.add(message);
+         this.pendingBytes += message.length;
+         if(this.stream != null)
+            write();
+      }
+      
+      private void write() {
+         try {
+            while(!this.pending.isEmpty() && this.stream.isReady()) {
+               final byte[]
+                  message = this.pending.poll();
+               this.pendingBytes -= message.length;
+               this.stream.write(message);
+            }
+            if(this.pending.isEmpty() && this.stream.isReady())
+               this.stream.flush();
+         }
+         catch(final IOException | IllegalStateException e) {
+            logger.debug("event stream closed: {}", e.getMessage());
+            close();
+         }
+      }
+      
+      synchronized void open() throws IOException {
+         this.stream = this.context.getResponse().getOutputStream();
+         this.stream.setWriteListener(this);
+         write();
+      }
+      
+      void close() {
+         subscribers.remove(this);
+         try {
+            this.context.complete();
+         }
+         catch(final IllegalStateException e) {
+            // Already complete
+         }
+      }
+      
+      @Override
+      public synchronized void onWritePossible() {
+         write();
+      }
+      
+      @Override
+      public void onError(final Throwable t) {
+         logger.debug("event stream error: {}", t.getMessage());
+         close();
+      }
+      
+      @Override
+      public void onComplete(final AsyncEvent event) {
+         subscribers.remove(this);
+      }
+      
+      @Override
+      public void onTimeout(final AsyncEvent event) {
+         close();
+      }
+      
+      @Override
+      public void onError(final AsyncEvent event) {
+         close();
+      }
+      
+      @Override
+      public void onStartAsync(final AsyncEvent event) { }
+   }
+   
+   private final Gson
+      gson;
+   private final Set<Subscriber>
+      subscribers;
+   private final Map<String, List<TimestampedDatum>>
+      pendingData;                                             // Guarded by itself
+   
+   private MBassador<Object>
+      bus;
+   private ScheduledExecutorService
+      dispatcher;
+   private long
+      lastHeartbeatTime;                                       // Dispatcher thread only
+   
+   /**
+     * Create a {@link LiveChartEventServlet} object.
+     * 
+     * @see HttpServlet#HttpServlet()
+     */
+   public LiveChartEventServlet() {
+      this.gson = new GsonBuilder().create();
+      this.subscribers = ConcurrentHashMap.newKeySet();
+      this.pendingData = new LinkedHashMap<String, List<TimestampedDatum>>();
+   }
+   
+   @SuppressWarnings("unchecked")
+   @Override
+   public void init() throws ServletException {
+      super.init();
+      this.bus = (MBassador<Object>) super.getServletContext().getAttribute("bus");
+      if(this.bus == null) {
+         final String
+            errMsg = "no event bus is bound to the servlet context.";
+         logger.error(errMsg);
+         throw new ServletException(errMsg);
+      }
+      final String
+         intervalParameter = super.getInitParameter("coalescingIntervalMilliseconds");
+      final long
+         interval;
+      try {
+         interval = intervalParameter == null ? DEFAULT_COALESCING_INTERVAL_MILLISECONDS :
+            Long.parseLong(intervalParameter.trim());
+      }
+      catch(final NumberFormatException e) {
+         throw new ServletException(
+            getClass().getSimpleName() + ": coalescing interval is not an integer.", e);
+      }
+      if(interval <= 0L)
+         throw new ServletException(getClass().getSimpleName()
+            + ": coalescing interval is not strictly positive (value: " + interval + ")");
+      this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         final Thread
+            thread = new Thread(runnable, "live chart event dispatch");
+         thread.setDaemon(true);
+         return thread;
+      });
+      this.lastHeartbeatTime = System.currentTimeMillis();
+      this.dispatcher.scheduleWithFixedDelay(
+         this::dispatch, interval, interval, TimeUnit.MILLISECONDS);
+      this.bus.subscribe(this);
+      logger.info("live chart event stream ready, coalescing interval {}ms.", interval);
+   }
+   
+   @Override
+   public void destroy() {
+      if(this.bus != null)
+         this.bus.unsubscribe(this);
+      if(this.dispatcher != null)
+         this.dispatcher.shutdownNow();
+      for(final Subscriber subscriber : this.subscribers)
+         subscriber.close();
+      super.destroy();
+   }
+   
+   /**
+     * Record the data points of a {@link LiveDataUploadedEvent}, to be pushed to
+     * subscribers at the end of the current coalescing interval.
+     */
+   @Handler
+   public void onLiveDataUploaded(final LiveDataUploadedEvent event) {
+      synchronized(this.pendingData) {
+         List<TimestampedDatum>
+            data = this.pendingData.get(event.getChartName());
+         if(data == null)
+            this.pendingData.put(event.getChartName(),
+               data = new ArrayList<TimestampedDatum>());
+         data.addAll(event.getData());
+      }
+   }
+   
+   /**
+     * Push all data points recorded since the last dispatch to the subscribers of their
+     * charts, and a heartbeat comment to all subscribers when due. The heartbeat keeps
+     * intermediate proxies from closing idle streams, and detects disconnected clients.
+     */
+   private void dispatch() {
+      try {
+         final Map<String, String>
+            fragments = new LinkedHashMap<String, String>();
+         synchronized(this.pendingData) {
+            for(final Entry<String, List<TimestampedDatum>> record :
+               this.pendingData.entrySet())
+               fragments.put(record.getKey(), this.gson.toJson(record.getKey()) + ":"
+                  + this.gson.toJson(record.getValue()));
+            this.pendingData.clear();
+         }
+         final long
+            now = System.currentTimeMillis();
+         final boolean
+            isHeartbeatDue = now - this.lastHeartbeatTime >= HEARTBEAT_INTERVAL_MILLISECONDS;
+         if(isHeartbeatDue)
+            this.lastHeartbeatTime = now;
+         if(fragments.isEmpty() && !isHeartbeatDue)
+            return;
+         final StringBuilder
+            message = new StringBuilder();
+         for(final Subscriber subscriber : this.subscribers) {
+            message.setLength(0);
+            for(final Entry<String, String> record : fragments.entrySet()) {
+               if(!subscriber.chartNames.contains(record.getKey()))
+                  continue;
+               message.append(message.length() == 0 ? "data: {" : ",");
+               message.append(record.getValue());
+            }
+            if(message.length() > 0)
+               subscriber.send(message.append("}\n\n").toString()
+                  .getBytes(StandardCharsets.UTF_8));
+            else if(isHeartbeatDue)
+               subscriber.send(HEARTBEAT);
+         }
+      }
+      catch(final RuntimeException e) {
+         logger.error("failed to dispatch live chart events: {}", e);
+      }
+   }
+   
+   /**
+     * Open an event stream for the charts named by the <code>chart</code> parameters of
+     * the request. If no chart is named, the response is <code>400 Bad Request</code>.
+     */
+   @Override
+   protected void doGet(
+      final HttpServletRequest request,
+      final HttpServletResponse response
+      ) throws ServletException, IOException {
+      final String[]
+         chartNames = request.getParameterValues("chart");
+      if(chartNames == null || chartNames.length == 0) {
+         response.sendError(HttpServletResponse.SC_BAD_REQUEST, "no chart is named.");
+         return;
+      }
+      response.setContentType("text/event-stream");
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader("Cache-Control", "no-cache");
+      final AsyncContext
+         context = request.startAsync();
+      context.setTimeout(0L);
+      final Subscriber
+         subscriber = new Subscriber(context, new HashSet<String>(Arrays.asList(chartNames)));
+      context.addListener(subscriber);
+      this.subscribers.add(subscriber);
+      subscriber.send(HEARTBEAT);
+      subscriber.open();
+      logger.debug("event stream opened for charts {}.", subscriber.chartNames);
+   }
+}
@@ -0,0 +1,338 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import servlet.data.TimestampedDatum;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+  * The shared state of the {@link LiveChartWebSocketEndpoint}: the chart subscriptions
+  * of all WebSocket sessions, and their outbound queues.<br><br>
+  * 
+  * This object listens for {@link LiveDataUploadedEvent}s on the web application bus.
+  * The data points of each event are appended to the outbound queue of every session
+  * subscribed to the chart, and are sent to the session as one batch per message,
+  * with at most one message in flight per session. While a message is in flight,
+  * later data points accumulate in the queue, so that the updates of a slow client are
+  * coalesced into fewer, larger batches. The queue of each session keeps at most a
+  * fixed number of the newest data points per chart; older data points are discarded
+  * and counted, so that neither memory use nor the {@link LiveDataReceiver} depends on
+  * the speed of any client.<br><br>
+  * 
+  * This class is thread safe. This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+@Listener(references = References.Strong)
+final class LiveChartSubscriptionHub implements Closeable {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(LiveChartSubscriptionHub.class);
+   
+   /**
+     * The default maximum number of data points queued per chart per session.
+     */
+   static final int
+      DEFAULT_MAXIMUM_PENDING_POINTS = 1000;
+   
+   /**
+     * The subscriptions and the outbound queue of one WebSocket session.
+     */
+   final class Subscriber implements SendHandler {
+      private final Session
+         session;
+      private final Set<String>
+         chartNames;                                           // Guarded by this
+      private final Map<String, ArrayDeque<TimestampedDatum>>
+         pending;                                              // Guarded by this
+      private final Map<String, Integer>
+         discarded;                                            // Guarded by this
+      private String
+         pendingReply;                                         // Guarded by this
+      private boolean
+         isSending;                                            // Guarded by this
+      
+      private Subscriber(final Session session) {
+         this.session = session;
+         this.chartNames = new HashSet<String>();
+         this.pending = new LinkedHashMap<String, ArrayDeque<TimestampedDatum>>();
+         this.discarded = new LinkedHashMap<String, Integer>();
+      }
+      
+      /**
+        * Subscribe this session to the specified charts.
+        * 
+        * @return
+        *    The names of all charts to which this session is subscribed.
+        */
+      synchronized Set<String> subscribe(final List<String> chartNames) {
+         for(final String chartName : chartNames) {
+            if(chartName == null || !this.chartNames.add(chartName))
+               continue;
+            subscribers.computeIfAbsent(
+               chartName, name -> ConcurrentHashMap.newKeySet()).add(this);
+         }
+         return new HashSet<String>(this.chartNames);
+      }
+      
+      /**
+        * Unsubscribe this session from the specified charts, and discard any data
+        * queued for them.
+        * 
+        * @return
+        *    The names of all charts to which this session remains subscribed.
+        */
+      synchronized Set<String> unsubscribe(final List<String> chartNames) {
+         for(final String chartName : chartNames) {
+            if(chartName == null || !this.chartNames.remove(chartName))
+               continue;
+            final Set<Subscriber>
+               chartSubscribers = subscribers.get(chartName);
+            if(chartSubscribers != null)
+               chartSubscribers.remove(this);
+            this.pending.remove(chartName);
+            this.discarded.remove(chartName);
+         }
+         return new HashSet<String>(this.chartNames);
+      }
+      
+      /**
+        * Unsubscribe this session from all charts.
+        */
+      void close() {
+         final List<String>
+            chartNames;
+         synchronized(this) {
+            chartNames = new ArrayList<String>(this.chartNames);
+         }
+         unsubscribe(chartNames);
+      }
+      
+      private synchronized void offer(
+         final String chartName,
+         final List<TimestampedDatum> data
+         ) {
+         if(!this.chartNames.contains(chartName))
+            return;
+         ArrayDeque<TimestampedDatum>
+            queue = this.pending.get(chartName);
+         if(queue == null)
+            this.pending.put(chartName, queue = new ArrayDeque<TimestampedDatum>());
+         int
+            numberDiscarded = 0;
+         for(final TimestampedDatum datum : data) {
+            if(queue.size() == maximumPendingPoints) {
+               queue.pollFirst();
+               ++numberDiscarded;
+            }
+            queue.addLast(datum);
+         }
+         if(numberDiscarded > 0)
+            this.discarded.merge(chartName, numberDiscarded, Integer::sum);
+         scheduleSend();
+      }
+      
+      /**
+        * Send a reply to a control message ahead of any queued data points. Replies
+        * describe the whole state of the session, so an unsent reply is replaced by a
+        * newer one.
+        */
+      synchronized void reply(final String message) {
+         this.pendingReply = message;
+         scheduleSend();
+      }
+      
+      private void scheduleSend() {
+         if(!this.isSending) {
+            this.isSending = true;
+            executor.execute(this::send);
+         }
+      }
+      
+      /**
+        * Send the pending reply, or otherwise all queued data points, in one message.
+        * This method is only called while the sending flag is set, so that at most one
+        * message is in flight.
+        */
+      private void send() {
+         final String
+            message;
+         synchronized(this) {
+            if(!this.session.isOpen()
+               || (this.pendingReply == null && this.pending.isEmpty())) {
+               this.isSending = false;
+               return;
+            }
+            if(this.pendingReply != null) {
+               message = this.pendingReply;
+               this.pendingReply = null;
+            }
+            else {
+               message = writeBatch(this.pending, this.discarded);
+               this.pending.clear();
+               this.discarded.clear();
+            }
+         }
+         try {
+            this.session.getAsyncRemote().sendText(message, this);
+         }
+         catch(final RuntimeException e) {
+            logger.debug("failed to send to websocket session {}: {}",
+               this.session.getId(), e.getMessage());
+            synchronized(this) {
+               this.isSending = false;
+            }
+         }
+      }
+      
+      @Override
+      public void onResult(final SendResult result) {
+         if(!result.isOK()) {
+            logger.debug("failed to send to websocket session {}: {}",
+               this.session.getId(), result.getException());
+            synchronized(this) {
+               this.isSending = false;
+            }
+            return;
+         }
+         executor.execute(this::send);
+      }
+   }
+   
+   private final Map<String, Set<Subscriber>>
+      subscribers;
+   private final int
+      maximumPendingPoints;
+   private final ExecutorService
+      executor;
+   
+   /**
+     * Create a {@link LiveChartSubscriptionHub} object. This object should then be
+     * subscribed to the web application bus.
+     * 
+     * @param maximumPendingPoints <br>
+     *        The maximum number of data points queued per chart per session. This
+     *        argument must be strictly positive.
+     * @throws IllegalArgumentException if <code>maximumPendingPoints</code> is not
+     *         strictly positive.
+     */
+   LiveChartSubscriptionHub(final int maximumPendingPoints) {
+      if(maximumPendingPoints <= 0)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": maximum number of pending points is not "
+          + "strictly positive (value: " + maximumPendingPoints + ")");
+      this.subscribers = new ConcurrentHashMap<String, Set<Subscriber>>();
+      this.maximumPendingPoints = maximumPendingPoints;
+      this.executor = Executors.newSingleThreadExecutor(runnable -> {
+         final Thread
+            thread = new Thread(runnable, "live chart websocket dispatch");
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+   
+   /**
+     * Create a {@link Subscriber} for a new WebSocket session. The subscriber initially
+     * has no subscriptions.
+     */
+   Subscriber createSubscriber(final Session session) {
+      return new Subscriber(session);
+   }
+   
+   /**
+     * Queue the data points of a {@link LiveDataUploadedEvent} for every session
+     * subscribed to its chart.
+     */
+   @Handler
+   public void onLiveDataUploaded(final LiveDataUploadedEvent event) {
+      final Set<Subscriber>
+         chartSubscribers = this.subscribers.get(event.getChartName());
+      if(chartSubscribers != null)
+         for(final Subscriber subscriber : chartSubscribers)
+            subscriber.offer(event.getChartName(), event.getData());
+   }
+   
+   /**
+     * Write a batch of data points as a JSON object
+     * <code>{ "data": { "X": [{ "time": t1, "value": v1 }, ...], ... },
+     * "discarded": { "X": n, ... } }</code>.
+     */
+   private static String writeBatch(
+      final Map<String, ArrayDeque<TimestampedDatum>> pending,
+      final Map<String, Integer> discarded
+      ) {
+      final StringWriter
+         result = new StringWriter();
+      try (JsonWriter writer = new JsonWriter(result)) {
+         writer.beginObject().name("data").beginObject();
+         for(final Entry<String, ArrayDeque<TimestampedDatum>> record : pending.entrySet()) {
+            writer.name(record.getKey()).beginArray();
+            for(final TimestampedDatum datum : record.getValue())
+               writer.beginObject().name("time").value(datum.getTime())
+                  .name("value").value(datum.getValue()).endObject();
+            writer.endArray();
+         }
+         writer.endObject();
+         if(!discarded.isEmpty()) {
+            writer.name("discarded").beginObject();
+            for(final Entry<String, Integer> record : discarded.entrySet())
+               writer.name(record.getKey()).value(record.getValue());
+            writer.endObject();
+         }
+         writer.endObject();
+      }
+      catch(final IOException e) {
+         throw new IllegalStateException(e);                   // StringWriter
+      }
+      return result.toString();
+   }
+   
+   @Override
+   public void close() {
+      this.executor.shutdownNow();
+      this.subscribers.clear();
+   }
+}
@@ -0,0 +1,101 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.io.Closeable;
+
+import javax.servlet.ServletContext;
+import javax.websocket.DeploymentException;
+import javax.websocket.server.ServerContainer;
+
+import net.engio.mbassy.bus.MBassador;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+  * The deployment of the {@link LiveChartWebSocketEndpoint}. All references to the
+  * JSR-356 WebSocket API made at startup are confined to this class, which is loaded
+  * only if the servlet container provides a WebSocket server container, so that the
+  * application starts in containers without the WebSocket API.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class LiveChartWebSocketDeployment {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(LiveChartWebSocketDeployment.class);
+   
+   /**
+     * The name of the servlet context attribute holding the WebSocket server container,
+     * if the servlet container supports WebSockets.
+     */
+   static final String
+      SERVER_CONTAINER_ATTRIBUTE = "javax.websocket.server.ServerContainer";
+   
+   private LiveChartWebSocketDeployment() { }
+   
+   /**
+     * Create a {@link LiveChartSubscriptionHub}, subscribe it to the bus, and deploy the
+     * {@link LiveChartWebSocketEndpoint} to the server container bound to the servlet
+     * context as {@link #SERVER_CONTAINER_ATTRIBUTE}.
+     * 
+     * @param maximumPendingPoints <br>
+     *        The value of the context parameter
+     *        <code>liveChartWebSocketMaximumPendingPoints</code>, or <code>null</code>.
+     * @return
+     *    The hub, which should be closed when the context is destroyed.
+     * @throws IllegalStateException if <code>maximumPendingPoints</code> is not a
+     *         strictly positive integer.
+     */
+   static Closeable deploy(
+      final ServletContext context,
+      final MBassador<Object> bus,
+      final String maximumPendingPoints
+      ) {
+      final LiveChartSubscriptionHub
+         hub;
+      try {
+         hub = new LiveChartSubscriptionHub(maximumPendingPoints == null ?
+            LiveChartSubscriptionHub.DEFAULT_MAXIMUM_PENDING_POINTS :
+            Integer.parseInt(maximumPendingPoints.trim()));
+      }
+      catch(final IllegalArgumentException e) {
+         final String
+            errMsg = maximumPendingPoints + " is not a valid maximum number of pending "
+               + "points: " + e;
+         logger.error(errMsg);
+         throw new IllegalStateException(errMsg, e);
+      }
+      bus.subscribe(hub);
+      final ServerContainer
+         container = (ServerContainer) context.getAttribute(SERVER_CONTAINER_ATTRIBUTE);
+      try {
+         container.addEndpoint(LiveChartWebSocketEndpoint.createConfiguration(hub));
+         logger.info("live chart websocket endpoint deployed at {}.",
+            LiveChartWebSocketEndpoint.PATH);
+      }
+      catch(final DeploymentException e) {
+         logger.error("failed to deploy live chart websocket endpoint: {}", e);
+      }
+      return hub;
+   }
+}
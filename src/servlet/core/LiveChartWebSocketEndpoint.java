@@ -0,0 +1,169 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpointConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+/**
+  * A WebSocket endpoint through which clients subscribe to live chart data.<br><br>
+  * 
+  * Clients send JSON control messages of the form
+  * <code>{ "subscribe": ["X", ...] }</code> or <code>{ "unsubscribe": ["X", ...] }</code>
+  * (or both). Each control message is answered with a message
+  * <code>{ "subscribed": ["X", ...] }</code> listing all charts to which the session is
+  * subscribed, or with <code>{ "error": "..." }</code> if the control message is
+  * malformed.<br><br>
+  * 
+  * Data points uploaded to the {@link LiveDataReceiver} for subscribed charts are sent
+  * in incremental batches <code>{ "data": { "X": [{ "time": t1, "value": v1 }, ...],
+  * ... } }</code>. If a client does not keep up, only the newest data points of each
+  * chart are kept for it, and the batch also contains
+  * <code>"discarded": { "X": n, ... }</code>, the number of data points of each chart
+  * which were not sent. The client can then recover the missing data points with a
+  * <code>download_data</code> request to the {@link DataBrowserServlet}. See also
+  * {@link LiveChartSubscriptionHub}.<br><br>
+  * 
+  * This endpoint is registered by the {@link ContextStartupListener} at {@link #PATH}.
+  * 
+  * @author phillips
+  */
+public final class LiveChartWebSocketEndpoint extends Endpoint {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(LiveChartWebSocketEndpoint.class);
+   
+   /**
+     * The path of this endpoint, relative to the context path of the web application.
+     */
+   public static final String
+      PATH = "/live-charts";
+   
+   private static final class ControlMessage {
+      private List<String>
+         subscribe,
+         unsubscribe;
+   }
+   
+   private final LiveChartSubscriptionHub
+      hub;
+   private final Gson
+      gson;
+   
+   private LiveChartSubscriptionHub.Subscriber
+      subscriber;
+   
+   private LiveChartWebSocketEndpoint(final LiveChartSubscriptionHub hub) {
+      this.hub = hub;
+      this.gson = new GsonBuilder().create();
+   }
+   
+   /**
+     * Create the configuration with which to deploy this endpoint. Each session is
+     * served by a new endpoint object sharing the specified
+     * {@link LiveChartSubscriptionHub}.
+     */
+   static ServerEndpointConfig createConfiguration(final LiveChartSubscriptionHub hub) {
+      return ServerEndpointConfig.Builder
+         .create(LiveChartWebSocketEndpoint.class, PATH)
+         .configurator(new ServerEndpointConfig.Configurator() {
+            @Override
+            public <T> T getEndpointInstance(final Class<T> endpointClass) {
+               return endpointClass.cast(new LiveChartWebSocketEndpoint(hub));
+            }
+         })
+         .build();
+   }
+   
+   @Override
+   public void onOpen(final Session session, final EndpointConfig config) {
+      this.subscriber = this.hub.createSubscriber(session);
+      /*
+       * An anonymous class rather than a lambda, as the container determines the message
+       * type from the generic type of the handler class:
+       */
+      session.addMessageHandler(new MessageHandler.Whole<String>() {
+         @Override
+         public void onMessage(final String message) {
+            processControlMessage(message);
+         }
+      });
+      logger.debug("websocket session {} opened.", session.getId());
+   }
+   
+   private void processControlMessage(final String message) {
+      final ControlMessage
+         request;
+      try {
+         request = this.gson.fromJson(message, ControlMessage.class);
+      }
+      catch(final JsonSyntaxException e) {
+         replyWithError("control message is malformed JSON.");
+         return;
+      }
+      if(request == null || (request.subscribe == null && request.unsubscribe == null)) {
+         replyWithError("control message has neither subscribe nor unsubscribe.");
+         return;
+      }
+      Set<String>
+         chartNames = this.subscriber.subscribe(request.subscribe == null ?
+            Collections.<String>emptyList() : request.subscribe);
+      if(request.unsubscribe != null)
+         chartNames = this.subscriber.unsubscribe(request.unsubscribe);
+      final JsonObject
+         reply = new JsonObject();
+      reply.add("subscribed", this.gson.toJsonTree(chartNames));
+      this.subscriber.reply(this.gson.toJson(reply));
+   }
+   
+   private void replyWithError(final String error) {
+      final JsonObject
+         reply = new JsonObject();
+      reply.addProperty("error", error);
+      this.subscriber.reply(this.gson.toJson(reply));
+   }
+   
+   @Override
+   public void onClose(final Session session, final CloseReason closeReason) {
+      if(this.subscriber != null)
+         this.subscriber.close();
+      logger.debug("websocket session {} closed: {}", session.getId(), closeReason);
+   }
+   
+   @Override
+   public void onError(final Session session, final Throwable cause) {
+      logger.debug("websocket session {} failed: {}", session.getId(), cause.getMessage());
+   }
+}
@@ -32,12 +32,14 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.engio.mbassy.bus.MBassador;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import servlet.data.ChartRetentionPolicy;
 import servlet.data.LiveDataBuffer;
 import servlet.data.TimestampedDatum;
-import servlet.data.TreeSetLiveDataBuffer;
 
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
@@ -64,31 +66,48 @@ public final class LiveDataReceiver extends HttpServlet {
    private final Gson
       gson;
    
-   private final LiveDataBuffer
+   private LiveDataBuffer
       dataBuffer;
    
+   private MBassador<Object>
+      bus;
+   
    private AtomicBoolean
       isInitialized;
    
    /**
      * Create a {@link LiveDataReceiver} object.<br><br>
      * 
+     * The {@link LiveDataBuffer} used by this servlet is created by the
+     * {@link ContextStartupListener}, and is obtained from the servlet context when
+     * this servlet is initialised.
+     * 
      * See also {@link LiveDataReceiver} and {@link HttpServlet}.
      */
    public LiveDataReceiver() {
       logger.info("creating live data latch receiver.");
       this.gson = new GsonBuilder().create();
-      this.dataBuffer = new TreeSetLiveDataBuffer("Live Data Receiver");
       logger.info("live data servlet loaded successfully.");
    }
    
    @Override
    public void init() throws ServletException {
       super.init();
+      this.dataBuffer =
+         (LiveDataBuffer) super.getServletContext().getAttribute("live-receiver-data-buffer");
+      if(this.dataBuffer == null) {
+         final String
+            errMsg = "no live data buffer is bound to the servlet context.";
+         logger.error(errMsg);
+         throw new ServletException(errMsg);
+      }
+      @SuppressWarnings("unchecked")
+      final MBassador<Object>
+         bus = (MBassador<Object>) super.getServletContext().getAttribute("bus");
+      this.bus = bus;
       this.isInitialized =
          (AtomicBoolean) super.getServletContext().getAttribute("live-data-receiver-initialized");
       this.isInitialized.set(false);
-      super.getServletContext().setAttribute("live-receiver-data-buffer", this.dataBuffer);
    }
    
    /**
@@ -140,6 +159,64 @@ public final class LiveDataReceiver extends HttpServlet {
       responseMap.put("create_chart: " + chartName, result ? "success" : "failure");
    }
    
+   private static final class CreateBoundedChartRequest {
+      private String
+         chartName;
+      private int
+         maximumNumberOfPoints;
+      private double
+         maximumAge;
+   }
+   
+   /**
+     * Process a <code>create_bounded_chart</code> request.<br><br>
+     * 
+     * This method will insert a key <code>"create_chart: [chart name]"</code> into the
+     * response map, as for {@link #processCreateChartRequest(String, Map)}.
+     * 
+     * @param json <br>
+     *        A JSON string representation of a {@link CreateBoundedChartRequest}, ie. an
+     *        object with fields <code>chartName</code>, <code>maximumNumberOfPoints</code>
+     *        and (optionally) <code>maximumAge</code>. See also
+     *        {@link ChartRetentionPolicy#create(int, double)}. If this argument is
+     *        malformed, then this method prints an error to the logger and otherwise
+     *        returns and does nothing.
+     * @param responseMap <br>
+     *        The map to which responses are to be inserted. This argument must be
+     *        non-<code>null</code>.
+     */
+   private void processCreateBoundedChartRequest(
+      final String json,
+      final Map<String, String> responseMap
+      ) {
+      final CreateBoundedChartRequest
+         request;
+      try {
+         request = this.gson.fromJson(json, CreateBoundedChartRequest.class);
+      }
+      catch(final JsonSyntaxException e) {
+         logger.error("create_bounded_chart: request string is malformed JSON.");
+         return;
+      }
+      if(request == null || request.chartName == null || request.chartName.isEmpty()) {
+         logger.error("create_bounded_chart: chart name is null or empty.");
+         return;
+      }
+      boolean
+         result = false;
+      try {
+         final ChartRetentionPolicy
+            retentionPolicy = ChartRetentionPolicy.create(
+               request.maximumNumberOfPoints, request.maximumAge);
+         logger.info("create_chart: name: {}, {}", request.chartName, retentionPolicy);
+         result = this.dataBuffer.createChart(request.chartName, retentionPolicy);
+      }
+      catch(final IllegalArgumentException e) {
+         logger.error("create_bounded_chart: " + e.getMessage());
+      }
+      responseMap.put("create_chart: " + request.chartName, result ? "success" : "failure");
+   }
+   
    private static final class UploadDataRequest {
       private String
          chartName;
@@ -167,6 +244,9 @@ public final class LiveDataReceiver extends HttpServlet {
      *         <li> <code>failure</code> if the chart data was not uploaded successfully (eg.
      *             no such chart is known to this data connector).
      *        </ul>
+     *        
+     *        A {@link LiveDataUploadedEvent} is published on the web application bus
+     *        for each successful upload.
      * @param responseMap <br>
      *        The map to which responses are to be inserted. This argument must be
      *        non-<code>null</code>.
@@ -205,6 +285,8 @@ public final class LiveDataReceiver extends HttpServlet {
                Arrays.toString(packet.toArray(new TimestampedDatum[0])));
             this.dataBuffer.uploadData(request.chartName, request.packet);
             result = true;
+            if(this.bus != null)
+               this.bus.publish(new LiveDataUploadedEvent(request.chartName, request.packet));
          }
          catch(final Exception e) {
             logger.error("upload_data: exception raised: {}" + e);
@@ -231,6 +313,14 @@ public final class LiveDataReceiver extends HttpServlet {
      *         <code>N</code> is the empty {@link String}, in which case there is no response).
      *         <br><br>
      * 
+     *    <li> For each parameter with value <code>B</code> keyed by
+     *         <code>create_bounded_chart</code> the response of the servlet is as for
+     *         <code>create_chart</code>. <code>B</code> is a JSON object with fields
+     *         <code>chartName</code>, <code>maximumNumberOfPoints</code> and (optionally)
+     *         <code>maximumAge</code>, specifying the name and the retention policy of
+     *         the chart to create.
+     *         <br><br>
+     * 
      *    <li> For each parameter with value <code>D</code> keyed by <code>upload_data</code>
      *         the response of the servlet is as follows:<br><br>
      * 
@@ -283,6 +373,10 @@ public final class LiveDataReceiver extends HttpServlet {
             for(final String data : record.getValue())
                processCreateChartRequest(data, responseMap);
             break;
+         case "create_bounded_chart":
+            for(final String data : record.getValue())
+               processCreateBoundedChartRequest(data, responseMap);
+            break;
          case "upload_data":
             processUploadDataRequest(record.getValue()[0], responseMap);
             break;
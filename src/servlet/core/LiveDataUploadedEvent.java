@@ -0,0 +1,87 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import servlet.data.TimestampedDatum;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * An event published on the web application bus by the {@link LiveDataReceiver} when
+  * data has been uploaded to a live chart. The event carries the uploaded data points
+  * only, and not the existing data of the chart.<br><br>
+  * 
+  * This class is immutable.
+  * 
+  * @author phillips
+  */
+public final class LiveDataUploadedEvent {
+   
+   private final String
+      chartName;
+   private final List<TimestampedDatum>
+      data;
+   
+   /**
+     * Create a {@link LiveDataUploadedEvent} object.
+     * 
+     * @param chartName <br>
+     *        The name of the chart to which data was uploaded. This argument must be
+     *        non-<code>null</code>.
+     * @param data <br>
+     *        The data points uploaded to the chart. This argument must be
+     *        non-<code>null</code>. The argument is copied.
+     */
+   public LiveDataUploadedEvent(
+      final String chartName,
+      final List<TimestampedDatum> data
+      ) {
+      Preconditions.checkNotNull(chartName);
+      Preconditions.checkNotNull(data);
+      this.chartName = chartName;
+      this.data = Collections.unmodifiableList(new ArrayList<TimestampedDatum>(data));
+   }
+   
+   /**
+     * @return
+     *    The name of the chart to which data was uploaded.
+     */
+   public String getChartName() {
+      return this.chartName;
+   }
+   
+   /**
+     * @return
+     *    An unmodifiable {@link List} of the data points uploaded to the chart, in the
+     *    order in which they were uploaded.
+     */
+   public List<TimestampedDatum> getData() {
+      return this.data;
+   }
+   
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + ", chart name: " + this.chartName
+            + ", number of data points: " + this.data.size() + ".";
+   }
+}
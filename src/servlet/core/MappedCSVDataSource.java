@@ -0,0 +1,655 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+
+import servlet.data.ChartInformation;
+import servlet.data.TimestampedDatum;
+
+/**
+  * A {@link DataSourceConnector} for a CSV file with a header row, in the same format as
+  * {@link TitledCSVDataSource}, for files which are too large to be parsed into memory.
+  * <br><br>
+  * 
+  * The file is memory-mapped when this object is created, and scanned once, in a single
+  * sequential pass, to build an index of the byte offset of each row and to parse the
+  * time column. No other column is parsed at that time. The index uses <code>16</code>
+  * bytes per row, regardless of the number of columns.<br><br>
+  * 
+  * Columns are decoded on demand, directly from the mapped file, in blocks of
+  * {@value #BLOCK_SIZE} consecutive rows. Decoded blocks are held in a
+  * least-recently-used cache whose size, in bytes, is bounded, so that only the rows in
+  * use are held in memory. A request decodes only those blocks of its column which
+  * overlap the requested rows and are not in the cache, and concurrent requests for the
+  * same block share one decoding. See {@link #getColumnCacheStats()}.<br><br>
+  * 
+  * The statistics of the column cache may be registered as a JMX MBean named
+  * <code>servlet.core:type=MappedCSVDataSource,name=[file name]</code> by
+  * {@link #registerMBean()}, and are unregistered by {@link #close()}.<br><br>
+  * 
+  * Requests for data locate the rows of interest by binary search and copy them from
+  * the decoded blocks. Values which are not finite, or cannot be parsed, are read as
+  * zero.<br><br>
+  * 
+  * Quoted fields may contain the delimiter and line breaks. The file is assumed not to
+  * change while it is mapped.
+  * 
+  * @author phillips
+  */
+public final class MappedCSVDataSource extends AbstractDataSourceConnector
+   implements MappedCSVDataSourceMBean, Closeable {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(MappedCSVDataSource.class);
+   
+   private static final int
+      REGION_BITS = 30,
+      BLOCK_BITS = 14;
+   /**
+     * The number of rows in one block of a decoded column.
+     */
+   static final int
+      BLOCK_SIZE = 1 << BLOCK_BITS;
+   private static final long
+      REGION_SIZE = 1L << REGION_BITS;
+   private static final byte
+      DELIMITER = '|',
+      QUOTE = '"',
+      LINE_FEED = '\n';
+   
+   final Set<String>
+      chartNames;
+   final int
+      dataLength;
+   final String
+      timeColumnName;
+   final double[]
+      timeKeys;
+   private final long[]
+      rowOffsets;
+   private final Map<String, Integer>
+      columnIndices;
+   private final int
+      timeColumn;
+   private final MappedByteBuffer[]
+      regions;
+   private final long
+      fileSize;
+   private final LoadingCache<Long, double[]>
+      columnCache;                                             // Keyed by column and block
+   private ObjectName
+      objectName;                                              // Guarded by this
+   
+   /**
+     * Create a {@link MappedCSVDataSource} object with a column cache of one quarter of
+     * the maximum heap size.<br><br>
+     * 
+     * See also {@link #MappedCSVDataSource(String, String, long)}.
+     */
+   public MappedCSVDataSource(
+      final String filename,
+      final String timeColumnName
+      ) throws IOException {
+      this(filename, timeColumnName, Runtime.getRuntime().maxMemory() / 4L);
+   }
+   
+   /**
+     * Create a {@link MappedCSVDataSource} object.
+     * 
+     * @param filename
+     * @param timeColumnName
+     * @param columnCacheSize <br>
+     *        The maximum number of bytes of decoded column blocks to cache. This argument must
+     *        not be negative.
+     * 
+     * @throws IllegalArgumentException if the datafile specified is empty (contains
+     *         no header data), if <code>filename</code> is empty, or if
+     *         <code>columnCacheSize</code> is negative.
+     * @throws IOException if the underlying CSV file was missing, inaccessible, or
+     *         if a time stamp is not parseable.
+     */
+   public MappedCSVDataSource(
+      final String filename,
+      final String timeColumnName,
+      final long columnCacheSize
+      ) throws IOException {
+      super(Preconditions.checkNotNull(filename));
+      this.timeColumnName = Preconditions.checkNotNull(timeColumnName);
+      if(filename.isEmpty())
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": csv filename is empty.");
+      if(timeColumnName.isEmpty())
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": the name of the time column is empty.");
+      if(columnCacheSize < 0L)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": column cache size is negative (value: "
+          + columnCacheSize + ")");
+      
+      final long
+         startTime = System.nanoTime();
+      try (FileChannel channel = FileChannel.open(
+         Paths.get(filename), StandardOpenOption.READ)) {
+         this.fileSize = channel.size();
+         this.regions =
+            new MappedByteBuffer[(int) ((this.fileSize + REGION_SIZE - 1L) >>> REGION_BITS)];
+         for(int i = 0; i< this.regions.length; ++i) {
+            final long
+               offset = i * REGION_SIZE;
+            this.regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+               offset, Math.min(REGION_SIZE, this.fileSize - offset));
+         }
+      }
+      long
+         position = skipEmptyLines(0L);
+      if(position >= this.fileSize)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": the datafile contains no header.");
+      final List<String>
+         headers = new ArrayList<String>();
+      position = readHeader(position, headers);
+      this.chartNames = new LinkedHashSet<String>(headers);
+      if(!this.chartNames.contains(timeColumnName))
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": csv file does not contain a column of data with "
+          + "name '" + timeColumnName + "'");
+      this.columnIndices = new HashMap<String, Integer>();
+      for(int j = headers.size() - 1; j>= 0; --j)                   // First column wins
+         this.columnIndices.put(headers.get(j), j);
+      final int
+         timeColumn = this.timeColumn = headers.indexOf(timeColumnName);
+      final long[]
+         bounds = new long[2];
+      long[]
+         offsets = new long[64];
+      double[]
+         times = new double[64];
+      int
+         length = 0;
+      while((position = skipEmptyLines(position)) < this.fileSize) {
+         if(length == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * length);
+            times = Arrays.copyOf(times, 2 * length);
+         }
+         offsets[length] = position;
+         position = scan(position, timeColumn, bounds, true);
+         final String
+            cell = bounds[0] < 0L ? null : decode(bounds[0], bounds[1]);
+         try {
+            times[length] = Double.parseDouble(cell);
+         }
+         catch(final NullPointerException | NumberFormatException e) {
+            throw new IOException(
+               getClass().getSimpleName() + ": time stamp '" + cell + "' in row "
+             + (length + 1) + " is not parseable.");
+         }
+         ++length;
+      }
+      if(length < 1)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": the datafile contains no records.");
+      this.dataLength = length;
+      this.rowOffsets = Arrays.copyOf(offsets, length);
+      this.timeKeys = Arrays.copyOf(times, length);
+      this.columnCache = CacheBuilder.newBuilder()
+         .concurrencyLevel(1)                    // Bound the total size, not per segment
+         .maximumWeight(columnCacheSize / 1024L)
+         .weigher((final Long key, final double[] values) ->
+            (8 * values.length + 1023) / 1024)
+         .recordStats()
+         .build(new CacheLoader<Long, double[]>() {
+            @Override
+            public double[] load(final Long key) {
+               return decodeBlock((int) (key >>> 32), (int) key.longValue());
+            }
+         });
+      logger.info("indexed {} columns and {} rows of {} ({} bytes) in {} ms.",
+         this.columnIndices.size(), this.dataLength, filename, this.fileSize,
+         (System.nanoTime() - startTime) / 1000000L);
+   }
+   
+   private byte byteAt(final long position) {
+      return this.regions[(int) (position >>> REGION_BITS)].get(
+         (int) (position & (REGION_SIZE - 1L)));
+   }
+   
+   /**
+     * Skip lines which are empty or contain only whitespace.
+     * 
+     * @return
+     *    The position of the first byte of the next line which is not empty, or the size
+     *    of the file.
+     */
+   private long skipEmptyLines(long position) {
+      long
+         lineStart = position;
+      while(position < this.fileSize) {
+         final byte
+            next = byteAt(position);
+         if(next == LINE_FEED)
+            lineStart = position + 1L;
+         else if((next & 0xff) > ' ')
+            return lineStart;
+         ++position;
+      }
+      return this.fileSize;
+   }
+   
+   /**
+     * Read all fields of the record at the specified position.
+     * 
+     * @return
+     *    The position following the record.
+     */
+   private long readHeader(
+      long position,
+      final List<String> result
+      ) {
+      long
+         fieldStart = position;
+      boolean
+         isQuoted = false;
+      for(; position< this.fileSize; ++position) {
+         final byte
+            next = byteAt(position);
+         if(next == QUOTE)
+            isQuoted = !isQuoted;
+         else if(!isQuoted && (next == DELIMITER || next == LINE_FEED)) {
+            result.add(decode(fieldStart, position));
+            if(next == LINE_FEED)
+               return position + 1L;
+            fieldStart = position + 1L;
+         }
+      }
+      result.add(decode(fieldStart, position));
+      return position;
+   }
+   
+   /**
+     * Locate one field of the record at the specified position.
+     * 
+     * @param position <br>
+     *        The position of the first byte of the record.
+     * @param column <br>
+     *        The index of the field to locate.
+     * @param bounds <br>
+     *        An array into which the start (inclusive) and end (exclusive) positions of
+     *        the field are written. If the record has too few fields, <code>-1</code>
+     *        is written.
+     * @param toEndOfRecord <br>
+     *        Whether to continue scanning to the end of the record after the field has
+     *        been located.
+     * @return
+     *    The position following the record if <code>toEndOfRecord</code> is set, and
+     *    otherwise the position following the field.
+     */
+   private long scan(
+      long position,
+      final int column,
+      final long[] bounds,
+      final boolean toEndOfRecord
+      ) {
+      bounds[0] = -1L;
+      bounds[1] = -1L;
+      long
+         fieldStart = position;
+      int
+         field = 0;
+      boolean
+         isQuoted = false;
+      for(; position< this.fileSize; ++position) {
+         final byte
+            next = byteAt(position);
+         if(next == QUOTE)
+            isQuoted = !isQuoted;
+         else if(!isQuoted && (next == DELIMITER || next == LINE_FEED)) {
+            if(field == column) {
+               bounds[0] = fieldStart;
+               bounds[1] = position;
+               if(!toEndOfRecord)
+                  return position;
+            }
+            if(next == LINE_FEED)
+               return position + 1L;
+            ++field;
+            fieldStart = position + 1L;
+         }
+      }
+      if(field == column) {
+         bounds[0] = fieldStart;
+         bounds[1] = position;
+      }
+      return position;
+   }
+   
+   /**
+     * Decode the field in the range <code>[start, end)</code>, ignoring leading and
+     * trailing whitespace and enclosing quotes.
+     */
+   private String decode(
+      long start,
+      long end
+      ) {
+      while(start < end && (byteAt(start) & 0xff) <= ' ')
+         ++start;
+      while(end > start && (byteAt(end - 1L) & 0xff) <= ' ')
+         --end;
+      final boolean
+         isQuoted = end - start >= 2L && byteAt(start) == QUOTE && byteAt(end - 1L) == QUOTE;
+      if(isQuoted) {
+         ++start;
+         --end;
+      }
+      final byte[]
+         bytes = new byte[(int) (end - start)];
+      for(int i = 0; i< bytes.length; ++i)
+         bytes[i] = byteAt(start + i);
+      final String
+         result = new String(bytes, StandardCharsets.UTF_8);
+      return isQuoted ? result.replace("\"\"", "\"") : result;
+   }
+   
+   @Override
+   public List<ChartInformation> getKnownCharts() {
+      final List<ChartInformation>
+         knownCharts = new ArrayList<ChartInformation>();
+      for(final String chartName : this.chartNames)
+         knownCharts.add(new ChartInformation(chartName, "Line", this.dataLength));
+      return knownCharts;
+   }
+   
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive
+      ) throws DataSourceException {
+      final Integer
+         column = this.columnIndices.get(chartName);
+      if(column == null)
+         return Collections.emptyList();
+      return slice(
+         column, findFirstRowAfter(fromTimeOfInterest, inclusive), this.dataLength);
+   }
+   
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      final Integer
+         column = this.columnIndices.get(chartName);
+      if(column == null)
+         return Collections.emptyList();
+      final int
+         from = findFirstRowAfter(fromTimeOfInterest, true),
+         to = findFirstRowAfter(toTimeOfInterest, false);
+      return slice(column, from, Math.max(from, to));
+   }
+   
+   @Override
+   public void streamData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws DataSourceException, IOException {
+      final Integer
+         column = this.columnIndices.get(chartName);
+      if(column == null)
+         return;
+      final int
+         from = findFirstRowAfter(fromTimeOfInterest, inclusive);
+      if(column == this.timeColumn) {
+         for(int i = from; i< this.dataLength; ++i)
+            handler.handle(this.timeKeys[i], this.timeKeys[i]);
+         return;
+      }
+      for(int block = from >>> BLOCK_BITS, i = from; i< this.dataLength; ++block) {
+         final double[]
+            values = getBlock(column, block);
+         final int
+            blockStart = block << BLOCK_BITS,
+            blockEnd = blockStart + values.length;
+         for(; i< blockEnd; ++i)
+            handler.handle(this.timeKeys[i], values[i - blockStart]);
+      }
+   }
+   
+   @Override
+   public boolean hasData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive
+      ) {
+      return this.columnIndices.containsKey(chartName)
+         && findFirstRowAfter(fromTimeOfInterest, inclusive) < this.dataLength;
+   }
+   
+   /**
+     * Copy the rows <code>[from, to)</code> of the specified column.
+     */
+   private List<TimestampedDatum> slice(
+      final int column,
+      final int from,
+      final int to
+      ) {
+      final List<TimestampedDatum>
+         result = new ArrayList<TimestampedDatum>(to - from);
+      if(column == this.timeColumn) {
+         for(int i = from; i< to; ++i)
+            result.add(TimestampedDatum.create(this.timeKeys[i], this.timeKeys[i]));
+         return result;
+      }
+      for(int block = from >>> BLOCK_BITS, i = from; i< to; ++block) {
+         final double[]
+            values = getBlock(column, block);
+         final int
+            blockStart = block << BLOCK_BITS,
+            blockEnd = Math.min(to, blockStart + values.length);
+         for(; i< blockEnd; ++i)
+            result.add(TimestampedDatum.create(this.timeKeys[i], values[i - blockStart]));
+      }
+      return result;
+   }
+   
+   private double[] getBlock(
+      final int column,
+      final int block
+      ) {
+      return this.columnCache.getUnchecked(((long) column << 32) | block);
+   }
+   
+   /**
+     * Decode the rows of the specified block of the specified column from the mapped
+     * file.
+     */
+   private double[] decodeBlock(
+      final int column,
+      final int block
+      ) {
+      final long
+         startTime = System.nanoTime();
+      final int
+         blockStart = block << BLOCK_BITS;
+      final double[]
+         result = new double[Math.min(BLOCK_SIZE, this.dataLength - blockStart)];
+      final long[]
+         bounds = new long[2];
+      int
+         numberOfUnparseableValues = 0;
+      for(int i = 0; i< result.length; ++i) {
+         scan(this.rowOffsets[blockStart + i], column, bounds, false);
+         final double
+            value = bounds[0] < 0L ? Double.NaN :
+               safeParseDouble(decode(bounds[0], bounds[1]));
+         if(Double.isNaN(value))
+            ++numberOfUnparseableValues;
+         result[i] = Double.isNaN(value) ? 0.0 : value;
+      }
+      if(numberOfUnparseableValues > 0)
+         logger.warn("{} values in rows {} to {} of column {} were not parseable, and were "
+            + "read as zero.", numberOfUnparseableValues, blockStart + 1,
+            blockStart + result.length, column);
+      logger.debug("decoded block {} of column {} ({} rows) in {} ms.",
+         block, column, result.length, (System.nanoTime() - startTime) / 1000000L);
+      return result;
+   }
+   
+   /**
+     * @return
+     *    The hit, miss, load and eviction counts of the cache of decoded column blocks.
+     */
+   public CacheStats getColumnCacheStats() {
+      return this.columnCache.stats();
+   }
+   
+   @Override
+   public long getColumnCacheEntryCount() {
+      return this.columnCache.size();
+   }
+   
+   @Override
+   public long getColumnCacheHitCount() {
+      return getColumnCacheStats().hitCount();
+   }
+   
+   @Override
+   public long getColumnCacheMissCount() {
+      return getColumnCacheStats().missCount();
+   }
+   
+   @Override
+   public double getColumnCacheHitRatio() {
+      return getColumnCacheStats().hitRate();
+   }
+   
+   @Override
+   public long getColumnCacheEvictionCount() {
+      return getColumnCacheStats().evictionCount();
+   }
+   
+   /**
+     * Register this data source as a JMX MBean exposing the statistics of its column
+     * cache. If the MBean cannot be registered, a warning is logged.
+     */
+   public synchronized void registerMBean() {
+      if(this.objectName != null)
+         return;
+      try {
+         final ObjectName
+            name = new ObjectName("servlet.core:type=MappedCSVDataSource,name="
+               + ObjectName.quote(getDataSourceName()));
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+         this.objectName = name;
+      }
+      catch(final JMException e) {
+         logger.warn("failed to register the column cache with JMX: {}", e);
+      }
+   }
+   
+   /**
+     * Log the statistics of the column cache, and unregister the JMX MBean of this data
+     * source, if it is registered.
+     */
+   @Override
+   public synchronized void close() {
+      logger.info("column cache of {}: {}", getDataSourceName(), getColumnCacheStats());
+      if(this.objectName == null)
+         return;
+      try {
+         ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+      }
+      catch(final JMException e) {
+         logger.warn("failed to unregister {}: {}", this.objectName, e);
+      }
+      this.objectName = null;
+   }
+   
+   /**
+     * Find the index of the first row whose time stamp is after the specified time, or
+     * is equal to the specified time and <code>inclusive</code> is set.
+     */
+   private int findFirstRowAfter(
+      final double time,
+      final boolean inclusive
+      ) {
+      int
+         low = 0,
+         high = this.dataLength - 1;
+      while(low <= high) {
+         final int
+            middle = (low + high) >>> 1,
+            order = Double.compare(this.timeKeys[middle], time);
+         if(order > 0 || (order == 0 && inclusive))
+            high = middle - 1;
+         else
+            low = middle + 1;
+      }
+      return low;
+   }
+   
+   /**
+     * Parse a value. Values which are not finite are read as zero, and values which
+     * cannot be parsed are read as {@link Double#NaN}.
+     */
+   private static double safeParseDouble(final String input) {
+      final double
+         result;
+      try {
+         result = Double.parseDouble(input);
+      }
+      catch(final NumberFormatException e) {
+         return Double.NaN;
+      }
+      if(!Double.isFinite(result))
+         return 0.0;
+      else return result;
+   }
+}
@@ -0,0 +1,58 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+/**
+  * The JMX management interface of a {@link MappedCSVDataSource}, exposing the
+  * statistics of its cache of decoded column blocks.
+  * 
+  * @author phillips
+  */
+public interface MappedCSVDataSourceMBean {
+   
+   /**
+     * @return
+     *    The number of decoded column blocks in the cache.
+     */
+   public long getColumnCacheEntryCount();
+   
+   /**
+     * @return
+     *    The number of block lookups which found the block in the cache.
+     */
+   public long getColumnCacheHitCount();
+   
+   /**
+     * @return
+     *    The number of block lookups which decoded the block.
+     */
+   public long getColumnCacheMissCount();
+   
+   /**
+     * @return
+     *    The ratio of hits to lookups, or <code>1</code> if there have been no lookups.
+     */
+   public double getColumnCacheHitRatio();
+   
+   /**
+     * @return
+     *    The number of decoded blocks evicted to bound the size of the cache.
+     */
+   public long getColumnCacheEvictionCount();
+}
@@ -0,0 +1,137 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
+/**
+  * A bounded cache of serialized responses. The total size of the cached responses, in
+  * bytes, is bounded, and responses are evicted, least recently used first, when the
+  * bound is exceeded.<br><br>
+  * 
+  * Keys should identify an immutable response, for instance by including the versions
+  * of the data from which the response was generated, so that cached responses never
+  * need to be invalidated.<br><br>
+  * 
+  * This class is thread safe.
+  * 
+  * @author phillips
+  */
+public final class ResponseCache<K> implements ResponseCacheMBean {
+   
+   private final long
+      maximumSizeBytes;
+   private final Cache<K, byte[]>
+      cache;
+   private final AtomicLong
+      sizeBytes;
+   
+   /**
+     * Create a {@link ResponseCache} object.
+     * 
+     * @param maximumSizeBytes <br>
+     *        The maximum total size, in bytes, of the cached responses. This argument
+     *        must be non-negative. If this argument is zero, nothing is cached.
+     * @throws IllegalArgumentException if <code>maximumSizeBytes</code> is negative.
+     */
+   public ResponseCache(final long maximumSizeBytes) {
+      if(maximumSizeBytes < 0L)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": maximum size is negative (value: "
+          + maximumSizeBytes + ")");
+      this.maximumSizeBytes = maximumSizeBytes;
+      this.sizeBytes = new AtomicLong();
+      this.cache = CacheBuilder.newBuilder()
+         .concurrencyLevel(1)                    // Bound the total size, not per segment
+         .maximumWeight(maximumSizeBytes)
+         .<K, byte[]>weigher((key, value) -> value.length)
+         .<K, byte[]>removalListener(notification -> {
+            if(notification.getCause() != RemovalCause.REPLACED)
+               this.sizeBytes.addAndGet(-notification.getValue().length);
+         })
+         .recordStats()
+         .build();
+   }
+   
+   /**
+     * @return
+     *    The cached response for the specified key, or <code>null</code> if no response
+     *    is cached for this key. The response must not be modified.
+     */
+   public byte[] get(final K key) {
+      return this.cache.getIfPresent(Preconditions.checkNotNull(key));
+   }
+   
+   /**
+     * Cache a response. The response must not be modified after this method is called.
+     * If a response is already cached for the specified key, this method does nothing.
+     */
+   public void put(final K key, final byte[] response) {
+      Preconditions.checkNotNull(key);
+      Preconditions.checkNotNull(response);
+      if(this.cache.asMap().putIfAbsent(key, response) == null)
+         this.sizeBytes.addAndGet(response.length);
+   }
+   
+   @Override
+   public long getEntryCount() {
+      return this.cache.size();
+   }
+   
+   @Override
+   public long getSizeBytes() {
+      return this.sizeBytes.get();
+   }
+   
+   @Override
+   public long getMaximumSizeBytes() {
+      return this.maximumSizeBytes;
+   }
+   
+   @Override
+   public long getHitCount() {
+      return this.cache.stats().hitCount();
+   }
+   
+   @Override
+   public long getMissCount() {
+      return this.cache.stats().missCount();
+   }
+   
+   @Override
+   public double getHitRatio() {
+      return this.cache.stats().hitRate();
+   }
+   
+   @Override
+   public long getEvictionCount() {
+      return this.cache.stats().evictionCount();
+   }
+   
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + ", entries: " + getEntryCount() + ", size: "
+            + getSizeBytes() + " bytes, hit ratio: " + getHitRatio() + ".";
+   }
+}
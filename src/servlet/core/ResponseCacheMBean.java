@@ -0,0 +1,69 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+/**
+  * The JMX management interface of a {@link ResponseCache}.
+  * 
+  * @author phillips
+  */
+public interface ResponseCacheMBean {
+   
+   /**
+     * @return
+     *    The number of cached responses.
+     */
+   public long getEntryCount();
+   
+   /**
+     * @return
+     *    The total size, in bytes, of the cached responses.
+     */
+   public long getSizeBytes();
+   
+   /**
+     * @return
+     *    The maximum total size, in bytes, of the cached responses.
+     */
+   public long getMaximumSizeBytes();
+   
+   /**
+     * @return
+     *    The number of lookups which found a cached response.
+     */
+   public long getHitCount();
+   
+   /**
+     * @return
+     *    The number of lookups which found no cached response.
+     */
+   public long getMissCount();
+   
+   /**
+     * @return
+     *    The ratio of hits to lookups, or <code>1</code> if there have been no lookups.
+     */
+   public double getHitRatio();
+   
+   /**
+     * @return
+     *    The number of responses evicted to bound the size of the cache.
+     */
+   public long getEvictionCount();
+}
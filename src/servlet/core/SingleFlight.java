@@ -0,0 +1,133 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * Suppression of duplicate concurrent computations. While a computation for a key is
+  * in flight, further calls of {@link #execute(Object, Callable)} with an equal key do
+  * not start another computation, but wait for and share the result of the computation
+  * in flight. Once the computation completes, its key is forgotten, so that a later
+  * call computes a fresh result.<br><br>
+  * 
+  * Results are shared between callers, and should therefore be immutable or not be
+  * modified.<br><br>
+  * 
+  * This class is thread safe.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class SingleFlight<K, V> {
+   
+   private final ConcurrentMap<K, CompletableFuture<V>>
+      inFlight;
+   private final AtomicLong
+      executedCount,
+      sharedCount;
+   
+   SingleFlight() {
+      this.inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+      this.executedCount = new AtomicLong();
+      this.sharedCount = new AtomicLong();
+   }
+   
+   /**
+     * Compute the result for a key, or share the result of a computation for an equal
+     * key which is already in flight.
+     * 
+     * @param key <br>
+     *        The key identifying the computation. This argument must be
+     *        non-<code>null</code>.
+     * @param computation <br>
+     *        The computation to run in the calling thread if no computation for the key
+     *        is in flight. This argument must be non-<code>null</code>.
+     * @throws ExecutionException if the computation, run by this or another caller,
+     *         raised an exception. The cause of this exception is the exception raised.
+     */
+   V execute(final K key, final Callable<V> computation) throws ExecutionException {
+      Preconditions.checkNotNull(key);
+      Preconditions.checkNotNull(computation);
+      final CompletableFuture<V>
+         future = new CompletableFuture<V>(),
+         existing = this.inFlight.putIfAbsent(key, future);
+      if(existing != null) {
+         this.sharedCount.incrementAndGet();
+         boolean
+            isInterrupted = false;
+         try {
+            while(true) {
+               try {
+                  return existing.get();
+               }
+               catch(final InterruptedException e) {
+                  isInterrupted = true;
+               }
+            }
+         }
+         finally {
+            if(isInterrupted)
+               Thread.currentThread().interrupt();
+         }
+      }
+      this.executedCount.incrementAndGet();
+      try {
+         final V
+            result = computation.call();
+         future.complete(result);
+         return result;
+      }
+      catch(final Exception e) {
+         future.completeExceptionally(e);
+         throw new ExecutionException(e);
+      }
+      catch(final Error e) {
+         future.completeExceptionally(e);
+         throw e;
+      }
+      finally {
+         this.inFlight.remove(key, future);
+      }
+   }
+   
+   /**
+     * @return
+     *    The number of computations run.
+     */
+   long getExecutedCount() {
+      return this.executedCount.get();
+   }
+   
+   /**
+     * @return
+     *    The number of calls which shared the result of a computation in flight.
+     */
+   long getSharedCount() {
+      return this.sharedCount.get();
+   }
+}
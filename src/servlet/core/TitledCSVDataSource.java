@@ -19,18 +19,40 @@
 package servlet.core;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
-import com.univocity.parsers.common.processor.RowListProcessor;
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
@@ -38,20 +60,91 @@ import servlet.data.ChartInformation;
 import servlet.data.TimestampedDatum;
 
 /**
+  * A {@link DataSourceConnector} for a CSV file with a header row. Each column of the
+  * file is a chart, and one named column provides the (ascending) time stamps of all
+  * charts.<br><br>
+  * 
+  * The file is parsed once, in parallel, when this object is created. Each column
+  * is stored in a <code>double[]</code> array indexed by row, sharing one
+  * <code>double[]</code> array of time stamps. Requests for data do not lock and do not
+  * parse the file: they locate the first row of interest by binary search and copy the
+  * remainder of the column.<br><br>
+  * 
+  * Values which are not finite, or cannot be parsed, are read as zero.<br><br>
+  * 
+  * Optionally, this object follows rows appended to the file after it was created. The
+  * file is polled for growth at a fixed interval, and only the newly appended complete
+  * lines are parsed and appended to the columns. An incomplete last line is parsed once
+  * it is complete. Appended rows whose time stamps precede the last time stamp of the
+  * file are discarded. Appending rows does not block requests for data: the columns are
+  * published as an immutable snapshot, which is replaced after each append. Call
+  * {@link #close()} to stop following the file.
+  * 
   * @author phillips
   */
-public final class TitledCSVDataSource extends AbstractDataSourceConnector {
+public final class TitledCSVDataSource extends AbstractDataSourceConnector
+   implements Closeable {
    
-   Set<String>
+   private final static Logger
+      logger = LoggerFactory.getLogger(TitledCSVDataSource.class);
+   
+   /**
+     * The minimum size, in bytes, of the chunks into which the file is divided for
+     * parallel parsing.
+     */
+   public static final long
+      MINIMUM_CHUNK_SIZE = 1L << 20;
+   
+   final Set<String>
       chartNames;
-   int
-      dataLength;
    final String
       timeColumnName;
-   List<Double>
-      timeKeys;
+   private final Path
+      path;
+   private final Map<String, Integer>
+      columnIndices;
+   private final int
+      timeColumn;
+   private final ScheduledExecutorService
+      tailScheduler;
+   
+   /**
+     * An immutable view of the first <code>length</code> rows of the columns. The
+     * columns may have spare capacity, which is written by the tail thread only beyond
+     * <code>length</code>.
+     */
+   private static final class Snapshot {
+      final int
+         length;
+      final double[][]
+         data;
+      final double[]
+         timeKeys;
+      
+      Snapshot(
+         final int length,
+         final double[][] data,
+         final int timeColumn
+         ) {
+         this.length = length;
+         this.data = data;
+         this.timeKeys = data[timeColumn];
+      }
+   }
+   
+   private volatile Snapshot
+      snapshot;
+   private long
+      tailOffset;                                              // Tail thread only
+   private boolean
+      isTailTruncationReported;                                // Tail thread only
    
    /**
+     * Create a {@link TitledCSVDataSource} object, parsing the file with one thread per
+     * available processor.<br><br>
+     * 
+     * See also {@link #TitledCSVDataSource(String, String, int, long, Path)}.
+     * 
      * @param filename
      * @param timeColumnName 
      * 
@@ -64,6 +157,80 @@ public final class TitledCSVDataSource extends AbstractDataSourceConnector {
       final String filename,
       final String timeColumnName
       ) throws IOException {
+      this(filename, timeColumnName, Runtime.getRuntime().availableProcessors(), 0L, null);
+   }
+   
+   /**
+     * Create a {@link TitledCSVDataSource} object which does not follow rows appended
+     * to the file.<br><br>
+     * 
+     * See also {@link #TitledCSVDataSource(String, String, int, long, Path)}.
+     */
+   public TitledCSVDataSource(
+      final String filename,
+      final String timeColumnName,
+      final int parallelism
+      ) throws IOException {
+      this(filename, timeColumnName, parallelism, 0L, null);
+   }
+   
+   /**
+     * Create a {@link TitledCSVDataSource} object which does not use a sidecar file.
+     * <br><br>
+     * 
+     * See also {@link #TitledCSVDataSource(String, String, int, long, Path)}.
+     */
+   public TitledCSVDataSource(
+      final String filename,
+      final String timeColumnName,
+      final int parallelism,
+      final long tailIntervalMilliseconds
+      ) throws IOException {
+      this(filename, timeColumnName, parallelism, tailIntervalMilliseconds, null);
+   }
+   
+   /**
+     * Create a {@link TitledCSVDataSource} object.<br><br>
+     * 
+     * The file following the header row is divided at line boundaries into chunks of
+     * at least {@link #MINIMUM_CHUNK_SIZE} bytes, and the chunks are parsed in parallel
+     * on a {@link ForkJoinPool}. The parsed chunks are then concatenated in file order,
+     * so that rows retain the order in which they appear in the file. When more than
+     * one chunk is used, quoted values must not contain line breaks.<br><br>
+     * 
+     * If a sidecar file is specified, and it was written for the current size and last
+     * modification time of the file, the columns are read from the sidecar file and the
+     * file is not parsed. Otherwise the file is parsed and the sidecar file is written.
+     * See {@link CSVColumnSidecar}.
+     * 
+     * @param filename
+     * @param timeColumnName 
+     * @param parallelism <br>
+     *        The number of threads with which to parse the file. This argument must be
+     *        strictly positive.
+     * @param tailIntervalMilliseconds <br>
+     *        The interval at which to poll the file for appended rows, or zero to parse
+     *        the file once only. When this argument is positive, an incomplete last line
+     *        of the file is not parsed until it is complete. This argument must not be
+     *        negative.
+     * @param sidecarPath <br>
+     *        The binary sidecar file in which to store the parsed columns, or
+     *        <code>null</code> to parse the file without a sidecar file.
+     * 
+     * @throws IllegalArgumentException if the datafile specified is empty (contains
+     *         no header data), if <code>filename</code> is empty, if
+     *         <code>parallelism</code> is not strictly positive, or if
+     *         <code>tailIntervalMilliseconds</code> is negative.
+     * @throws IOException if the underlying CSV file was missing, inaccessible, or
+     *         not parseable.
+     */
+   public TitledCSVDataSource(
+      final String filename,
+      final String timeColumnName,
+      final int parallelism,
+      final long tailIntervalMilliseconds,
+      final Path sidecarPath
+      ) throws IOException {
       super(Preconditions.checkNotNull(filename));
       this.timeColumnName = Preconditions.checkNotNull(timeColumnName);
       if(filename.isEmpty())
@@ -72,77 +239,406 @@ public final class TitledCSVDataSource extends AbstractDataSourceConnector {
       if(timeColumnName.isEmpty())
          throw new IllegalArgumentException(
             getClass().getSimpleName() + ": the name of the time column is empty.");
+      if(parallelism <= 0)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": parallelism is not strictly positive (value: "
+          + parallelism + ")");
+      if(tailIntervalMilliseconds < 0L)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": tail interval is negative (value: "
+          + tailIntervalMilliseconds + "ms)");
       
-      {  // Count the number of lines
-         BufferedReader
-            reader = null;
-         try {
-            reader = Files.newBufferedReader(Paths.get(filename));
-            this.dataLength = (int) reader.lines().count() - 1;
-            reader.close();
-         } catch (final Exception e) {
-            if(reader != null)
-               reader.close();
-            throw e;
+      final long
+         startTime = System.nanoTime();
+      final Path
+         path = this.path = Paths.get(filename);
+      final BasicFileAttributes
+         attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      CSVColumnSidecar
+         columns = sidecarPath == null ? null : CSVColumnSidecar.read(sidecarPath,
+            attributes.size(), attributes.lastModifiedTime().toMillis(), timeColumnName);
+      if(columns == null) {
+         columns = parse(path, parallelism, tailIntervalMilliseconds > 0L);
+         if(sidecarPath != null)
+            columns.write(sidecarPath,
+               attributes.size(), attributes.lastModifiedTime().toMillis(), timeColumnName);
+      }
+      final String[]
+         headers = columns.headers;
+      this.chartNames = new LinkedHashSet<String>(Arrays.asList(headers));
+      this.timeColumn = Arrays.asList(headers).indexOf(timeColumnName);
+      this.columnIndices = new HashMap<String, Integer>();
+      for(int j = headers.length - 1; j>= 0; --j)                   // First column wins
+         this.columnIndices.put(headers[j], j);
+      this.snapshot = new Snapshot(columns.length, columns.data, this.timeColumn);
+      this.tailOffset = columns.dataEnd;
+      logger.info("loaded {} columns and {} rows from {} in {} ms.",
+         this.columnIndices.size(), columns.length, filename,
+         (System.nanoTime() - startTime) / 1000000L);
+      if(tailIntervalMilliseconds > 0L) {
+         this.tailScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread
+               thread = new Thread(runnable, "csv tail " + path.getFileName());
+            thread.setDaemon(true);
+            return thread;
+         });
+         this.tailScheduler.scheduleWithFixedDelay(() -> {
+            try {
+               tail();
+            }
+            catch(final Exception e) {
+               logger.error("failed to read rows appended to {}: {}", filename, e);
+            }
+         }, tailIntervalMilliseconds, tailIntervalMilliseconds, TimeUnit.MILLISECONDS);
+         logger.info("following rows appended to {} (every {} ms).",
+            filename, tailIntervalMilliseconds);
+      }
+      else
+         this.tailScheduler = null;
+   }
+   
+   /**
+     * Parse the file in parallel.
+     * 
+     * @param isTailing <br>
+     *        Whether to omit an incomplete last line.
+     */
+   private CSVColumnSidecar parse(
+      final Path path,
+      final int parallelism,
+      final boolean isTailing
+      ) throws IOException {
+      final String[]
+         headers;
+      final long[]
+         boundaries;
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+         final long
+            fileSize = channel.size();
+         long
+            headerStart = 0L,
+            headerEnd = 0L;
+         String
+            headerLine = "";
+         while(headerLine.trim().isEmpty() && headerEnd < fileSize) {
+            headerStart = headerEnd;
+            headerEnd = findNextLine(channel, headerStart);
+            headerLine = readString(channel, headerStart, headerEnd);
          }
-         if(this.dataLength < 1)
+         headers = headerLine.trim().isEmpty() ? null : parseHeader(headerLine);
+         if(headers == null)
             throw new IllegalArgumentException(
-               getClass().getSimpleName() + ": the datafile contains no records.");
+               getClass().getSimpleName() + ": the datafile contains no header.");
+         final int
+            numberOfChunks = (int) Math.max(1L, Math.min(4L * parallelism,
+               (fileSize - headerEnd) / MINIMUM_CHUNK_SIZE));
+         boundaries = new long[numberOfChunks + 1];
+         boundaries[0] = headerEnd;
+         boundaries[numberOfChunks] = isTailing ?
+            findLineStart(channel, fileSize, headerEnd) : fileSize;
+         for(int i = 1; i< numberOfChunks; ++i)
+            boundaries[i] = Math.max(boundaries[i - 1], findNextLine(channel,
+               headerEnd + (fileSize - headerEnd) * i / numberOfChunks - 1L));
       }
+      if(!Arrays.asList(headers).contains(this.timeColumnName))
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": csv file does not contain a column of data with "
+          + "name '" + this.timeColumnName + "'");
+      final int
+         timeColumn = Arrays.asList(headers).indexOf(this.timeColumnName);
       
-      {
-      CsvParser
-         parser = createParser();
+      final List<Chunk>
+         chunks = new ArrayList<Chunk>();
+      final ForkJoinPool
+         pool = new ForkJoinPool(parallelism);
+      try {
+         final List<ForkJoinTask<Chunk>>
+            tasks = new ArrayList<ForkJoinTask<Chunk>>();
+         for(int i = 0; i< boundaries.length - 1; ++i) {
+            final long
+               from = boundaries[i],
+               to = boundaries[i + 1];
+            tasks.add(pool.submit(
+               () -> parseChunk(path, from, to, headers.length, timeColumn)));
+         }
+         for(final ForkJoinTask<Chunk> task : tasks)
+            chunks.add(task.get());
+      }
+      catch(final InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException(
+            getClass().getSimpleName() + ": interrupted while parsing " + path);
+      }
+      catch(final ExecutionException e) {
+         Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+         throw Throwables.propagate(e.getCause());
+      }
+      finally {
+         pool.shutdownNow();
+      }
       
-      {  // Extract headers
-         FileReader
-            reader = null;
-         try {
-            reader = new FileReader(filename);
-            parser.beginParsing(reader);
-            this.chartNames = new HashSet<String>();
-            for(final String chartName : parser.parseNext())
-               this.chartNames.add(chartName);
-            parser.stopParsing();
-            reader.close();
-         } catch (final Exception e) {
-            if(reader != null)
-               reader.close();
-            throw e;
+      int
+         length = 0,
+         numberOfUnparseableValues = 0;
+      for(final Chunk chunk : chunks) {
+         if(chunk.unparseableTimeRow >= 0)
+            throw new IOException(
+               getClass().getSimpleName() + ": time stamp '" + chunk.unparseableTime
+             + "' in row " + (length + chunk.unparseableTimeRow + 1) + " is not parseable.");
+         length += chunk.length;
+         numberOfUnparseableValues += chunk.numberOfUnparseableValues;
+      }
+      if(length < 1)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": the datafile contains no records.");
+      final double[][]
+         data = new double[headers.length][];
+      for(int j = 0; j< data.length; ++j) {
+         data[j] = new double[length];
+         int
+            offset = 0;
+         for(final Chunk chunk : chunks) {
+            System.arraycopy(chunk.data[j], 0, data[j], offset, chunk.length);
+            chunk.data[j] = null;
+            offset += chunk.length;
          }
       }
+      if(numberOfUnparseableValues > 0)
+         logger.warn("{} values in {} were not parseable, and were read as zero.",
+            numberOfUnparseableValues, path);
+      logger.info("parsed {} in {} chunks with {} threads.", path, chunks.size(), parallelism);
+      return new CSVColumnSidecar(headers, data, length, boundaries[boundaries.length - 1]);
+   }
+   
+   /**
+     * Parse the complete lines appended to the file since the last call, and append
+     * them to the columns. This method is called by the tail thread only.
+     */
+   private void tail() throws IOException {
+      final long
+         end;
+      try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+         final long
+            fileSize = channel.size();
+         if(fileSize < this.tailOffset) {
+            if(!this.isTailTruncationReported)
+               logger.warn("{} was truncated; appended rows are ignored until it regrows.",
+                  this.path);
+            this.isTailTruncationReported = true;
+            return;
+         }
+         this.isTailTruncationReported = false;
+         end = findLineStart(channel, fileSize, this.tailOffset);
       }
+      if(end == this.tailOffset)
+         return;
+      final Snapshot
+         current = this.snapshot;
+      final Chunk
+         chunk = parseChunk(
+            this.path, this.tailOffset, end, current.data.length, this.timeColumn);
+      double[][]
+         data = current.data;
+      int
+         length = current.length,
+         numberOfDiscardedRows = 0;
+      if(length + chunk.length > data[0].length) {
+         final int
+            capacity = Math.max(length + chunk.length, length + (length >> 2));
+         data = new double[data.length][];
+         for(int j = 0; j< data.length; ++j)
+            data[j] = Arrays.copyOf(current.data[j], capacity);
+      }
+      final double[]
+         times = chunk.data[this.timeColumn];
+      for(int i = 0; i< chunk.length; ++i) {
+         if(times[i] < data[this.timeColumn][length - 1]) {
+            ++numberOfDiscardedRows;
+            continue;
+         }
+         for(int j = 0; j< data.length; ++j)
+            data[j][length] = chunk.data[j][i];
+         ++length;
+      }
+      this.snapshot = new Snapshot(length, data, this.timeColumn);
+      if(numberOfDiscardedRows > 0)
+         logger.warn("discarded {} rows appended to {} out of time order.",
+            numberOfDiscardedRows, this.path);
+      if(chunk.unparseableTimeRow >= 0) {
+         logger.error("time stamp '{}' appended to {} is not parseable; no longer following "
+            + "the file.", chunk.unparseableTime, this.path);
+         this.tailScheduler.shutdown();
+         return;
+      }
+      this.tailOffset = end;
+   }
+   
+   /**
+     * Stop following rows appended to the file, if applicable.
+     */
+   @Override
+   public void close() {
+      if(this.tailScheduler != null)
+         this.tailScheduler.shutdownNow();
+   }
+   
+   /**
+     * The rows parsed from one chunk of the file.
+     */
+   private static final class Chunk {
+      final double[][]
+         data;
+      final int
+         length,
+         numberOfUnparseableValues,
+         unparseableTimeRow;
+      final String
+         unparseableTime;
       
-      {  // Extract the (abstract) 'time' column
-         if(!this.chartNames.contains(timeColumnName))
-            throw new IllegalArgumentException(
-               getClass().getSimpleName() + ": csv file does not contain a column of data with "
-             + "name '" + timeColumnName + "'");
-         
-         FileReader
-            reader = null;
-         try {
-            reader = new FileReader(filename);
-            final CsvParserSettings
-               parserSettings = createParserSettings();
-            parserSettings.selectFields(timeColumnName);
-            parserSettings.setHeaderExtractionEnabled(true);
-            final List<String[]>
-               data = (new CsvParser(parserSettings)).parseAll(reader);
-            this.timeKeys = new ArrayList<Double>();
-            for(int i = 0; i< data.size(); ++i)
-               this.timeKeys.add(Double.parseDouble(data.get(i)[0]));
-            reader.close();
-         } catch (final Exception e) {
-            if(reader != null)
-               reader.close();
-            throw e;
+      Chunk(
+         final double[][] data,
+         final int length,
+         final int numberOfUnparseableValues,
+         final int unparseableTimeRow,
+         final String unparseableTime
+         ) {
+         this.data = data;
+         this.length = length;
+         this.numberOfUnparseableValues = numberOfUnparseableValues;
+         this.unparseableTimeRow = unparseableTimeRow;
+         this.unparseableTime = unparseableTime;
+      }
+   }
+   
+   /**
+     * Parse the rows in the byte range <code>[from, to)</code> of the file. Parsing stops
+     * at the first time stamp which cannot be parsed.
+     */
+   private Chunk parseChunk(
+      final Path path,
+      final long from,
+      final long to,
+      final int numberOfColumns,
+      final int timeColumn
+      ) throws IOException {
+      final CsvParser
+         parser = new CsvParser(createParserSettings());
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+         channel.position(from);
+         parser.beginParsing(new BufferedReader(new InputStreamReader(
+            ByteStreams.limit(Channels.newInputStream(channel), to - from),
+            StandardCharsets.UTF_8), 1 << 16));
+         double[][]
+            data = new double[numberOfColumns][64];
+         int
+            length = 0,
+            numberOfUnparseableValues = 0;
+         String[]
+            row;
+         while((row = parser.parseNext()) != null) {
+            if(length == data[0].length)
+               for(int j = 0; j< data.length; ++j)
+                  data[j] = Arrays.copyOf(data[j], 2 * length);
+            for(int j = 0; j< data.length; ++j) {
+               final String
+                  cell = j < row.length ? row[j] : null;
+               if(j == timeColumn) {
+                  try {
+                     data[j][length] = Double.parseDouble(cell);
+                  }
+                  catch(final NullPointerException | NumberFormatException e) {
+                     return new Chunk(data, length, numberOfUnparseableValues, length, cell);
+                  }
+               }
+               else {
+                  final double
+                     value = safeParseDouble(cell);
+                  if(Double.isNaN(value))
+                     ++numberOfUnparseableValues;
+                  data[j][length] = Double.isNaN(value) ? 0.0 : value;
+               }
+            }
+            ++length;
          }
+         return new Chunk(data, length, numberOfUnparseableValues, -1, null);
+      }
+      finally {
+         parser.stopParsing();
+      }
+   }
+   
+   /**
+     * @return
+     *    The position following the last line break before the specified position and at
+     *    or after the specified lower bound, or the lower bound.
+     */
+   private static long findLineStart(
+      final FileChannel channel,
+      long position,
+      final long lowerBound
+      ) throws IOException {
+      final ByteBuffer
+         buffer = ByteBuffer.allocate(1 << 13);
+      while(position > lowerBound) {
+         final int
+            count = (int) Math.min(buffer.capacity(), position - lowerBound);
+         buffer.clear();
+         buffer.limit(count);
+         while(buffer.hasRemaining()
+            && channel.read(buffer, position - count + buffer.position()) >= 0);
+         for(int i = buffer.position() - 1; i>= 0; --i)
+            if(buffer.get(i) == '\n')
+               return position - count + i + 1L;
+         position -= count;
+      }
+      return lowerBound;
+   }
+   
+   /**
+     * @return
+     *    The position following the first line break at or after the specified position,
+     *    or the size of the file.
+     */
+   private static long findNextLine(
+      final FileChannel channel,
+      long position
+      ) throws IOException {
+      final ByteBuffer
+         buffer = ByteBuffer.allocate(1 << 13);
+      while(true) {
+         buffer.clear();
+         final int
+            count = channel.read(buffer, position);
+         if(count < 0)
+            return channel.size();
+         for(int i = 0; i< count; ++i)
+            if(buffer.get(i) == '\n')
+               return position + i + 1L;
+         position += count;
+      }
+   }
+   
+   private String[] parseHeader(final String headerLine) {
+      final CsvParser
+         parser = new CsvParser(createParserSettings());
+      try {
+         parser.beginParsing(new StringReader(headerLine));
+         return parser.parseNext();
+      }
+      finally {
+         parser.stopParsing();
       }
    }
    
-   private CsvParser createParser() {
-      return new CsvParser(createParserSettings());
+   private static String readString(
+      final FileChannel channel,
+      final long from,
+      final long to
+      ) throws IOException {
+      final ByteBuffer
+         buffer = ByteBuffer.allocate((int) (to - from));
+      while(buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) >= 0);
+      return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
    }
    
    private CsvParserSettings createParserSettings() {
@@ -154,84 +650,151 @@ public final class TitledCSVDataSource extends AbstractDataSourceConnector {
       parserSettings.setMaxColumns(5000);
       parserSettings.getFormat().setDelimiter('|');
       parserSettings.setHeaderExtractionEnabled(false);
-      
-      RowListProcessor
-         rowProcessor = new RowListProcessor();
-      parserSettings.setRowProcessor(rowProcessor);
-      
       return parserSettings;
    }
    
    @Override
    public List<ChartInformation> getKnownCharts() {
+      final int
+         length = this.snapshot.length;
       final List<ChartInformation>
          knownCharts = new ArrayList<ChartInformation>();
       for(final String chartName : this.chartNames)
-         knownCharts.add(new ChartInformation(chartName, "Line", this.dataLength));
+         knownCharts.add(new ChartInformation(chartName, "Line", length));
       return knownCharts;
    }
    
    @Override
-   public synchronized List<TimestampedDatum> getData(
+   public List<TimestampedDatum> getData(
       String chartName,
       final double fromTimeOfInterest,
       final boolean inclusive
       ) throws DataSourceException {
+      final Integer
+         column = this.columnIndices.get(chartName);
+      if(column == null)
+         return Collections.emptyList();
+      final Snapshot
+         snapshot = this.snapshot;
+      return slice(snapshot, column,
+         findFirstRowAfter(snapshot, fromTimeOfInterest, inclusive), snapshot.length);
+   }
+   
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      final Integer
+         column = this.columnIndices.get(chartName);
+      if(column == null)
+         return Collections.emptyList();
+      final Snapshot
+         snapshot = this.snapshot;
+      final int
+         from = findFirstRowAfter(snapshot, fromTimeOfInterest, true),
+         to = findFirstRowAfter(snapshot, toTimeOfInterest, false);
+      return slice(snapshot, column, from, Math.max(from, to));
+   }
+   
+   @Override
+   public void streamData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws DataSourceException, IOException {
+      final Integer
+         column = this.columnIndices.get(chartName);
+      if(column == null)
+         return;
+      final Snapshot
+         snapshot = this.snapshot;
+      final double[]
+         times = snapshot.timeKeys,
+         values = snapshot.data[column];
+      for(int i = findFirstRowAfter(snapshot, fromTimeOfInterest, inclusive);
+         i< snapshot.length; ++i)
+         handler.handle(times[i], values[i]);
+   }
+   
+   @Override
+   public boolean hasData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive
+      ) {
+      if(!this.columnIndices.containsKey(chartName))
+         return false;
+      final Snapshot
+         snapshot = this.snapshot;
+      return findFirstRowAfter(snapshot, fromTimeOfInterest, inclusive) < snapshot.length;
+   }
+   
+   /**
+     * Copy the rows <code>[from, to)</code> of the specified column.
+     */
+   private static List<TimestampedDatum> slice(
+      final Snapshot snapshot,
+      final int column,
+      final int from,
+      final int to
+      ) {
+      final double[]
+         times = snapshot.timeKeys,
+         values = snapshot.data[column];
+      final List<TimestampedDatum>
+         result = new ArrayList<TimestampedDatum>(to - from);
+      for(int i = from; i< to; ++i)
+         result.add(TimestampedDatum.create(times[i], values[i]));
+      return result;
+   }
+   
+   /**
+     * Find the index of the first row whose time stamp is after the specified time, or
+     * is equal to the specified time and <code>inclusive</code> is set.
+     */
+   private static int findFirstRowAfter(
+      final Snapshot snapshot,
+      final double time,
+      final boolean inclusive
+      ) {
+      final double[]
+         times = snapshot.timeKeys;
       int
-         rowIndexFrom = Collections.binarySearch(this.timeKeys, fromTimeOfInterest);
-      if(rowIndexFrom < 0)
-         rowIndexFrom = -(rowIndexFrom + 1);
-      if(rowIndexFrom == this.dataLength)
-         if(!inclusive)
-            return new ArrayList<TimestampedDatum>();
-      
-      {  // Extract data
-         FileReader
-            reader = null;
-         try {
-            reader = new FileReader(getCSVFilename());
-            final CsvParserSettings
-               parserSettings = createParserSettings();
-            parserSettings.selectFields(chartName);
-            parserSettings.setHeaderExtractionEnabled(true);
-            final List<String[]>
-               data = (new CsvParser(parserSettings)).parseAll(reader);
-            final List<TimestampedDatum>
-               result = new ArrayList<TimestampedDatum>();
-            {
-               final double
-                  leastKey = this.timeKeys.get(rowIndexFrom);
-            if(leastKey > fromTimeOfInterest ||
-               (Double.compare(leastKey, fromTimeOfInterest) == 0 && inclusive))
-               result.add(TimestampedDatum.create(
-                  leastKey, safeParseDouble(data.get(rowIndexFrom)[0]))); 
-            }
-            for(int i = rowIndexFrom + 1; i< this.dataLength; ++i)
-               result.add(TimestampedDatum.create(
-                  this.timeKeys.get(i), safeParseDouble(data.get(i)[0])));
-            reader.close();
-            return result;
-         } catch (final Exception e) {
-            if(reader != null)
-               try {
-                  reader.close();
-               } catch (final IOException cannotCloseStream) {
-                  throw new DataSourceException(cannotCloseStream);
-               }
-            throw new DataSourceException(e);
-         }
+         low = 0,
+         high = snapshot.length - 1;
+      while(low <= high) {
+         final int
+            middle = (low + high) >>> 1,
+            order = Double.compare(times[middle], time);
+         if(order > 0 || (order == 0 && inclusive))
+            high = middle - 1;
+         else
+            low = middle + 1;
       }
+      return low;
    }
    
-   private Double safeParseDouble(final String input) {
-      double
+   /**
+     * Parse a value. Values which are not finite are read as zero, and values which
+     * cannot be parsed are read as {@link Double#NaN}.
+     */
+   private static double safeParseDouble(final String input) {
+      if(input == null)
+         return Double.NaN;
+      final double
+         result;
+      try {
          result = Double.parseDouble(input);
+      }
+      catch(final NumberFormatException e) {
+         return Double.NaN;
+      }
       if(!Double.isFinite(result))
          return 0.0;
       else return result;
    }
-   
-   private String getCSVFilename() {
-      return super.getDataSourceName();
-   }
 }
@@ -0,0 +1,129 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+/**
+  * A simple immutable description of how much data a {@link LiveDataBuffer} should
+  * retain for one chart.<br><br>
+  * 
+  * A retention policy is either unbounded (all data is retained) or bounded. A bounded
+  * policy specifies the maximum number of data points to retain, and optionally the
+  * maximum age of retained data points relative to the latest time stamp on the chart.
+  * When either limit is exceeded, the oldest data points are discarded.
+  * 
+  * @author phillips
+  */
+public final class ChartRetentionPolicy {
+   
+   private static final ChartRetentionPolicy
+      UNBOUNDED = new ChartRetentionPolicy(0, Double.POSITIVE_INFINITY);
+   
+   private final int
+      maximumNumberOfPoints;
+   private final double
+      maximumAge;
+   
+   private ChartRetentionPolicy(
+      final int maximumNumberOfPoints,
+      final double maximumAge
+      ) {
+      this.maximumNumberOfPoints = maximumNumberOfPoints;
+      this.maximumAge = maximumAge;
+   }
+   
+   /**
+     * @return
+     *    A retention policy under which all data is retained.
+     */
+   static public ChartRetentionPolicy unbounded() {
+      return UNBOUNDED;
+   }
+   
+   /**
+     * Create a {@link ChartRetentionPolicy} object with custom parameters.
+     * 
+     * @param maximumNumberOfPoints <br>
+     *        The maximum number of data points to retain. If this argument is zero, the
+     *        resulting policy is unbounded and the second argument is ignored. Otherwise
+     *        this argument must be strictly positive.
+     * @param maximumAge <br>
+     *        The maximum age of retained data points, relative to the latest time stamp
+     *        on the chart. If this argument is zero or {@link Double#POSITIVE_INFINITY},
+     *        data points are not discarded on the basis of their age. Otherwise this
+     *        argument must be strictly positive.
+     * @return
+     *    A valid {@link ChartRetentionPolicy} object.
+     * @throws IllegalArgumentException if either argument is negative, or if
+     *         <code>maximumAge</code> is not a number.
+     */
+   static public ChartRetentionPolicy create(
+      final int maximumNumberOfPoints,
+      final double maximumAge
+      ) {
+      if(maximumNumberOfPoints < 0)
+         throw new IllegalArgumentException(
+            "ChartRetentionPolicy: maximum number of points is negative (value: "
+          + maximumNumberOfPoints + ")");
+      if(Double.isNaN(maximumAge) || maximumAge < 0.)
+         throw new IllegalArgumentException(
+            "ChartRetentionPolicy: maximum age is negative or not a number (value: "
+          + maximumAge + ")");
+      if(maximumNumberOfPoints == 0)
+         return UNBOUNDED;
+      return new ChartRetentionPolicy(
+         maximumNumberOfPoints, maximumAge == 0. ? Double.POSITIVE_INFINITY : maximumAge);
+   }
+   
+   /**
+     * @return
+     *    <code>True</code> if and only if this policy limits the amount of data retained.
+     */
+   public boolean isBounded() {
+      return this.maximumNumberOfPoints > 0;
+   }
+   
+   /**
+     * @return
+     *    Get the maximum number of data points to retain. This method returns zero if
+     *    this policy is unbounded.
+     */
+   public int getMaximumNumberOfPoints() {
+      return this.maximumNumberOfPoints;
+   }
+   
+   /**
+     * @return
+     *    Get the maximum age of retained data points, relative to the latest time stamp
+     *    on the chart. This method returns {@link Double#POSITIVE_INFINITY} if data
+     *    points are not discarded on the basis of their age.
+     */
+   public double getMaximumAge() {
+      return this.maximumAge;
+   }
+   
+   /**
+     * Returns a brief description of this object. The exact details of the
+     * string are subject to change, and should not be regarded as fixed.
+     */
+   @Override
+   public String toString() {
+      return getClass().getSimpleName() + ", maximum number of points: "
+            + this.maximumNumberOfPoints + ", maximum age: " + this.maximumAge + ".";
+   }
+}
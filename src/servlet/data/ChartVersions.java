@@ -0,0 +1,61 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * The versions of the charts of a {@link LiveDataBuffer}. See
+  * {@link servlet.core.DataSourceConnector#getVersion(String)}.<br><br>
+  * 
+  * This class is thread safe.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class ChartVersions {
+   
+   private final ConcurrentHashMap<String, AtomicLong>
+      versions;
+   
+   ChartVersions() {
+      this.versions = new ConcurrentHashMap<String, AtomicLong>();
+   }
+   
+   /**
+     * Increment the version of a chart. This method should be called after a change to
+     * the data of the chart is visible to readers.
+     */
+   void increment(final String chartName) {
+      this.versions.computeIfAbsent(chartName, name -> new AtomicLong()).incrementAndGet();
+   }
+   
+   /**
+     * @return
+     *    The version of a chart, being <code>0</code> for a chart which has never been
+     *    changed.
+     */
+   long get(final String chartName) {
+      final AtomicLong
+         version = this.versions.get(chartName);
+      return version == null ? 0L : version.get();
+   }
+}
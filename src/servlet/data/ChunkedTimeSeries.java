@@ -0,0 +1,488 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+  * A time-ordered series of <code>(time, value)</code> records stored in fixed-size
+  * chunks of primitive <code>double[]</code> arrays.<br><br>
+  * 
+  * Records arriving in time-ascending order are appended to the last (head) chunk in
+  * constant time. Records arriving out of order are inserted into the chunk whose time
+  * range covers them; a full chunk is split in two to make room. As with a
+  * {@link java.util.TreeSet} of {@link TimestampedDatum} objects, a record whose time
+  * stamp is already present in the series is discarded.<br><br>
+  * 
+  * Only the head chunk is stored in <code>double[]</code> arrays. When the head chunk
+  * is full, it is sealed: its records are compressed into an immutable
+  * {@link GorillaBlock}, which typically requires a small fraction of the memory of the
+  * uncompressed records for regular time stamps and slowly varying values. Sealed
+  * chunks are decoded on the fly, one record at a time, when they are read. An
+  * out-of-order record destined for a sealed chunk causes that chunk to be decoded,
+  * modified and sealed again.<br><br>
+  * 
+  * Each record is also added to a {@link RollupPyramid}, so that queries for a wide
+  * time range at a coarse resolution cost time proportional to the number of buckets
+  * in the range rather than the number of records.<br><br>
+  * 
+  * This class is thread safe. See also {@link PrimitiveTimeSeries}.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class ChunkedTimeSeries extends PrimitiveTimeSeries {
+   
+   /**
+     * The default number of records per chunk.
+     */
+   static final int
+      DEFAULT_CHUNK_CAPACITY = 4096;
+   
+   private final int
+      chunkCapacity;
+   private final RollupPyramid
+      rollups;
+   private Chunk[]
+      chunks;
+   private int
+      numberOfChunks,
+      size;
+   
+   /**
+     * A single chunk of contiguous, time-ascending records.
+     */
+   private static abstract class Chunk {
+      abstract double firstTime();
+      
+      abstract double lastTime();
+      
+      /**
+        * Copy all records in this chunk after the specified time into a {@link List}.
+        */
+      abstract void collect(
+         double fromTimeOfInterest,
+         boolean inclusive,
+         List<TimestampedDatum> result
+         );
+      
+      /**
+        * Copy records in this chunk after the specified time into primitive arrays,
+        * beginning at the specified offset, until the arrays are full.
+        * 
+        * @return
+        *    The offset following the last record copied.
+        */
+      abstract int copy(
+         double fromTimeOfInterest,
+         boolean inclusive,
+         double[] times,
+         double[] values,
+         int offset
+         );
+   }
+   
+   /**
+     * A chunk of records stored in primitive arrays, which accepts new records.
+     */
+   private static final class MutableChunk extends Chunk {
+      final double[]
+         times,
+         values;
+      int
+         size;
+      
+      MutableChunk(final int capacity) {
+         this.times = new double[capacity];
+         this.values = new double[capacity];
+      }
+      
+      @Override
+      double firstTime() {
+         return this.times[0];
+      }
+      
+      @Override
+      double lastTime() {
+         return this.times[this.size - 1];
+      }
+      
+      boolean isFull() {
+         return this.size == this.times.length;
+      }
+      
+      @Override
+      void collect(
+         final double fromTimeOfInterest,
+         final boolean inclusive,
+         final List<TimestampedDatum> result
+         ) {
+         final int
+            size = this.size;
+         for(int j = findFirstIndexAfter(this.times, size, fromTimeOfInterest, inclusive);
+             j< size; ++j)
+            result.add(new TimestampedDatum(this.times[j], this.values[j]));
+      }
+      
+      @Override
+      int copy(
+         final double fromTimeOfInterest,
+         final boolean inclusive,
+         final double[] times,
+         final double[] values,
+         int offset
+         ) {
+         final int
+            size = this.size;
+         for(int j = findFirstIndexAfter(this.times, size, fromTimeOfInterest, inclusive);
+             j< size && offset< times.length; ++j, ++offset) {
+            times[offset] = this.times[j];
+            values[offset] = this.values[j];
+         }
+         return offset;
+      }
+   }
+   
+   /**
+     * An immutable, compressed chunk of records.
+     */
+   private static final class SealedChunk extends Chunk {
+      final GorillaBlock
+         block;
+      final double
+         firstTime,
+         lastTime;
+      
+      SealedChunk(final MutableChunk chunk) {
+         this.block = GorillaBlock.encode(chunk.times, chunk.values, chunk.size);
+         this.firstTime = chunk.firstTime();
+         this.lastTime = chunk.lastTime();
+      }
+      
+      @Override
+      double firstTime() {
+         return this.firstTime;
+      }
+      
+      @Override
+      double lastTime() {
+         return this.lastTime;
+      }
+      
+      MutableChunk unseal(final int capacity) {
+         final MutableChunk
+            result = new MutableChunk(capacity);
+         final GorillaBlock.Decoder
+            decoder = this.block.decoder();
+         while(decoder.hasNext()) {
+            decoder.next();
+            result.times[result.size] = decoder.time();
+            result.values[result.size] = decoder.value();
+            result.size++;
+         }
+         return result;
+      }
+      
+      @Override
+      void collect(
+         final double fromTimeOfInterest,
+         final boolean inclusive,
+         final List<TimestampedDatum> result
+         ) {
+         final GorillaBlock.Decoder
+            decoder = this.block.decoder();
+         while(decoder.hasNext()) {
+            decoder.next();
+            if(isAfter(decoder.time(), fromTimeOfInterest, inclusive))
+               result.add(new TimestampedDatum(decoder.time(), decoder.value()));
+         }
+      }
+      
+      @Override
+      int copy(
+         final double fromTimeOfInterest,
+         final boolean inclusive,
+         final double[] times,
+         final double[] values,
+         int offset
+         ) {
+         final GorillaBlock.Decoder
+            decoder = this.block.decoder();
+         while(offset < times.length && decoder.hasNext()) {
+            decoder.next();
+            if(isAfter(decoder.time(), fromTimeOfInterest, inclusive)) {
+               times[offset] = decoder.time();
+               values[offset] = decoder.value();
+               ++offset;
+            }
+         }
+         return offset;
+      }
+   }
+   
+   /**
+     * Create an empty {@link ChunkedTimeSeries} object.
+     * 
+     * @param chunkCapacity <br>
+     *        The number of records per chunk. This argument must be at least
+     *        <code>2</code>.
+     * @throws IllegalArgumentException if <code>chunkCapacity</code> is less than
+     *         <code>2</code>.
+     */
+   ChunkedTimeSeries(final int chunkCapacity) {
+      if(chunkCapacity < 2)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": chunk capacity is less than 2 (value: "
+          + chunkCapacity + ")");
+      this.chunkCapacity = chunkCapacity;
+      this.rollups = new RollupPyramid();
+      this.chunks = new Chunk[8];
+      this.numberOfChunks = 0;
+      this.size = 0;
+   }
+   
+   @Override
+   protected int sizeUnderLock() {
+      return this.size;
+   }
+   
+   /**
+     * Append one record to this series. If the time stamp of this record is later than
+     * the last time stamp in the series, this operation takes constant time.
+     */
+   @Override
+   protected void appendUnderLock(final double time, final double value) {
+      if(this.numberOfChunks == 0) {
+         addChunk(this.numberOfChunks, new MutableChunk(this.chunkCapacity));
+      }
+      else {
+         final MutableChunk
+            head = (MutableChunk) this.chunks[this.numberOfChunks - 1];
+         final int
+            order = Double.compare(time, head.lastTime());
+         if(order == 0)
+            return;
+         if(order < 0) {
+            insert(time, value);
+            return;
+         }
+         if(head.isFull()) {
+            this.chunks[this.numberOfChunks - 1] = new SealedChunk(head);
+            addChunk(this.numberOfChunks, new MutableChunk(this.chunkCapacity));
+         }
+      }
+      final MutableChunk
+         head = (MutableChunk) this.chunks[this.numberOfChunks - 1];
+      head.times[head.size] = time;
+      head.values[head.size] = value;
+      head.size++;
+      this.size++;
+      this.rollups.add(time, value);
+   }
+   
+   /**
+     * Insert a record whose time stamp precedes the last record in this series.
+     */
+   private void insert(final double time, final double value) {
+      int
+         chunkIndex = findLastChunkStartingAtOrBefore(time);
+      if(chunkIndex < 0)
+         chunkIndex = 0;
+      MutableChunk
+         chunk = this.chunks[chunkIndex] instanceof SealedChunk ?
+            ((SealedChunk) this.chunks[chunkIndex]).unseal(this.chunkCapacity) :
+            (MutableChunk) this.chunks[chunkIndex];
+      int
+         position = Arrays.binarySearch(chunk.times, 0, chunk.size, time);
+      if(position >= 0)
+         return;                                               // Duplicate time stamp
+      position = -(position + 1);
+      this.chunks[chunkIndex] = chunk;
+      if(chunk.isFull()) {
+         final MutableChunk
+            upper = new MutableChunk(this.chunkCapacity);
+         final int
+            half = chunk.size / 2;
+         upper.size = chunk.size - half;
+         System.arraycopy(chunk.times, half, upper.times, 0, upper.size);
+         System.arraycopy(chunk.values, half, upper.values, 0, upper.size);
+         chunk.size = half;
+         addChunk(chunkIndex + 1, upper);
+         if(position > half) {
+            chunk = upper;
+            position -= half;
+         }
+      }
+      System.arraycopy(chunk.times, position, chunk.times, position + 1, chunk.size - position);
+      System.arraycopy(chunk.values, position, chunk.values, position + 1, chunk.size - position);
+      chunk.times[position] = time;
+      chunk.values[position] = value;
+      chunk.size++;
+      this.size++;
+      this.rollups.add(time, value);
+      seal(chunkIndex);
+      seal(chunkIndex + 1);
+   }
+   
+   /**
+     * Seal the chunk at the specified index, unless it is the head chunk or is already
+     * sealed.
+     */
+   private void seal(final int index) {
+      if(index < this.numberOfChunks - 1 && this.chunks[index] instanceof MutableChunk)
+         this.chunks[index] = new SealedChunk((MutableChunk) this.chunks[index]);
+   }
+   
+   private void addChunk(final int index, final Chunk chunk) {
+      if(this.numberOfChunks == this.chunks.length)
+         this.chunks = Arrays.copyOf(this.chunks, this.chunks.length * 2);
+      System.arraycopy(
+         this.chunks, index, this.chunks, index + 1, this.numberOfChunks - index);
+      this.chunks[index] = chunk;
+      this.numberOfChunks++;
+   }
+   
+   /**
+     * Find the index of the last chunk whose first time stamp is less than or equal to
+     * the specified time, or <code>-1</code> if no such chunk exists.
+     */
+   private int findLastChunkStartingAtOrBefore(final double time) {
+      int
+         low = 0,
+         high = this.numberOfChunks - 1;
+      while(low <= high) {
+         final int
+            middle = (low + high) >>> 1;
+         if(Double.compare(this.chunks[middle].firstTime(), time) <= 0)
+            low = middle + 1;
+         else
+            high = middle - 1;
+      }
+      return high;
+   }
+   
+   /**
+     * Find the index of the first chunk containing a record after the specified time.
+     */
+   private static int findFirstChunkEndingAfter(
+      final Chunk[] chunks,
+      final int numberOfChunks,
+      final double time,
+      final boolean inclusive
+      ) {
+      int
+         low = 0,
+         high = numberOfChunks - 1;
+      while(low <= high) {
+         final int
+            middle = (low + high) >>> 1;
+         if(isAfter(chunks[middle].lastTime(), time, inclusive))
+            high = middle - 1;
+         else
+            low = middle + 1;
+      }
+      return low;
+   }
+   
+   @Override
+   protected void collectUnderLock(
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final List<TimestampedDatum> result
+      ) {
+      final Chunk[]
+         chunks = this.chunks;
+      final int
+         numberOfChunks = Math.min(this.numberOfChunks, chunks.length),
+         firstChunk = findFirstChunkEndingAfter(
+            chunks, numberOfChunks, fromTimeOfInterest, inclusive);
+      for(int i = firstChunk; i< numberOfChunks; ++i)
+         chunks[i].collect(fromTimeOfInterest, inclusive, result);
+   }
+   
+   @Override
+   protected int copyUnderLock(
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final double[] times,
+      final double[] values
+      ) {
+      final Chunk[]
+         chunks = this.chunks;
+      final int
+         numberOfChunks = Math.min(this.numberOfChunks, chunks.length);
+      int
+         length = 0;
+      for(int i = findFirstChunkEndingAfter(
+             chunks, numberOfChunks, fromTimeOfInterest, inclusive);
+          i< numberOfChunks && length< times.length; ++i)
+         length = chunks[i].copy(fromTimeOfInterest, inclusive, times, values, length);
+      return length;
+   }
+   
+   /**
+     * Copy records in the specified time range at the specified resolution. If the
+     * {@link RollupPyramid} of this series has a tier no finer than the resolution, the
+     * minimum and maximum records of each bucket in the coarsest such tier are copied.
+     * Otherwise all records in the time range are copied.
+     */
+   @Override
+   protected void collectUnderLock(
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution,
+      final List<TimestampedDatum> result
+      ) {
+      if(resolution > 0. &&
+         this.rollups.collect(fromTimeOfInterest, toTimeOfInterest, resolution, result))
+         return;
+      final Chunk[]
+         chunks = this.chunks;
+      final int
+         initialSize = result.size(),
+         numberOfChunks = Math.min(this.numberOfChunks, chunks.length);
+      for(int i = findFirstChunkEndingAfter(chunks, numberOfChunks, fromTimeOfInterest, true);
+          i< numberOfChunks && chunks[i].firstTime() <= toTimeOfInterest; ++i)
+         chunks[i].collect(fromTimeOfInterest, true, result);
+      int
+         end = result.size();
+      while(end > initialSize && result.get(end - 1).getTime() > toTimeOfInterest)
+         --end;
+      result.subList(end, result.size()).clear();
+   }
+   
+   /**
+     * Copy the mean of the records in each interval of the specified time range. If the
+     * {@link RollupPyramid} of this series has a tier no finer than the resolution, the
+     * mean of each bucket in the coarsest such tier is copied. Otherwise the means are
+     * computed from all records in the time range.
+     */
+   @Override
+   protected void collectMeansUnderLock(
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution,
+      final List<TimestampedDatum> result
+      ) {
+      if(!this.rollups.collectMeans(fromTimeOfInterest, toTimeOfInterest, resolution, result))
+         super.collectMeansUnderLock(fromTimeOfInterest, toTimeOfInterest, resolution, result);
+   }
+}
@@ -0,0 +1,329 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import servlet.core.AbstractDataSourceConnector;
+import servlet.core.DataSourceConnector;
+
+/**
+  * An implementation of the {@link LiveDataBuffer} interface backed by primitive
+  * columnar storage. Each chart is stored as a sequence of fixed-size chunks of
+  * <code>double[]</code> time and value arrays, rather than as a collection of
+  * {@link TimestampedDatum} objects. This reduces the memory cost of each data point to
+  * sixteen bytes and keeps consecutive points adjacent in memory. Full chunks are
+  * further compressed (see {@link GorillaBlock}) and are decoded as they are read, so
+  * that regularly sampled data typically costs a few bytes per data point.<br><br>
+  * 
+  * Time-ascending uploads are appended in constant time per point. Range queries
+  * locate the first chunk of interest, and the first point of interest within that
+  * chunk, by binary search.<br><br>
+  * 
+  * This implementation is thread safe. Charts are registered in a
+  * {@link ConcurrentHashMap}, and each chart is guarded by its own lock. Reads are
+  * optimistic and lock-free unless they race with a write to the same chart, so
+  * uploading data to one chart never blocks readers of any other chart.<br><br>
+  * 
+  * Charts with an unbounded {@link ChartRetentionPolicy} have permanent (application
+  * scope) memory/no flushing. Charts with a bounded retention policy are stored in a
+  * fixed-capacity primitive ring buffer, in which the oldest data points are overwritten
+  * in constant time without allocating memory.
+  * 
+  * @author phillips
+  */
+public final class ColumnarLiveDataBuffer
+   extends AbstractDataSourceConnector implements LiveDataBuffer {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(ColumnarLiveDataBuffer.class);
+   
+   private final ConcurrentHashMap<String, PrimitiveTimeSeries>
+      buffer;
+   private final ChartVersions
+      versions;
+   private final int
+      chunkCapacity;
+   private volatile ChartRetentionPolicy
+      defaultRetentionPolicy;
+   
+   /**
+     * Create a {@link ColumnarLiveDataBuffer} object with a default chunk size.<br><br>
+     * 
+     * See also {@link #ColumnarLiveDataBuffer(String, int)}.
+     * 
+     * @param simpleName <br>
+     *        A nickname for this {@link DataSourceConnector}. This argument must be
+     *        non-<code>null</code> and non-empty.
+     */
+   public ColumnarLiveDataBuffer(final String simpleName) {
+      this(simpleName, ChunkedTimeSeries.DEFAULT_CHUNK_CAPACITY);
+   }
+   
+   /**
+     * Create a {@link ColumnarLiveDataBuffer} object with custom parameters.<br><br>
+     * 
+     * See also {@link LiveDataBuffer} and {@link AbstractDataSourceConnector}.
+     * 
+     * @param simpleName <br>
+     *        A nickname for this {@link DataSourceConnector}. This argument must be
+     *        non-<code>null</code> and non-empty.
+     * @param chunkCapacity <br>
+     *        The number of data points stored in each chunk of memory. This argument
+     *        must be at least <code>2</code>.
+     * @throws IllegalArgumentException if <code>chunkCapacity</code> is less than
+     *         <code>2</code>.
+     */
+   public ColumnarLiveDataBuffer(
+      final String simpleName,
+      final int chunkCapacity
+      ) {
+      super(Preconditions.checkNotNull(simpleName));
+      if(chunkCapacity < 2)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": chunk capacity is less than 2 (value: "
+          + chunkCapacity + ")");
+      logger.info("loading columnar live data buffer..");
+      this.buffer = new ConcurrentHashMap<String, PrimitiveTimeSeries>();
+      this.versions = new ChartVersions();
+      this.chunkCapacity = chunkCapacity;
+      this.defaultRetentionPolicy = ChartRetentionPolicy.unbounded();
+      logger.info("columnar live data buffer loaded successfully.");
+   }
+   
+   @Override
+   public List<ChartInformation> getKnownCharts() throws DataSourceException {
+      final List<ChartInformation>
+         knownCharts = new ArrayList<ChartInformation>();
+      for(final Entry<String, PrimitiveTimeSeries> record : this.buffer.entrySet())
+         knownCharts.add(new ChartInformation(record.getKey(), "Line", record.getValue().size()));
+      return knownCharts;
+   }
+   
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive)
+      throws DataSourceException {
+      if(chartName == null || chartName.isEmpty()) {
+         logger.error("get_data: chart name is null or empty [{}]", chartName);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_data: chart name is null or empty.");
+      }
+      final PrimitiveTimeSeries
+         series = this.buffer.get(chartName);
+      if(series == null) {
+         logger.error("get_data: no chart with name {} exists", chartName);
+         throw new DataSourceException(
+            getClass().getSimpleName() + ": get_data: chart not found.");
+      }
+      final List<TimestampedDatum>
+         result = new ArrayList<TimestampedDatum>();
+      series.collect(fromTimeOfInterest, inclusive, result);
+      return result;
+   }
+   
+   /**
+     * Pass the data of a chart to a {@link DataPointHandler} directly from the primitive
+     * arrays and compressed chunks of the chart, without creating a {@link List}. Data
+     * points are copied into primitive arrays in blocks of a few thousand, and are passed
+     * to the handler without holding the lock of the chart.
+     */
+   @Override
+   public void streamData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws DataSourceException, IOException {
+      if(chartName == null || chartName.isEmpty()) {
+         logger.error("get_data: chart name is null or empty [{}]", chartName);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_data: chart name is null or empty.");
+      }
+      final PrimitiveTimeSeries
+         series = this.buffer.get(chartName);
+      if(series == null) {
+         logger.error("get_data: no chart with name {} exists", chartName);
+         throw new DataSourceException(
+            getClass().getSimpleName() + ": get_data: chart not found.");
+      }
+      series.stream(fromTimeOfInterest, inclusive, handler);
+   }
+   
+   /**
+     * Get data for a chart in a time range. For charts with an unbounded retention
+     * policy, if the resolution is at least ten times the typical spacing of data
+     * points on the chart, the result is computed from precomputed rollups: the minimum
+     * and maximum data points in each rollup bucket are returned.
+     */
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      if(chartName == null || chartName.isEmpty()) {
+         logger.error("get_data: chart name is null or empty [{}]", chartName);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_data: chart name is null or empty.");
+      }
+      final PrimitiveTimeSeries
+         series = this.buffer.get(chartName);
+      if(series == null) {
+         logger.error("get_data: no chart with name {} exists", chartName);
+         throw new DataSourceException(
+            getClass().getSimpleName() + ": get_data: chart not found.");
+      }
+      final List<TimestampedDatum>
+         result = new ArrayList<TimestampedDatum>();
+      series.collect(fromTimeOfInterest, toTimeOfInterest, resolution, result);
+      return result;
+   }
+   
+   /**
+     * Get the mean of the data of a chart in each interval of a time range. For charts
+     * with an unbounded retention policy, if the resolution is at least ten times the
+     * typical spacing of data points on the chart, the result is computed from the sums
+     * and counts of precomputed rollup buckets.
+     */
+   @Override
+   public List<TimestampedDatum> getMeans(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      if(chartName == null || chartName.isEmpty()) {
+         logger.error("get_means: chart name is null or empty [{}]", chartName);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_means: chart name is null or empty.");
+      }
+      if(!(resolution > 0.))
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_means: resolution is not strictly positive "
+          + "(value: " + resolution + ")");
+      final PrimitiveTimeSeries
+         series = this.buffer.get(chartName);
+      if(series == null) {
+         logger.error("get_means: no chart with name {} exists", chartName);
+         throw new DataSourceException(
+            getClass().getSimpleName() + ": get_means: chart not found.");
+      }
+      final List<TimestampedDatum>
+         result = new ArrayList<TimestampedDatum>();
+      series.collectMeans(fromTimeOfInterest, toTimeOfInterest, resolution, result);
+      return result;
+   }
+   
+   @Override
+   public boolean createChart(final String name) {
+      return createChart(name, this.defaultRetentionPolicy);
+   }
+   
+   @Override
+   public boolean createChart(
+      final String name,
+      final ChartRetentionPolicy retentionPolicy
+      ) {
+      if(name == null || name.isEmpty()) {
+         logger.error("create_chart: chart name is null or empty [{}]", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": create_chart: chart name is null or empty.");
+      }
+      if(retentionPolicy == null) {
+         logger.error("create_chart: retention policy is null for chart {}", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": create_chart: retention policy is null.");
+      }
+      if(this.buffer.containsKey(name))
+         return false;
+      final PrimitiveTimeSeries
+         series = retentionPolicy.isBounded() ?
+            new RingTimeSeries(
+               retentionPolicy.getMaximumNumberOfPoints(), retentionPolicy.getMaximumAge()) :
+            new ChunkedTimeSeries(this.chunkCapacity);
+      return this.buffer.putIfAbsent(name, series) == null;
+   }
+   
+   @Override
+   public void setDefaultRetentionPolicy(final ChartRetentionPolicy retentionPolicy) {
+      if(retentionPolicy == null)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": default retention policy is null.");
+      this.defaultRetentionPolicy = retentionPolicy;
+      logger.info("default retention policy: {}", retentionPolicy);
+   }
+   
+   /**
+     * The version of a chart is incremented by each call to
+     * {@link #uploadData(String, List)}.
+     */
+   @Override
+   public long getVersion(final String chartName) {
+      return this.buffer.containsKey(chartName) ? this.versions.get(chartName) : -1L;
+   }
+   
+   @Override
+   public boolean hasChart(final String name) {
+      if(name == null || name.isEmpty()) {
+         logger.error("has_chart: chart name is null or empty [{}]", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": has_chart: chart name is null or empty.");
+      }
+      return this.buffer.containsKey(name);
+   }
+   
+   @Override
+   public void uploadData(
+      final String name,
+      final List<TimestampedDatum> data
+      ) throws DataUploadException {
+      if(name == null || name.isEmpty()) {
+         logger.error("upload_data: chart name is null or empty [{}]", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": upload_data: chart name is null or empty.");
+      }
+      if(data == null) {
+         logger.error("upload_data: data is null for chart {}", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": upload_data: data is null.");
+      }
+      final PrimitiveTimeSeries
+         series = this.buffer.get(name);
+      if(series == null) {
+         logger.error("upload_data: no chart with name {} exists", name);
+         throw new DataUploadException(
+            getClass().getSimpleName() + ": upload_data: chart not found.");
+      }
+      series.appendAll(data);
+      this.versions.increment(name);
+   }
+}
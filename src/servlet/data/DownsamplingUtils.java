@@ -0,0 +1,235 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+  * Static utilities for reducing the number of points in a time series before it is
+  * drawn, while preserving the visual shape of the series.<br><br>
+  * 
+  * See also:
+  * <ul>
+  *   <li> Jugel et al., "M4: A Visualization-Oriented Time Series Data Aggregation"
+  *        (2014), and
+  *   <li> Steinarsson, "Downsampling Time Series for Visual Representation" (2013).
+  * </ul>
+  * 
+  * @author phillips
+  */
+public final class DownsamplingUtils {
+   
+   /**
+     * Apply M4 aggregation to a time-ascending series. The time span of the series is
+     * divided into <code>columns</code> equal intervals (typically, one per pixel
+     * column of the chart), and for each interval the first, last, minimum and maximum
+     * points are retained. A line chart drawn from the result is pixel-identical to a
+     * line chart drawn from the original series at that width.
+     * 
+     * @param data <br>
+     *        A time-ascending series. This argument must be non-<code>null</code>.
+     * @param columns <br>
+     *        The number of intervals. This argument must be strictly positive.
+     * @return
+     *    A new time-ascending {@link List} of at most <code>4 * columns</code> points,
+     *    or a copy of <code>data</code> if <code>data</code> has no more points than
+     *    this.
+     * @throws IllegalArgumentException if <code>columns</code> is not strictly positive.
+     */
+   static public List<TimestampedDatum> m4(
+      final List<TimestampedDatum> data,
+      final int columns
+      ) {
+      if(columns <= 0)
+         throw new IllegalArgumentException(
+            "DownsamplingUtils.m4: number of columns is not strictly positive (value: "
+          + columns + ")");
+      if(data.size() <= 4L * columns)
+         return new ArrayList<TimestampedDatum>(data);
+      final List<TimestampedDatum>
+         result = new ArrayList<TimestampedDatum>(4 * columns);
+      final double
+         start = data.get(0).getTime(),
+         span = data.get(data.size() - 1).getTime() - start;
+      int
+         first = 0;
+      while(first < data.size()) {
+         final int
+            column = columnOf(data.get(first).getTime(), start, span, columns);
+         int
+            last = first,
+            minimum = first,
+            maximum = first;
+         while(last + 1 < data.size() &&
+               columnOf(data.get(last + 1).getTime(), start, span, columns) == column) {
+            ++last;
+            final double
+               value = data.get(last).getValue();
+            if(value < data.get(minimum).getValue())
+               minimum = last;
+            if(value > data.get(maximum).getValue())
+               maximum = last;
+         }
+         final int
+            lower = Math.min(minimum, maximum),
+            upper = Math.max(minimum, maximum);
+         result.add(data.get(first));
+         if(lower != first)
+            result.add(data.get(lower));
+         if(upper != lower && upper != last)
+            result.add(data.get(upper));
+         if(last != first)
+            result.add(data.get(last));
+         first = last + 1;
+      }
+      return result;
+   }
+   
+   private static int columnOf(
+      final double time,
+      final double start,
+      final double span,
+      final int columns
+      ) {
+      if(!(span > 0.))
+         return 0;
+      return Math.min(columns - 1, (int) ((time - start) / span * columns));
+   }
+   
+   /**
+     * Apply Largest-Triangle-Three-Buckets downsampling to a time-ascending series. The
+     * first and last points are retained, and the remaining points are divided into
+     * <code>maximumPoints - 2</code> buckets. From each bucket, the point forming the
+     * largest triangle with the point selected from the previous bucket and the mean of
+     * the next bucket is retained.
+     * 
+     * @param data <br>
+     *        A time-ascending series. This argument must be non-<code>null</code>.
+     * @param maximumPoints <br>
+     *        The number of points to retain. This argument must be at least
+     *        <code>3</code>.
+     * @return
+     *    A new time-ascending {@link List} of at most <code>maximumPoints</code>
+     *    points, or a copy of <code>data</code> if <code>data</code> has no more points
+     *    than this.
+     * @throws IllegalArgumentException if <code>maximumPoints</code> is less than
+     *         <code>3</code>.
+     */
+   static public List<TimestampedDatum> lttb(
+      final List<TimestampedDatum> data,
+      final int maximumPoints
+      ) {
+      if(maximumPoints < 3)
+         throw new IllegalArgumentException(
+            "DownsamplingUtils.lttb: maximum number of points is less than 3 (value: "
+          + maximumPoints + ")");
+      final int
+         size = data.size();
+      if(size <= maximumPoints)
+         return new ArrayList<TimestampedDatum>(data);
+      final List<TimestampedDatum>
+         result = new ArrayList<TimestampedDatum>(maximumPoints);
+      final double
+         bucketSize = (double) (size - 2) / (maximumPoints - 2);
+      int
+         selected = 0;
+      result.add(data.get(0));
+      for(int bucket = 0; bucket< maximumPoints - 2; ++bucket) {
+         final int
+            bucketStart = (int) (bucket * bucketSize) + 1,
+            bucketEnd = (int) ((bucket + 1) * bucketSize) + 1,
+            nextStart = bucketEnd,
+            nextEnd = Math.min(size, (int) ((bucket + 2) * bucketSize) + 1);
+         double
+            meanTime = 0.,
+            meanValue = 0.;
+         for(int i = nextStart; i< nextEnd; ++i) {
+            meanTime += data.get(i).getTime();
+            meanValue += data.get(i).getValue();
+         }
+         meanTime /= Math.max(1, nextEnd - nextStart);
+         meanValue /= Math.max(1, nextEnd - nextStart);
+         final double
+            selectedTime = data.get(selected).getTime(),
+            selectedValue = data.get(selected).getValue();
+         double
+            largestArea = -1.;
+         int
+            candidate = bucketStart;
+         for(int i = bucketStart; i< bucketEnd; ++i) {
+            final double
+               area = Math.abs(
+                  (selectedTime - meanTime) * (data.get(i).getValue() - selectedValue)
+                - (selectedTime - data.get(i).getTime()) * (meanValue - selectedValue));
+            if(area > largestArea) {
+               largestArea = area;
+               candidate = i;
+            }
+         }
+         result.add(data.get(candidate));
+         selected = candidate;
+      }
+      result.add(data.get(size - 1));
+      return result;
+   }
+   
+   /**
+     * Compute the mean of a time-ascending series in intervals of equal width. The
+     * intervals are aligned to multiples of <code>width</code>, and each non-empty
+     * interval yields one point, whose time stamp is the middle of the interval.
+     * 
+     * @param data <br>
+     *        A time-ascending series. This argument must be non-<code>null</code>.
+     * @param width <br>
+     *        The width of each interval. This argument must be strictly positive.
+     * @return
+     *    A new time-ascending {@link List} of the mean of each non-empty interval.
+     * @throws IllegalArgumentException if <code>width</code> is not strictly positive.
+     */
+   static public List<TimestampedDatum> means(
+      final List<TimestampedDatum> data,
+      final double width
+      ) {
+      if(!(width > 0.))
+         throw new IllegalArgumentException(
+            "DownsamplingUtils.means: interval width is not strictly positive (value: "
+          + width + ")");
+      final List<TimestampedDatum>
+         result = new ArrayList<TimestampedDatum>();
+      int
+         first = 0;
+      while(first < data.size()) {
+         final double
+            index = Math.floor(data.get(first).getTime() / width);
+         double
+            sum = 0.;
+         int
+            last = first;
+         for(; last< data.size() && Math.floor(data.get(last).getTime() / width) == index;
+             ++last)
+            sum += data.get(last).getValue();
+         result.add(new TimestampedDatum((index + .5) * width, sum / (last - first)));
+         first = last;
+      }
+      return result;
+   }
+   
+   private DownsamplingUtils() { }
+}
@@ -0,0 +1,293 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.util.Arrays;
+
+/**
+  * An immutable, compressed block of time-ascending <code>(time, value)</code> records,
+  * encoded as described in "Gorilla: A Fast, Scalable, In-Memory Time Series Database"
+  * (Pelkonen et al., 2015).<br><br>
+  * 
+  * Time stamps are encoded as the delta-of-delta of their IEEE 754 bit patterns. For
+  * positive time stamps within one binary exponent range, the bit pattern is an integer
+  * which grows linearly with the time stamp, so that regularly spaced time stamps are
+  * encoded in one bit each. Values are encoded as the XOR of their IEEE 754 bit
+  * patterns with the preceding value, storing only the meaningful bits of the XOR.
+  * Both encodings are lossless.<br><br>
+  * 
+  * Records are decoded sequentially by a {@link Decoder}.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class GorillaBlock {
+   
+   private final long[]
+      bits;
+   private final int
+      size;
+   
+   private GorillaBlock(
+      final long[] bits,
+      final int size
+      ) {
+      this.bits = bits;
+      this.size = size;
+   }
+   
+   /**
+     * @return
+     *    The number of records in this block.
+     */
+   int size() {
+      return this.size;
+   }
+   
+   /**
+     * @return
+     *    The approximate number of bytes of memory used by this block.
+     */
+   long memoryUsage() {
+      return 8L * this.bits.length;
+   }
+   
+   /**
+     * Encode the first <code>size</code> records of the specified arrays.
+     * 
+     * @param times <br>
+     *        Time-ascending time stamps.
+     * @param values <br>
+     *        Values corresponding to <code>times</code>.
+     * @param size <br>
+     *        The number of records to encode. This argument must be strictly positive.
+     */
+   static GorillaBlock encode(
+      final double[] times,
+      final double[] values,
+      final int size
+      ) {
+      final BitWriter
+         writer = new BitWriter(size);
+      long
+         previousTime = Double.doubleToRawLongBits(times[0]),
+         previousDelta = 0L,
+         previousValue = Double.doubleToRawLongBits(values[0]);
+      int
+         previousLeading = Integer.MAX_VALUE,
+         previousTrailing = 0;
+      writer.write(previousTime, 64);
+      writer.write(previousValue, 64);
+      for(int i = 1; i< size; ++i) {
+         final long
+            time = Double.doubleToRawLongBits(times[i]),
+            delta = time - previousTime,
+            deltaOfDelta = delta - previousDelta;
+         if(deltaOfDelta == 0L)
+            writer.write(0L, 1);
+         else if(deltaOfDelta >= -64L && deltaOfDelta <= 63L) {
+            writer.write(0b10L, 2);
+            writer.write(deltaOfDelta, 7);
+         }
+         else if(deltaOfDelta >= -256L && deltaOfDelta <= 255L) {
+            writer.write(0b110L, 3);
+            writer.write(deltaOfDelta, 9);
+         }
+         else if(deltaOfDelta >= -2048L && deltaOfDelta <= 2047L) {
+            writer.write(0b1110L, 4);
+            writer.write(deltaOfDelta, 12);
+         }
+         else {
+            writer.write(0b1111L, 4);
+            writer.write(deltaOfDelta, 64);
+         }
+         previousTime = time;
+         previousDelta = delta;
+         final long
+            value = Double.doubleToRawLongBits(values[i]),
+            xor = value ^ previousValue;
+         if(xor == 0L)
+            writer.write(0L, 1);
+         else {
+            final int
+               leading = Math.min(Long.numberOfLeadingZeros(xor), 31),
+               trailing = Long.numberOfTrailingZeros(xor);
+            if(leading >= previousLeading && trailing >= previousTrailing) {
+               writer.write(0b10L, 2);
+               writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            }
+            else {
+               final int
+                  meaningfulBits = 64 - leading - trailing;
+               writer.write(0b11L, 2);
+               writer.write(leading, 5);
+               writer.write(meaningfulBits - 1, 6);
+               writer.write(xor >>> trailing, meaningfulBits);
+               previousLeading = leading;
+               previousTrailing = trailing;
+            }
+         }
+         previousValue = value;
+      }
+      return new GorillaBlock(writer.toArray(), size);
+   }
+   
+   /**
+     * @return
+     *    A new {@link Decoder} positioned before the first record of this block.
+     */
+   Decoder decoder() {
+      return new Decoder();
+   }
+   
+   /**
+     * A streaming decoder for the records of a {@link GorillaBlock}. Call
+     * {@link #next()} to advance to each record, and then {@link #time()} and
+     * {@link #value()} to read it.
+     */
+   final class Decoder {
+      private long
+         position,
+         time,
+         delta,
+         value;
+      private int
+         index,
+         leading,
+         trailing;
+      
+      private Decoder() { }
+      
+      private long read(final int length) {
+         final int
+            word = (int) (this.position >>> 6),
+            offset = (int) (this.position & 63);
+         this.position += length;
+         long
+            result = bits[word] << offset;
+         if(offset + length > 64)
+            result |= bits[word + 1] >>> (64 - offset);
+         return result >>> (64 - length);
+      }
+      
+      private long readSigned(final int length) {
+         return (read(length) << (64 - length)) >> (64 - length);
+      }
+      
+      /**
+        * @return
+        *    <code>True</code> if this decoder has not yet decoded all records.
+        */
+      boolean hasNext() {
+         return this.index < size;
+      }
+      
+      /**
+        * Decode the next record.
+        */
+      void next() {
+         if(this.index == 0) {
+            this.time = read(64);
+            this.value = read(64);
+            this.index++;
+            return;
+         }
+         final long
+            deltaOfDelta;
+         if(read(1) == 0L)
+            deltaOfDelta = 0L;
+         else if(read(1) == 0L)
+            deltaOfDelta = readSigned(7);
+         else if(read(1) == 0L)
+            deltaOfDelta = readSigned(9);
+         else if(read(1) == 0L)
+            deltaOfDelta = readSigned(12);
+         else
+            deltaOfDelta = read(64);
+         this.delta += deltaOfDelta;
+         this.time += this.delta;
+         if(read(1) != 0L) {
+            if(read(1) != 0L) {
+               this.leading = (int) read(5);
+               this.trailing = 64 - this.leading - ((int) read(6) + 1);
+            }
+            this.value ^= read(64 - this.leading - this.trailing) << this.trailing;
+         }
+         this.index++;
+      }
+      
+      /**
+        * @return
+        *    The time stamp of the current record.
+        */
+      double time() {
+         return Double.longBitsToDouble(this.time);
+      }
+      
+      /**
+        * @return
+        *    The value of the current record.
+        */
+      double value() {
+         return Double.longBitsToDouble(this.value);
+      }
+   }
+   
+   /**
+     * A growable, big-endian bit buffer.
+     */
+   private static final class BitWriter {
+      private long[]
+         words;
+      private long
+         position;
+      
+      BitWriter(final int expectedRecords) {
+         this.words = new long[Math.max(4, expectedRecords / 16)];
+      }
+      
+      /**
+        * Write the lowest <code>length</code> bits of <code>value</code>, where
+        * <code>length</code> is between <code>1</code> and <code>64</code>.
+        */
+      void write(final long value, final int length) {
+         final int
+            word = (int) (this.position >>> 6),
+            offset = (int) (this.position & 63);
+         if(word + 1 >= this.words.length)
+            this.words = Arrays.copyOf(this.words, this.words.length * 2);
+         final long
+            bits = length == 64 ? value : value & ((1L << length) - 1L);
+         final int
+            free = 64 - offset;
+         if(length <= free)
+            this.words[word] |= bits << (free - length);
+         else {
+            this.words[word] |= bits >>> (length - free);
+            this.words[word + 1] |= bits << (64 - (length - free));
+         }
+         this.position += length;
+      }
+      
+      long[] toArray() {
+         return Arrays.copyOf(this.words, (int) ((this.position + 63) >>> 6));
+      }
+   }
+}
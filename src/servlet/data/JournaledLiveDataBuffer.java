@@ -0,0 +1,563 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import servlet.core.AbstractDataSourceConnector;
+import servlet.core.DataSourceConnector;
+
+/**
+  * A {@link LiveDataBuffer} decorator which records every chart creation and every
+  * data upload in a {@link WriteAheadLog} before acknowledging it.<br><br>
+  * 
+  * {@link #uploadData(String, List)} appends the uploaded data to the log, waits until
+  * the log record has been forced to the storage device, and then applies the data to
+  * the underlying buffer. Log records are forced in batches by the group-commit thread of
+  * the {@link WriteAheadLog}, so that concurrent uploads share one <code>fsync</code>.
+  * <br><br>
+  * 
+  * When a {@link JournaledLiveDataBuffer} is created, the underlying buffer is rebuilt
+  * by replaying the log. Data points already present in the underlying buffer (for
+  * example, in a {@link MappedLiveDataBuffer}) are ignored, because live data buffers
+  * discard data points with duplicate time stamps.<br><br>
+  * 
+  * {@link #createChart(String, ChartRetentionPolicy)} likewise registers the chart with
+  * the underlying buffer only once its log record is durable.<br><br>
+  * 
+  * The log is truncated by {@link #checkpoint()}, which is called periodically. If the
+  * underlying buffer is {@link Flushable}, a checkpoint flushes the underlying buffer and
+  * deletes all sealed log segments. Otherwise, a checkpoint writes a snapshot of the
+  * underlying buffer to a new log segment, and then deletes all earlier segments. Only
+  * the start of a new segment holds up uploads; the data of the snapshot is copied while
+  * uploads proceed. Because a snapshot is as large as the underlying buffer, it is
+  * written only once the data uploaded since the previous snapshot is at least as large
+  * as the previous snapshot, so that the log traffic of snapshots is bounded by the
+  * traffic of uploads.<br><br>
+  * 
+  * This implementation is thread safe.
+  * 
+  * @author phillips
+  */
+public final class JournaledLiveDataBuffer
+   extends AbstractDataSourceConnector implements LiveDataBuffer, Flushable, Closeable {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(JournaledLiveDataBuffer.class);
+   
+   private static final byte
+      CREATE_CHART_RECORD = 1,
+      UPLOAD_DATA_RECORD = 2;
+   private static final int
+      MAXIMUM_POINTS_PER_SNAPSHOT_RECORD = 1 << 16;
+   
+   private final LiveDataBuffer
+      delegate;
+   private final WriteAheadLog
+      log;
+   private final ConcurrentHashMap<String, ChartRetentionPolicy>
+      retentionPolicies;
+   private final ReadWriteLock
+      checkpointLock;
+   private final ScheduledExecutorService
+      checkpointScheduler;
+   private volatile ChartRetentionPolicy
+      defaultRetentionPolicy;
+   private final AtomicLong
+      bytesLoggedSinceSnapshot;
+   private long
+      lastSnapshotSize;                                        // Guarded by this
+   
+   /**
+     * Create a {@link JournaledLiveDataBuffer} object. The underlying buffer is rebuilt
+     * from the log before this constructor returns.<br><br>
+     * 
+     * See also {@link LiveDataBuffer} and {@link WriteAheadLog}.
+     * 
+     * @param simpleName <br>
+     *        A nickname for this {@link DataSourceConnector}. This argument must be
+     *        non-<code>null</code> and non-empty.
+     * @param delegate <br>
+     *        The underlying buffer. This argument must be non-<code>null</code>.
+     * @param log <br>
+     *        The write-ahead log. No records should have been appended to this log.
+     *        This argument must be non-<code>null</code>.
+     * @param checkpointIntervalSeconds <br>
+     *        The interval, in seconds, between checkpoints. If this argument is zero,
+     *        checkpoints are made only by calls to {@link #checkpoint()}. This argument
+     *        must be non-negative.
+     * @throws IOException if the log could not be replayed.
+     * @throws IllegalArgumentException if <code>checkpointIntervalSeconds</code> is
+     *         negative.
+     */
+   public JournaledLiveDataBuffer(
+      final String simpleName,
+      final LiveDataBuffer delegate,
+      final WriteAheadLog log,
+      final long checkpointIntervalSeconds
+      ) throws IOException {
+      super(Preconditions.checkNotNull(simpleName));
+      if(checkpointIntervalSeconds < 0L)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": checkpoint interval is negative (value: "
+          + checkpointIntervalSeconds + ")");
+      logger.info("loading journaled live data buffer..");
+      this.delegate = Preconditions.checkNotNull(delegate);
+      this.log = Preconditions.checkNotNull(log);
+      this.retentionPolicies = new ConcurrentHashMap<String, ChartRetentionPolicy>();
+      this.checkpointLock = new ReentrantReadWriteLock();
+      this.defaultRetentionPolicy = ChartRetentionPolicy.unbounded();
+      this.bytesLoggedSinceSnapshot = new AtomicLong();
+      log.replay(this::replayRecord);
+      if(checkpointIntervalSeconds > 0L) {
+         this.checkpointScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread
+               thread = new Thread(runnable, "live data buffer checkpoint");
+            thread.setDaemon(true);
+            return thread;
+         });
+         this.checkpointScheduler.scheduleWithFixedDelay(() -> {
+            try {
+               checkpoint();
+            }
+            catch(final Exception e) {
+               logger.error("checkpoint failed: {}", e);
+            }
+         }, checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+      }
+      else
+         this.checkpointScheduler = null;
+      logger.info("journaled live data buffer loaded successfully.");
+   }
+   
+   private void replayRecord(final byte[] payload) throws IOException {
+      final DataInputStream
+         input = new DataInputStream(new ByteArrayInputStream(payload));
+      final byte
+         type = input.readByte();
+      final String
+         chartName = input.readUTF();
+      switch(type) {
+      case CREATE_CHART_RECORD:
+         {
+         final ChartRetentionPolicy
+            retentionPolicy = ChartRetentionPolicy.create(input.readInt(), input.readDouble());
+         this.retentionPolicies.putIfAbsent(chartName, retentionPolicy);
+         this.delegate.createChart(chartName, retentionPolicy);
+         }
+         break;
+      case UPLOAD_DATA_RECORD:
+         {
+         final int
+            size = input.readInt();
+         final List<TimestampedDatum>
+            data = new ArrayList<TimestampedDatum>(size);
+         for(int i = 0; i< size; ++i)
+            data.add(new TimestampedDatum(input.readDouble(), input.readDouble()));
+         try {
+            this.delegate.uploadData(chartName, data);
+         }
+         catch(final DataUploadException e) {
+            logger.warn("could not replay upload for chart {}: {}", chartName, e);
+         }
+         }
+         break;
+      default:
+         throw new IOException("unknown write-ahead log record type: " + type);
+      }
+   }
+   
+   private static byte[] createChartRecord(
+      final String chartName,
+      final ChartRetentionPolicy retentionPolicy
+      ) {
+      try {
+         final ByteArrayOutputStream
+            bytes = new ByteArrayOutputStream();
+         final DataOutputStream
+            output = new DataOutputStream(bytes);
+         output.writeByte(CREATE_CHART_RECORD);
+         output.writeUTF(chartName);
+         output.writeInt(retentionPolicy.getMaximumNumberOfPoints());
+         output.writeDouble(retentionPolicy.getMaximumAge());
+         return bytes.toByteArray();
+      }
+      catch(final IOException e) {                            // Not expected
+         throw new IllegalStateException(e);
+      }
+   }
+   
+   private static byte[] uploadDataRecord(
+      final String chartName,
+      final List<TimestampedDatum> data
+      ) {
+      try {
+         final ByteArrayOutputStream
+            bytes = new ByteArrayOutputStream(64 + 16 * data.size());
+         final DataOutputStream
+            output = new DataOutputStream(bytes);
+         output.writeByte(UPLOAD_DATA_RECORD);
+         output.writeUTF(chartName);
+         output.writeInt(data.size());
+         for(final TimestampedDatum datum : data) {
+            output.writeDouble(datum.getTime());
+            output.writeDouble(datum.getValue());
+         }
+         return bytes.toByteArray();
+      }
+      catch(final IOException e) {                            // Not expected
+         throw new IllegalStateException(e);
+      }
+   }
+   
+   private static void awaitDurable(final CompletableFuture<Void> future)
+      throws IOException {
+      boolean
+         isInterrupted = false;
+      try {
+         while(true) {
+            try {
+               future.get();
+               return;
+            }
+            catch(final InterruptedException e) {
+               isInterrupted = true;
+            }
+            catch(final ExecutionException e) {
+               throw new IOException(e.getCause());
+            }
+         }
+      }
+      finally {
+         if(isInterrupted)
+            Thread.currentThread().interrupt();
+      }
+   }
+   
+   @Override
+   public List<ChartInformation> getKnownCharts() throws DataSourceException {
+      return this.delegate.getKnownCharts();
+   }
+   
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive)
+      throws DataSourceException {
+      return this.delegate.getData(chartName, fromTimeOfInterest, inclusive);
+   }
+   
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      return this.delegate.getData(
+         chartName, fromTimeOfInterest, toTimeOfInterest, resolution);
+   }
+   
+   @Override
+   public void streamData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws DataSourceException, IOException {
+      this.delegate.streamData(chartName, fromTimeOfInterest, inclusive, handler);
+   }
+   
+   @Override
+   public List<TimestampedDatum> getMeans(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      return this.delegate.getMeans(
+         chartName, fromTimeOfInterest, toTimeOfInterest, resolution);
+   }
+   
+   @Override
+   public boolean createChart(final String name) {
+      return createChart(name, this.defaultRetentionPolicy);
+   }
+   
+   /**
+     * Register a chart. The chart creation is recorded in the log, and the chart is
+     * registered with the underlying buffer once the log record is durable. If the
+     * creation could not be recorded, the chart is not registered.
+     */
+   @Override
+   public boolean createChart(
+      final String name,
+      final ChartRetentionPolicy retentionPolicy
+      ) {
+      if(name == null || name.isEmpty()) {
+         logger.error("create_chart: chart name is null or empty [{}]", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": create_chart: chart name is null or empty.");
+      }
+      if(retentionPolicy == null) {
+         logger.error("create_chart: retention policy is null for chart {}", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": create_chart: retention policy is null.");
+      }
+      if(this.delegate.hasChart(name))
+         return false;
+      /*
+       * As for uploads, the chart is registered only once it is durable. Should two
+       * threads create the same chart, both creations are logged, and the replay of the
+       * second is ignored by the underlying buffer:
+       */
+      this.checkpointLock.readLock().lock();
+      try {
+         final byte[]
+            record = createChartRecord(name, retentionPolicy);
+         try {
+            awaitDurable(this.log.append(record));
+         }
+         catch(final IOException e) {
+            logger.error("create_chart: could not log creation of chart {}: {}", name, e);
+            return false;
+         }
+         this.bytesLoggedSinceSnapshot.addAndGet(record.length);
+         if(!this.delegate.createChart(name, retentionPolicy))
+            return false;
+         this.retentionPolicies.put(name, retentionPolicy);
+         return true;
+      }
+      finally {
+         this.checkpointLock.readLock().unlock();
+      }
+   }
+   
+   @Override
+   public void setDefaultRetentionPolicy(final ChartRetentionPolicy retentionPolicy) {
+      if(retentionPolicy == null)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": default retention policy is null.");
+      this.delegate.setDefaultRetentionPolicy(retentionPolicy);
+      this.defaultRetentionPolicy = retentionPolicy;
+   }
+   
+   @Override
+   public long getVersion(final String chartName) {
+      return this.delegate.getVersion(chartName);
+   }
+   
+   @Override
+   public boolean hasChart(final String name) {
+      return this.delegate.hasChart(name);
+   }
+   
+   /**
+     * Upload data for a chart. The data is recorded in the log, and is applied to the
+     * underlying buffer once the log record is durable. If the data could not be
+     * recorded, it is not applied.
+     * 
+     * @throws DataUploadException if no such chart is known to this object, or if the
+     *         data could not be recorded in the log.
+     */
+   @Override
+   public void uploadData(
+      final String name,
+      final List<TimestampedDatum> data
+      ) throws DataUploadException {
+      if(name == null || name.isEmpty()) {
+         logger.error("upload_data: chart name is null or empty [{}]", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": upload_data: chart name is null or empty.");
+      }
+      if(data == null) {
+         logger.error("upload_data: data is null for chart {}", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": upload_data: data is null.");
+      }
+      if(!this.delegate.hasChart(name)) {
+         logger.error("upload_data: no chart with name {} exists", name);
+         throw new DataUploadException(
+            getClass().getSimpleName() + ": upload_data: chart not found.");
+      }
+      /*
+       * The data is applied only once it is durable, so that a failed upload is never
+       * visible. The checkpoint lock is held until then, so that a checkpoint cannot
+       * discard the log record before the data is applied:
+       */
+      this.checkpointLock.readLock().lock();
+      try {
+         final byte[]
+            record = uploadDataRecord(name, data);
+         try {
+            awaitDurable(this.log.append(record));
+         }
+         catch(final IOException e) {
+            logger.error("upload_data: could not log data for chart {}: {}", name, e);
+            throw new DataUploadException(e);
+         }
+         this.bytesLoggedSinceSnapshot.addAndGet(record.length);
+         this.delegate.uploadData(name, data);
+      }
+      finally {
+         this.checkpointLock.readLock().unlock();
+      }
+   }
+   
+   /**
+     * Make a checkpoint, and delete all log segments which are no longer required to
+     * rebuild the underlying buffer. If the underlying buffer is not {@link Flushable},
+     * and too little data has been logged since the previous snapshot, this method does
+     * nothing.
+     * 
+     * @throws IOException if the checkpoint could not be made. In this case, no log
+     *         segments are deleted.
+     */
+   public synchronized void checkpoint() throws IOException {
+      final long
+         startTime = System.nanoTime();
+      if(this.delegate instanceof Flushable) {
+         final long
+            firstRequiredSegment;
+         this.checkpointLock.writeLock().lock();
+         try {
+            firstRequiredSegment = this.log.rotate();
+            ((Flushable) this.delegate).flush();
+         }
+         finally {
+            this.checkpointLock.writeLock().unlock();
+         }
+         this.log.deleteSegmentsBefore(firstRequiredSegment);
+      }
+      else {
+         final long
+            firstRequiredSegment;
+         final List<String>
+            chartNames = new ArrayList<String>();
+         final List<CompletableFuture<Void>>
+            snapshot = new ArrayList<CompletableFuture<Void>>();
+         long
+            snapshotSize = 0L;
+         /*
+          * Start a new segment, and log the creation of every chart at its start, so that
+          * these records precede the records of any later upload. All data already
+          * applied to the underlying buffer is then logged outside the lock. Uploads made
+          * meanwhile are logged both in their own records and, possibly, in the
+          * snapshot; duplicate data points are ignored when the log is replayed:
+          */
+         this.checkpointLock.writeLock().lock();
+         try {
+            if(this.bytesLoggedSinceSnapshot.get() < this.lastSnapshotSize) {
+               logger.debug("checkpoint deferred ({} bytes logged since snapshot of {} "
+                  + "bytes).", this.bytesLoggedSinceSnapshot.get(), this.lastSnapshotSize);
+               return;
+            }
+            firstRequiredSegment = this.log.rotate();
+            this.bytesLoggedSinceSnapshot.set(0L);
+            for(final ChartInformation chart : this.delegate.getKnownCharts()) {
+               final String
+                  chartName = chart.getId();
+               final ChartRetentionPolicy
+                  retentionPolicy = this.retentionPolicies.get(chartName);
+               final byte[]
+                  record = createChartRecord(chartName, retentionPolicy == null ?
+                     ChartRetentionPolicy.unbounded() : retentionPolicy);
+               snapshot.add(this.log.append(record));
+               snapshotSize += record.length;
+               chartNames.add(chartName);
+            }
+         }
+         catch(final DataSourceException e) {
+            throw new IOException(e);
+         }
+         finally {
+            this.checkpointLock.writeLock().unlock();
+         }
+         try {
+            for(final String chartName : chartNames) {
+               final List<TimestampedDatum>
+                  data = this.delegate.getData(chartName, Double.NEGATIVE_INFINITY, true);
+               for(int i = 0; i< data.size(); i += MAXIMUM_POINTS_PER_SNAPSHOT_RECORD) {
+                  final byte[]
+                     record = uploadDataRecord(chartName, data.subList(
+                        i, Math.min(data.size(), i + MAXIMUM_POINTS_PER_SNAPSHOT_RECORD)));
+                  snapshot.add(this.log.append(record));
+                  snapshotSize += record.length;
+               }
+            }
+         }
+         catch(final DataSourceException e) {
+            throw new IOException(e);
+         }
+         for(final CompletableFuture<Void> future : snapshot)
+            awaitDurable(future);
+         this.lastSnapshotSize = snapshotSize;
+         this.log.deleteSegmentsBefore(firstRequiredSegment);
+      }
+      logger.info("checkpoint complete ({} ms).", (System.nanoTime() - startTime) / 1000000L);
+   }
+   
+   /**
+     * Flush the underlying buffer, if the underlying buffer is {@link Flushable}. Log
+     * records are always durable.
+     */
+   @Override
+   public void flush() throws IOException {
+      if(this.delegate instanceof Flushable)
+         ((Flushable) this.delegate).flush();
+   }
+   
+   /**
+     * Stop making checkpoints, close the log, and close the underlying buffer if the
+     * underlying buffer is {@link Closeable}.
+     */
+   @Override
+   public void close() throws IOException {
+      logger.info("closing journaled live data buffer..");
+      if(this.checkpointScheduler != null)
+         this.checkpointScheduler.shutdownNow();
+      this.log.close();
+      if(this.delegate instanceof Closeable)
+         ((Closeable) this.delegate).close();
+      logger.info("journaled live data buffer closed.");
+   }
+}
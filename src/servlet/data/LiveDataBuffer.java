@@ -36,7 +36,10 @@ public interface LiveDataBuffer extends DataSourceConnector {
    
    /**
      * Register a chart with the specified name. This method creates a memory space for
-     * new incoming live data belonging to the specified chart.
+     * new incoming live data belonging to the specified chart. The chart is subject to
+     * the default {@link ChartRetentionPolicy} of this buffer.<br><br>
+     * 
+     * See also {@link #setDefaultRetentionPolicy(ChartRetentionPolicy)}.
      * 
      * @param name <br>
      *    The name of the chart for which to process incoming data. This argument must be
@@ -47,6 +50,38 @@ public interface LiveDataBuffer extends DataSourceConnector {
      */
    public boolean createChart(final String name);
    
+   /**
+     * Register a chart with the specified name and a custom {@link ChartRetentionPolicy}.
+     * This method creates a memory space for new incoming live data belonging to the
+     * specified chart. Data points are discarded, oldest first, whenever the chart
+     * exceeds the limits of the retention policy.
+     * 
+     * @param name <br>
+     *    The name of the chart for which to process incoming data. This argument must be
+     *    non-<code>null</code> and non-empty.
+     * @param retentionPolicy <br>
+     *    The retention policy of the chart. This argument must be non-<code>null</code>.
+     * @return
+     *    <code>True</code> when and only when the chart creation was successful.
+     * @throws IllegalArgumentException if <code>name</code> is <code>null</code> or empty,
+     *    or if <code>retentionPolicy</code> is <code>null</code>.
+     */
+   public boolean createChart(
+      final String name,
+      final ChartRetentionPolicy retentionPolicy
+      );
+   
+   /**
+     * Set the {@link ChartRetentionPolicy} applied to charts subsequently created by
+     * {@link #createChart(String)}. Existing charts are not affected. Unless this method
+     * is called, the default retention policy is {@link ChartRetentionPolicy#unbounded()}.
+     * 
+     * @param retentionPolicy <br>
+     *    The default retention policy. This argument must be non-<code>null</code>.
+     * @throws IllegalArgumentException if <code>retentionPolicy</code> is <code>null</code>.
+     */
+   public void setDefaultRetentionPolicy(final ChartRetentionPolicy retentionPolicy);
+   
    /**
      * Tell whether or not this {@link LiveDataBuffer} is processing chart data for a chart
      * with the specified name.
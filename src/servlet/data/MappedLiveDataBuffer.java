@@ -0,0 +1,362 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+import servlet.core.AbstractDataSourceConnector;
+import servlet.core.DataSourceConnector;
+
+/**
+  * An implementation of the {@link LiveDataBuffer} interface backed by memory-mapped
+  * files. Each chart is stored as a sequence of fixed-capacity segment files in one
+  * directory, and uploaded data points are written directly into the mapped segment
+  * files. Charts therefore survive a restart of the web application: when a
+  * {@link MappedLiveDataBuffer} is created, it reopens (maps) the existing segment
+  * files in its directory rather than re-ingesting any data.<br><br>
+  * 
+  * Reads do not copy data. {@link #getData(String, double, boolean)} returns a
+  * read-only view of the mapped segment files, which is not affected by subsequent
+  * uploads.<br><br>
+  * 
+  * Each chart is append-only: an upload containing a data point which precedes the last
+  * data point on the chart is rejected with a {@link DataUploadException}, and none of
+  * its data points are stored. Data points whose time stamps are already on the chart
+  * are ignored, as in other live data buffers. Bounded {@link ChartRetentionPolicy}
+  * objects are enforced at the granularity of segment files: the oldest segment file of
+  * a chart is deleted once the remaining segment files satisfy the retention policy.
+  * The retention policy of a chart is not stored on disk. Charts reopened from disk are
+  * subject to the default retention policy of this buffer.<br><br>
+  * 
+  * Data points are written to the operating system page cache immediately, and so
+  * survive a crash of the web application. Use {@link #flush()} to write data points
+  * to the storage device.<br><br>
+  * 
+  * This implementation is thread safe. Uploads to the same chart are serialized, and
+  * reads never lock.
+  * 
+  * @author phillips
+  */
+public final class MappedLiveDataBuffer
+   extends AbstractDataSourceConnector implements LiveDataBuffer, Flushable, Closeable {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(MappedLiveDataBuffer.class);
+   
+   /**
+     * The default number of data points stored in each segment file (1MB per file).
+     */
+   public static final int
+      DEFAULT_POINTS_PER_SEGMENT = 1 << 16;
+   
+   private final Path
+      directory;
+   private final int
+      pointsPerSegment;
+   private final ConcurrentHashMap<String, MappedTimeSeries>
+      buffer;
+   private final ChartVersions
+      versions;
+   private final ConcurrentHashMap<String, ChartRetentionPolicy>
+      retentionPolicies;
+   private volatile ChartRetentionPolicy
+      defaultRetentionPolicy;
+   
+   /**
+     * Create a {@link MappedLiveDataBuffer} object with a default segment size.<br><br>
+     * 
+     * See also {@link #MappedLiveDataBuffer(String, Path, int)}.
+     * 
+     * @param simpleName <br>
+     *        A nickname for this {@link DataSourceConnector}. This argument must be
+     *        non-<code>null</code> and non-empty.
+     * @param directory <br>
+     *        The directory in which to store segment files. This argument must be
+     *        non-<code>null</code>.
+     * @throws IOException if the directory could not be created, or if an existing
+     *         segment file could not be reopened.
+     */
+   public MappedLiveDataBuffer(
+      final String simpleName,
+      final Path directory
+      ) throws IOException {
+      this(simpleName, directory, DEFAULT_POINTS_PER_SEGMENT);
+   }
+   
+   /**
+     * Create a {@link MappedLiveDataBuffer} object with custom parameters. Any charts
+     * previously stored in the specified directory are reopened.<br><br>
+     * 
+     * See also {@link LiveDataBuffer} and {@link AbstractDataSourceConnector}.
+     * 
+     * @param simpleName <br>
+     *        A nickname for this {@link DataSourceConnector}. This argument must be
+     *        non-<code>null</code> and non-empty.
+     * @param directory <br>
+     *        The directory in which to store segment files. If this directory does not
+     *        exist, it is created. This argument must be non-<code>null</code>.
+     * @param pointsPerSegment <br>
+     *        The number of data points stored in each new segment file. Existing
+     *        segment files retain their own capacity. This argument must be strictly
+     *        positive.
+     * @throws IOException if the directory could not be created, or if an existing
+     *         segment file could not be reopened.
+     * @throws IllegalArgumentException if <code>pointsPerSegment</code> is not strictly
+     *         positive.
+     */
+   public MappedLiveDataBuffer(
+      final String simpleName,
+      final Path directory,
+      final int pointsPerSegment
+      ) throws IOException {
+      super(Preconditions.checkNotNull(simpleName));
+      Preconditions.checkNotNull(directory);
+      if(pointsPerSegment <= 0)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": points per segment is not strictly positive "
+          + "(value: " + pointsPerSegment + ")");
+      logger.info("loading mapped live data buffer from {}..", directory);
+      final long
+         startTime = System.nanoTime();
+      this.directory = Files.createDirectories(directory);
+      this.pointsPerSegment = pointsPerSegment;
+      this.buffer = new ConcurrentHashMap<String, MappedTimeSeries>();
+      this.versions = new ChartVersions();
+      this.retentionPolicies = new ConcurrentHashMap<String, ChartRetentionPolicy>();
+      this.defaultRetentionPolicy = ChartRetentionPolicy.unbounded();
+      final Map<String, List<Path>>
+         segmentFiles = new HashMap<String, List<Path>>();
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(
+         this.directory, "*" + MappedTimeSeries.SEGMENT_FILE_SUFFIX)) {
+         for(final Path file : files) {
+            final String
+               filePrefix = MappedTimeSeries.parseFilePrefix(file);
+            if(!segmentFiles.containsKey(filePrefix))
+               segmentFiles.put(filePrefix, new ArrayList<Path>());
+            segmentFiles.get(filePrefix).add(file);
+         }
+      }
+      for(final Entry<String, List<Path>> record : segmentFiles.entrySet()) {
+         final String
+            chartName = MappedTimeSeries.decodeChartName(record.getKey());
+         final MappedTimeSeries
+            series = MappedTimeSeries.open(
+               this.directory, record.getKey(), pointsPerSegment, record.getValue());
+         this.buffer.put(chartName, series);
+         logger.info("reopened chart {} ({} data points).", chartName, series.size());
+      }
+      logger.info("mapped live data buffer loaded successfully ({} charts, {} ms).",
+         this.buffer.size(), (System.nanoTime() - startTime) / 1000000L);
+   }
+   
+   @Override
+   public List<ChartInformation> getKnownCharts() throws DataSourceException {
+      final List<ChartInformation>
+         knownCharts = new ArrayList<ChartInformation>();
+      for(final Entry<String, MappedTimeSeries> record : this.buffer.entrySet())
+         knownCharts.add(new ChartInformation(record.getKey(), "Line", record.getValue().size()));
+      return knownCharts;
+   }
+   
+   /**
+     * Get data for a chart. The {@link List} returned by this method is a read-only
+     * view of the mapped segment files of the chart. No data is copied until the
+     * elements of the view are accessed.
+     */
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive)
+      throws DataSourceException {
+      if(chartName == null || chartName.isEmpty()) {
+         logger.error("get_data: chart name is null or empty [{}]", chartName);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_data: chart name is null or empty.");
+      }
+      final MappedTimeSeries
+         series = this.buffer.get(chartName);
+      if(series == null) {
+         logger.error("get_data: no chart with name {} exists", chartName);
+         throw new DataSourceException(
+            getClass().getSimpleName() + ": get_data: chart not found.");
+      }
+      return series.tailView(fromTimeOfInterest, inclusive);
+   }
+   
+   /**
+     * Pass the data of a chart to a {@link DataPointHandler} directly from the mapped
+     * segment files, without creating a {@link List}.
+     */
+   @Override
+   public void streamData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws DataSourceException, IOException {
+      if(chartName == null || chartName.isEmpty()) {
+         logger.error("get_data: chart name is null or empty [{}]", chartName);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_data: chart name is null or empty.");
+      }
+      final MappedTimeSeries
+         series = this.buffer.get(chartName);
+      if(series == null) {
+         logger.error("get_data: no chart with name {} exists", chartName);
+         throw new DataSourceException(
+            getClass().getSimpleName() + ": get_data: chart not found.");
+      }
+      series.stream(fromTimeOfInterest, inclusive, handler);
+   }
+   
+   @Override
+   public boolean createChart(final String name) {
+      return createChart(name, this.defaultRetentionPolicy);
+   }
+   
+   @Override
+   public boolean createChart(
+      final String name,
+      final ChartRetentionPolicy retentionPolicy
+      ) {
+      if(name == null || name.isEmpty()) {
+         logger.error("create_chart: chart name is null or empty [{}]", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": create_chart: chart name is null or empty.");
+      }
+      if(retentionPolicy == null) {
+         logger.error("create_chart: retention policy is null for chart {}", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": create_chart: retention policy is null.");
+      }
+      if(this.buffer.containsKey(name))
+         return false;
+      final boolean
+         result = this.buffer.putIfAbsent(name,
+            MappedTimeSeries.create(this.directory, name, this.pointsPerSegment)) == null;
+      if(result)
+         this.retentionPolicies.put(name, retentionPolicy);
+      return result;
+   }
+   
+   @Override
+   public void setDefaultRetentionPolicy(final ChartRetentionPolicy retentionPolicy) {
+      if(retentionPolicy == null)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": default retention policy is null.");
+      this.defaultRetentionPolicy = retentionPolicy;
+      logger.info("default retention policy: {}", retentionPolicy);
+   }
+   
+   /**
+     * The version of a chart is incremented by each call to
+     * {@link #uploadData(String, List)}.
+     */
+   @Override
+   public long getVersion(final String chartName) {
+      return this.buffer.containsKey(chartName) ? this.versions.get(chartName) : -1L;
+   }
+   
+   @Override
+   public boolean hasChart(final String name) {
+      if(name == null || name.isEmpty()) {
+         logger.error("has_chart: chart name is null or empty [{}]", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": has_chart: chart name is null or empty.");
+      }
+      return this.buffer.containsKey(name);
+   }
+   
+   @Override
+   public void uploadData(
+      final String name,
+      final List<TimestampedDatum> data
+      ) throws DataUploadException {
+      if(name == null || name.isEmpty()) {
+         logger.error("upload_data: chart name is null or empty [{}]", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": upload_data: chart name is null or empty.");
+      }
+      if(data == null) {
+         logger.error("upload_data: data is null for chart {}", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": upload_data: data is null.");
+      }
+      final MappedTimeSeries
+         series = this.buffer.get(name);
+      if(series == null) {
+         logger.error("upload_data: no chart with name {} exists", name);
+         throw new DataUploadException(
+            getClass().getSimpleName() + ": upload_data: chart not found.");
+      }
+      try {
+         series.appendAll(data);
+      }
+      catch(final DataUploadException e) {
+         logger.error("upload_data: out-of-order data rejected for chart {}: {}", name, e);
+         throw e;
+      }
+      catch(final IOException e) {
+         logger.error("upload_data: could not write to chart {}: {}", name, e);
+         throw new DataUploadException(e);
+      }
+      final ChartRetentionPolicy
+         retentionPolicy = this.retentionPolicies.get(name);
+      series.applyRetentionPolicy(
+         retentionPolicy == null ? this.defaultRetentionPolicy : retentionPolicy);
+      this.versions.increment(name);
+   }
+   
+   /**
+     * Write all uploaded data points to the storage device.
+     */
+   @Override
+   public void flush() {
+      for(final MappedTimeSeries series : this.buffer.values())
+         series.force();
+   }
+   
+   /**
+     * Write all uploaded data points to the storage device. Segment files are unmapped
+     * when they are no longer referenced.
+     */
+   @Override
+   public void close() {
+      logger.info("closing mapped live data buffer..");
+      flush();
+      logger.info("mapped live data buffer closed.");
+   }
+}
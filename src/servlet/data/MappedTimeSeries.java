@@ -0,0 +1,628 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import servlet.core.DataSourceConnector.DataPointHandler;
+
+/**
+  * A time-ordered series of <code>(time, value)</code> records stored in a sequence of
+  * memory-mapped segment files. This class is the storage engine of
+  * {@link MappedLiveDataBuffer}.<br><br>
+  * 
+  * Each segment file has the following little-endian layout:
+  * 
+  * <ul>
+  *   <li> a 32 byte header containing a magic number, the capacity <code>C</code> of
+  *        the segment and the number of committed records <code>N</code>;
+  *   <li> <code>C</code> <code>double</code> time stamps, followed by
+  *   <li> <code>C</code> <code>double</code> values.
+  * </ul>
+  * 
+  * Records are written directly into the mapped region, and the header record count is
+  * updated after the record itself, so that a reopened segment never exposes a
+  * partially written record. Records are append-only: a record whose time stamp is not
+  * later than the last time stamp in the series is discarded.<br><br>
+  * 
+  * Writers are serialized on this object. Readers never lock: the set of segments and
+  * the number of records are published together as an immutable snapshot, and
+  * committed records are never modified, so that reads can return views of the mapped
+  * memory rather than copies.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class MappedTimeSeries {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(MappedTimeSeries.class);
+   
+   static final String
+      SEGMENT_FILE_SUFFIX = ".seg";
+   
+   private static final long
+      SEGMENT_MAGIC = 0x5743534547303031L;                     // "WCSEG001"
+   private static final int
+      HEADER_SIZE = 32,
+      CAPACITY_OFFSET = 8,
+      SIZE_OFFSET = 12;
+   
+   /**
+     * A single memory-mapped segment file.
+     */
+   static final class Segment {
+      final Path
+         path;
+      final int
+         index,
+         capacity;
+      final MappedByteBuffer
+         buffer;
+      
+      private Segment(
+         final Path path,
+         final int index,
+         final int capacity,
+         final MappedByteBuffer buffer
+         ) {
+         this.path = path;
+         this.index = index;
+         this.capacity = capacity;
+         this.buffer = buffer;
+      }
+      
+      double time(final int position) {
+         return this.buffer.getDouble(HEADER_SIZE + 8 * position);
+      }
+      
+      double value(final int position) {
+         return this.buffer.getDouble(HEADER_SIZE + 8 * (this.capacity + position));
+      }
+      
+      int committedSize() {
+         return this.buffer.getInt(SIZE_OFFSET);
+      }
+      
+      void write(
+         final int position,
+         final double time,
+         final double value
+         ) {
+         this.buffer.putDouble(HEADER_SIZE + 8 * position, time);
+         this.buffer.putDouble(HEADER_SIZE + 8 * (this.capacity + position), value);
+         this.buffer.putInt(SIZE_OFFSET, position + 1);
+      }
+   }
+   
+   /**
+     * An immutable view of the segments of this series and of the number of records
+     * in the last segment.
+     */
+   private static final class Snapshot {
+      final Segment[]
+         segments;
+      final int
+         lastSegmentSize,
+         size;
+      
+      Snapshot(
+         final Segment[] segments,
+         final int lastSegmentSize,
+         final int size
+         ) {
+         this.segments = segments;
+         this.lastSegmentSize = lastSegmentSize;
+         this.size = size;
+      }
+      
+      int segmentSize(final int segment) {
+         return segment == this.segments.length - 1 ?
+            this.lastSegmentSize : this.segments[segment].committedSize();
+      }
+      
+      double lastTime() {
+         return this.segments.length == 0 ? Double.NEGATIVE_INFINITY :
+            this.segments[this.segments.length - 1].time(this.lastSegmentSize - 1);
+      }
+   }
+   
+   private final Path
+      directory;
+   private final String
+      filePrefix;
+   private final int
+      pointsPerSegment;
+   private volatile Snapshot
+      snapshot;
+   
+   private MappedTimeSeries(
+      final Path directory,
+      final String filePrefix,
+      final int pointsPerSegment,
+      final Snapshot snapshot
+      ) {
+      this.directory = directory;
+      this.filePrefix = filePrefix;
+      this.pointsPerSegment = pointsPerSegment;
+      this.snapshot = snapshot;
+   }
+   
+   /**
+     * Create an empty series. No files are created until the first record is appended.
+     */
+   static MappedTimeSeries create(
+      final Path directory,
+      final String chartName,
+      final int pointsPerSegment
+      ) {
+      return new MappedTimeSeries(
+         directory, encodeChartName(chartName), pointsPerSegment,
+         new Snapshot(new Segment[0], 0, 0));
+   }
+   
+   /**
+     * Reopen a series from existing segment files. Segment files containing no
+     * committed records are deleted.
+     * 
+     * @param segmentFiles <br>
+     *        The segment files belonging to this series, in any order.
+     * @throws IOException if a segment file cannot be mapped, or is not a valid
+     *         segment file.
+     */
+   static MappedTimeSeries open(
+      final Path directory,
+      final String filePrefix,
+      final int pointsPerSegment,
+      final List<Path> segmentFiles
+      ) throws IOException {
+      final List<Segment>
+         segments = new ArrayList<Segment>();
+      for(final Path file : segmentFiles) {
+         final Segment
+            segment = mapSegment(file, parseSegmentIndex(file), 0);
+         if(segment.committedSize() > 0)
+            segments.add(segment);
+         else
+            Files.delete(file);
+      }
+      Collections.sort(segments, (a, b) -> Integer.compare(a.index, b.index));
+      int
+         size = 0;
+      for(final Segment segment : segments)
+         size += segment.committedSize();
+      final int
+         lastSegmentSize = segments.isEmpty() ? 0 :
+            segments.get(segments.size() - 1).committedSize();
+      return new MappedTimeSeries(
+         directory, filePrefix, pointsPerSegment,
+         new Snapshot(segments.toArray(new Segment[0]), lastSegmentSize, size));
+   }
+   
+   private static MappedByteBuffer map(
+      final Path file,
+      final long length
+      ) throws IOException {
+      try (FileChannel channel = FileChannel.open(
+         file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+         final MappedByteBuffer
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+         buffer.order(ByteOrder.LITTLE_ENDIAN);
+         return buffer;
+      }
+   }
+   
+   /**
+     * Map an existing segment file, or create and map a new segment file if
+     * <code>capacity</code> is strictly positive.
+     */
+   private static Segment mapSegment(
+      final Path file,
+      final int index,
+      final int capacity
+      ) throws IOException {
+      if(capacity > 0) {
+         final MappedByteBuffer
+            buffer = map(file, HEADER_SIZE + 16L * capacity);
+         buffer.putLong(0, SEGMENT_MAGIC);
+         buffer.putInt(CAPACITY_OFFSET, capacity);
+         buffer.putInt(SIZE_OFFSET, 0);
+         return new Segment(file, index, capacity, buffer);
+      }
+      final long
+         length = Files.size(file);
+      if(length < HEADER_SIZE)
+         throw new IOException("segment file " + file + " is truncated.");
+      final MappedByteBuffer
+         buffer = map(file, length);
+      final int
+         existingCapacity = buffer.getInt(CAPACITY_OFFSET);
+      if(buffer.getLong(0) != SEGMENT_MAGIC ||
+         length != HEADER_SIZE + 16L * existingCapacity ||
+         buffer.getInt(SIZE_OFFSET) < 0 ||
+         buffer.getInt(SIZE_OFFSET) > existingCapacity)
+         throw new IOException("segment file " + file + " is not a valid segment file.");
+      return new Segment(file, index, existingCapacity, buffer);
+   }
+   
+   /**
+     * Encode a chart name as a file name prefix. The prefix is the hexadecimal
+     * representation of the UTF-8 bytes of the name, so that any chart name yields a
+     * portable file name.
+     */
+   static String encodeChartName(final String chartName) {
+      final StringBuilder
+         result = new StringBuilder();
+      for(final byte b : chartName.getBytes(StandardCharsets.UTF_8))
+         result.append(String.format("%02x", b & 0xff));
+      return result.toString();
+   }
+   
+   /**
+     * Decode a file name prefix produced by {@link #encodeChartName(String)}.
+     * 
+     * @throws IllegalArgumentException if the prefix is not a valid encoded chart name.
+     */
+   static String decodeChartName(final String filePrefix) {
+      if(filePrefix.isEmpty() || filePrefix.length() % 2 != 0)
+         throw new IllegalArgumentException(
+            "MappedTimeSeries: '" + filePrefix + "' is not an encoded chart name.");
+      final byte[]
+         bytes = new byte[filePrefix.length() / 2];
+      for(int i = 0; i< bytes.length; ++i)
+         bytes[i] = (byte) Integer.parseInt(filePrefix.substring(2 * i, 2 * i + 2), 16);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+   
+   /**
+     * @return
+     *    The chart file name prefix of the specified segment file name.
+     */
+   static String parseFilePrefix(final Path file) {
+      final String
+         name = file.getFileName().toString();
+      return name.substring(0, name.lastIndexOf('-'));
+   }
+   
+   private static int parseSegmentIndex(final Path file) {
+      final String
+         name = file.getFileName().toString();
+      return Integer.parseInt(
+         name.substring(name.lastIndexOf('-') + 1, name.length() - SEGMENT_FILE_SUFFIX.length()));
+   }
+   
+   /**
+     * @return
+     *    The total number of records in this series.
+     */
+   int size() {
+      return this.snapshot.size;
+   }
+   
+   /**
+     * Append all records in the specified {@link List} to this series. Records whose
+     * time stamps equal the time stamp of a record already in the series are ignored, as
+     * in the other live data buffers, so that an upload can be repeated. A series can
+     * only be appended to, so if any other record is not later than the last time stamp
+     * of the series, no record is appended at all.
+     * 
+     * @throws LiveDataBuffer.DataUploadException if a record precedes the last record of
+     *         the series, and is not already present in the series. In this case, the
+     *         series is not modified.
+     * @throws IOException if a new segment file could not be created. In this case,
+     *         the records preceding the failure are retained, and the series remains
+     *         usable.
+     */
+   synchronized void appendAll(final List<TimestampedDatum> data)
+      throws LiveDataBuffer.DataUploadException, IOException {
+      final Snapshot
+         current = this.snapshot;
+      double
+         lastTime = current.lastTime();
+      for(final TimestampedDatum datum : data) {               // Validate before writing
+         if(datum.getTime() > lastTime)
+            lastTime = datum.getTime();
+         else if(!contains(current, datum.getTime()))
+            throw new LiveDataBuffer.DataUploadException(
+               "MappedTimeSeries: record with time " + datum.getTime() + " precedes the "
+             + "last record of the series [" + lastTime + "].");
+      }
+      Segment[]
+         segments = current.segments;
+      int
+         lastSegmentSize = current.lastSegmentSize,
+         size = current.size;
+      lastTime = current.lastTime();
+      try {
+         for(final TimestampedDatum datum : data) {
+            if(!(datum.getTime() > lastTime))
+               continue;                                       // Duplicate time stamp
+            if(segments.length == 0 || lastSegmentSize == segments[segments.length - 1].capacity) {
+               final int
+                  index = segments.length == 0 ? 0 : segments[segments.length - 1].index + 1;
+               final Path
+                  file = this.directory.resolve(String.format(
+                     "%s-%08d%s", this.filePrefix, index, SEGMENT_FILE_SUFFIX));
+               final Segment
+                  segment;
+               try {
+                  segment = mapSegment(file, index, this.pointsPerSegment);
+               }
+               catch(final IOException e) {
+                  try {
+                     Files.deleteIfExists(file);              // Remove the partial segment
+                  }
+                  catch(final IOException f) {
+                     e.addSuppressed(f);
+                  }
+                  throw e;
+               }
+               segments = Arrays.copyOf(segments, segments.length + 1);
+               segments[segments.length - 1] = segment;
+               lastSegmentSize = 0;
+            }
+            segments[segments.length - 1].write(lastSegmentSize, datum.getTime(), datum.getValue());
+            lastSegmentSize++;
+            size++;
+            lastTime = datum.getTime();
+         }
+      }
+      finally {
+         this.snapshot = new Snapshot(segments, lastSegmentSize, size);
+      }
+   }
+   
+   /**
+     * Tell whether or not a {@link Snapshot} contains a record with the specified time.
+     */
+   private static boolean contains(
+      final Snapshot current,
+      final double time
+      ) {
+      final long
+         start = findStart(current, time, true);
+      return start >= 0 && Double.compare(
+         current.segments[(int) (start >>> 32)].time((int) start), time) == 0;
+   }
+   
+   /**
+     * Discard whole segments, oldest first, while the remaining segments satisfy the
+     * specified retention policy. The segment currently receiving records is never
+     * discarded, so that retention is enforced at the granularity of segments.
+     */
+   synchronized void applyRetentionPolicy(final ChartRetentionPolicy retentionPolicy) {
+      if(!retentionPolicy.isBounded())
+         return;
+      final Snapshot
+         current = this.snapshot;
+      final Segment[]
+         segments = current.segments;
+      if(segments.length < 2)
+         return;
+      final double
+         cutoff = current.lastTime() - retentionPolicy.getMaximumAge();
+      int
+         firstRetained = 0,
+         size = current.size;
+      while(firstRetained < segments.length - 1) {
+         final Segment
+            oldest = segments[firstRetained];
+         final int
+            oldestSize = oldest.committedSize();
+         final boolean
+            isTooMany = size - oldestSize >= retentionPolicy.getMaximumNumberOfPoints(),
+            isTooOld = oldest.time(oldestSize - 1) < cutoff;
+         if(!isTooMany && !isTooOld)
+            break;
+         size -= oldestSize;
+         firstRetained++;
+      }
+      if(firstRetained == 0)
+         return;
+      this.snapshot = new Snapshot(
+         Arrays.copyOfRange(segments, firstRetained, segments.length),
+         current.lastSegmentSize, size);
+      for(int i = 0; i< firstRetained; ++i) {
+         try {
+            Files.deleteIfExists(segments[i].path);
+         }
+         catch(final IOException e) {
+            logger.error("could not delete expired segment {}: {}", segments[i].path, e);
+         }
+      }
+   }
+   
+   /**
+     * Flush all modified records to the underlying segment files.
+     */
+   void force() {
+      for(final Segment segment : this.snapshot.segments)
+         segment.buffer.force();
+   }
+   
+   /**
+     * Get a read-only view of all records on or after the specified time. The view
+     * reads directly from the mapped segment files: no records are copied. Records
+     * appended after this method returns are not visible in the view.
+     * 
+     * @param fromTimeOfInterest (<code>T</code>) <br>
+     *        The time after which records are required.
+     * @param inclusive <br>
+     *        Whether or not <code>T</code> is to be considered inclusive.
+     */
+   List<TimestampedDatum> tailView(
+      final double fromTimeOfInterest,
+      final boolean inclusive
+      ) {
+      final Snapshot
+         current = this.snapshot;
+      final long
+         start = findStart(current, fromTimeOfInterest, inclusive);
+      if(start < 0L)
+         return Collections.emptyList();
+      return new SegmentView(current, (int) (start >>> 32), (int) start);
+   }
+   
+   /**
+     * Pass all records on or after the specified time to a {@link DataPointHandler},
+     * reading directly from the mapped segment files. Records appended after this method
+     * is called are not passed.
+     * 
+     * @param fromTimeOfInterest (<code>T</code>) <br>
+     *        The time after which records are required.
+     * @param inclusive <br>
+     *        Whether or not <code>T</code> is to be considered inclusive.
+     * @throws IOException if the handler raised an {@link IOException}.
+     */
+   void stream(
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws IOException {
+      final Snapshot
+         current = this.snapshot;
+      final long
+         start = findStart(current, fromTimeOfInterest, inclusive);
+      if(start < 0L)
+         return;
+      int
+         position = (int) start;
+      for(int i = (int) (start >>> 32); i< current.segments.length; ++i, position = 0) {
+         final Segment
+            segment = current.segments[i];
+         final int
+            size = current.segmentSize(i);
+         for(; position< size; ++position)
+            handler.handle(segment.time(position), segment.value(position));
+      }
+   }
+   
+   /**
+     * Locate the first record on or after the specified time in a {@link Snapshot}.
+     * 
+     * @return
+     *    The index of the segment of the record in the upper <code>32</code> bits and
+     *    its position in the segment in the lower <code>32</code> bits, or
+     *    <code>-1</code> if there is no such record.
+     */
+   private static long findStart(
+      final Snapshot current,
+      final double fromTimeOfInterest,
+      final boolean inclusive
+      ) {
+      int
+         low = 0,
+         high = current.segments.length - 1;
+      while(low <= high) {                                     // First segment of interest
+         final int
+            middle = (low + high) >>> 1;
+         if(PrimitiveTimeSeries.isAfter(current.segments[middle].time(
+               current.segmentSize(middle) - 1), fromTimeOfInterest, inclusive))
+            high = middle - 1;
+         else
+            low = middle + 1;
+      }
+      final int
+         firstSegment = low;
+      if(firstSegment == current.segments.length)
+         return -1L;
+      final Segment
+         segment = current.segments[firstSegment];
+      low = 0;
+      high = current.segmentSize(firstSegment) - 1;
+      while(low <= high) {                                     // First record of interest
+         final int
+            middle = (low + high) >>> 1;
+         if(PrimitiveTimeSeries.isAfter(segment.time(middle), fromTimeOfInterest, inclusive))
+            high = middle - 1;
+         else
+            low = middle + 1;
+      }
+      return ((long) firstSegment << 32) | low;
+   }
+   
+   /**
+     * A read-only {@link List} view of the records of a {@link Snapshot}, beginning at a
+     * specified record.
+     */
+   private static final class SegmentView
+      extends AbstractList<TimestampedDatum> implements RandomAccess {
+      private final Snapshot
+         snapshot;
+      private final int[]
+         offsets;                                              // First position per segment
+      private final int
+         firstSegment,
+         size;
+      
+      SegmentView(
+         final Snapshot snapshot,
+         final int firstSegment,
+         final int firstPosition
+         ) {
+         this.snapshot = snapshot;
+         this.firstSegment = firstSegment;
+         this.offsets = new int[snapshot.segments.length - firstSegment + 1];
+         this.offsets[0] = -firstPosition;
+         for(int i = firstSegment; i< snapshot.segments.length; ++i)
+            this.offsets[i - firstSegment + 1] =
+               this.offsets[i - firstSegment] + snapshot.segmentSize(i);
+         this.size = this.offsets[this.offsets.length - 1];
+      }
+      
+      @Override
+      public TimestampedDatum get(final int index) {
+         if(index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + this.size);
+         int
+            segment = Arrays.binarySearch(this.offsets, index);
+         if(segment < 0)
+            segment = -(segment + 1) - 1;
+         while(segment + 1 < this.offsets.length && this.offsets[segment + 1] == index)
+            ++segment;                                         // Skip empty segments
+         final Segment
+            mapped = this.snapshot.segments[this.firstSegment + segment];
+         final int
+            position = index - this.offsets[segment];
+         return new TimestampedDatum(mapped.time(position), mapped.value(position));
+      }
+      
+      @Override
+      public int size() {
+         return this.size;
+      }
+   }
+}
@@ -0,0 +1,416 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import servlet.core.DataSourceConnector.DataPointHandler;
+
+/**
+  * A skeletal implementation of a thread safe, time-ordered series of
+  * <code>(time, value)</code> records stored in primitive arrays.<br><br>
+  * 
+  * Each series is guarded by its own {@link StampedLock}: writers take the write lock,
+  * while readers first attempt an optimistic (lock-free) read and only fall back to the
+  * read lock if a writer intervened. Writers to one series never block readers of
+  * another series.<br><br>
+  * 
+  * Implementing classes provide the storage layout by means of the methods
+  * {@link #sizeUnderLock()}, {@link #appendUnderLock(double, double)},
+  * {@link #collectUnderLock(double, boolean, List)} and
+  * {@link #copyUnderLock(double, boolean, double[], double[])}. These methods are called with the
+  * lock held, or during an optimistic read. During an optimistic read, implementations
+  * may observe inconsistent state and may throw a {@link RuntimeException}; such reads
+  * are discarded and repeated under the read lock.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+abstract class PrimitiveTimeSeries {
+   
+   /**
+     * The maximum number of records copied by one read of
+     * {@link #stream(double, boolean, DataPointHandler)}.
+     */
+   static final int
+      STREAM_BLOCK_SIZE = 4096;
+   
+   private final StampedLock
+      lock;
+   
+   protected PrimitiveTimeSeries() {
+      this.lock = new StampedLock();
+   }
+   
+   /**
+     * @return
+     *    The total number of records in this series.
+     */
+   final int size() {
+      final long
+         stamp = this.lock.tryOptimisticRead();
+      final int
+         result = sizeUnderLock();
+      if(this.lock.validate(stamp))
+         return result;
+      final long
+         readStamp = this.lock.readLock();
+      try {
+         return sizeUnderLock();
+      } finally {
+         this.lock.unlockRead(readStamp);
+      }
+   }
+   
+   /**
+     * Append all records in the specified {@link List} to this series.
+     * 
+     * @param data <br>
+     *        The records to append. This argument must be non-<code>null</code>. Records
+     *        are expected to be time-ascending, but this is not required.
+     */
+   final void appendAll(final List<TimestampedDatum> data) {
+      final long
+         stamp = this.lock.writeLock();
+      try {
+         for(final TimestampedDatum datum : data)
+            appendUnderLock(datum.getTime(), datum.getValue());
+      } finally {
+         this.lock.unlockWrite(stamp);
+      }
+   }
+   
+   /**
+     * Append one record to this series.
+     * 
+     * @param time <br>
+     *        The time of the record.
+     * @param value <br>
+     *        The value of the record.
+     */
+   final void append(final double time, final double value) {
+      final long
+         stamp = this.lock.writeLock();
+      try {
+         appendUnderLock(time, value);
+      } finally {
+         this.lock.unlockWrite(stamp);
+      }
+   }
+   
+   /**
+     * Copy all records on or after the specified time into a {@link List}. This method
+     * first attempts an optimistic read of the series. If a concurrent write invalidates
+     * the optimistic read, any records copied are discarded and the copy is repeated
+     * under the read lock.
+     * 
+     * @param fromTimeOfInterest (<code>T</code>) <br>
+     *        The time after which records are required.
+     * @param inclusive <br>
+     *        Whether or not <code>T</code> is to be considered inclusive.
+     * @param result <br>
+     *        The {@link List} to which records are to be appended, in time-ascending
+     *        order. This argument must be non-<code>null</code>.
+     */
+   final void collect(
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final List<TimestampedDatum> result
+      ) {
+      read(() -> collectUnderLock(fromTimeOfInterest, inclusive, result), result);
+   }
+   
+   /**
+     * Copy records in the specified time range into a {@link List}, at no finer than the
+     * specified resolution. Records are read as for
+     * {@link #collect(double, boolean, List)}.
+     * 
+     * @param fromTimeOfInterest <br>
+     *        The (inclusive) start of the time range.
+     * @param toTimeOfInterest <br>
+     *        The (inclusive) end of the time range.
+     * @param resolution <br>
+     *        The width of time represented by one output record. If this argument is
+     *        not strictly positive, all records in the time range are copied.
+     * @param result <br>
+     *        The {@link List} to which records are to be appended, in time-ascending
+     *        order. This argument must be non-<code>null</code>.
+     */
+   final void collect(
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution,
+      final List<TimestampedDatum> result
+      ) {
+      read(() -> collectUnderLock(
+         fromTimeOfInterest, toTimeOfInterest, resolution, result), result);
+   }
+   
+   /**
+     * Copy the mean of the records in each interval of the specified time range into a
+     * {@link List}. Records are read as for {@link #collect(double, boolean, List)}.
+     * 
+     * @param fromTimeOfInterest <br>
+     *        The (inclusive) start of the time range.
+     * @param toTimeOfInterest <br>
+     *        The (inclusive) end of the time range.
+     * @param resolution <br>
+     *        The width of the intervals. This argument must be strictly positive.
+     * @param result <br>
+     *        The {@link List} to which means are to be appended, in time-ascending
+     *        order. This argument must be non-<code>null</code>.
+     */
+   final void collectMeans(
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution,
+      final List<TimestampedDatum> result
+      ) {
+      read(() -> collectMeansUnderLock(
+         fromTimeOfInterest, toTimeOfInterest, resolution, result), result);
+   }
+   
+   /**
+     * Pass all records on or after the specified time to a {@link DataPointHandler}, in
+     * time-ascending order, without creating {@link TimestampedDatum} objects. Records
+     * are copied into primitive arrays in blocks of at most {@link #STREAM_BLOCK_SIZE},
+     * each of which is read as for {@link #collect(double, boolean, List)}, and are
+     * passed to the handler with no lock held. Each block resumes after the last time
+     * stamp of the preceding block.
+     * 
+     * @param fromTimeOfInterest (<code>T</code>) <br>
+     *        The time after which records are required.
+     * @param inclusive <br>
+     *        Whether or not <code>T</code> is to be considered inclusive.
+     * @param handler <br>
+     *        The {@link DataPointHandler} to which to pass records. This argument must be
+     *        non-<code>null</code>.
+     * @throws IOException if the handler raised an {@link IOException}.
+     */
+   final void stream(
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws IOException {
+      final double[]
+         times = new double[STREAM_BLOCK_SIZE],
+         values = new double[STREAM_BLOCK_SIZE];
+      double
+         from = fromTimeOfInterest;
+      boolean
+         isInclusive = inclusive;
+      while(true) {
+         final int
+            length = readBlock(from, isInclusive, times, values);
+         for(int i = 0; i< length; ++i)
+            handler.handle(times[i], values[i]);
+         if(length < times.length)
+            return;
+         from = times[length - 1];
+         isInclusive = false;
+      }
+   }
+   
+   /**
+     * Copy one block of records, first optimistically and then, if a concurrent write
+     * invalidates the optimistic read, under the read lock.
+     */
+   private int readBlock(
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final double[] times,
+      final double[] values
+      ) {
+      final long
+         stamp = this.lock.tryOptimisticRead();
+      if(stamp != 0L) {
+         try {
+            final int
+               length = copyUnderLock(fromTimeOfInterest, inclusive, times, values);
+            if(this.lock.validate(stamp))
+               return length;
+         }
+         catch(final RuntimeException inconsistentRead) {
+            // A concurrent write was observed mid-copy.
+         }
+      }
+      final long
+         readStamp = this.lock.readLock();
+      try {
+         return copyUnderLock(fromTimeOfInterest, inclusive, times, values);
+      } finally {
+         this.lock.unlockRead(readStamp);
+      }
+   }
+   
+   /**
+     * Execute a read, first optimistically and then, if a concurrent write invalidates
+     * the optimistic read, under the read lock. Records appended to <code>result</code>
+     * by a failed optimistic read are discarded.
+     */
+   private void read(
+      final Runnable reader,
+      final List<TimestampedDatum> result
+      ) {
+      final int
+         initialSize = result.size();
+      final long
+         stamp = this.lock.tryOptimisticRead();
+      if(stamp != 0L) {
+         boolean
+            isComplete = false;
+         try {
+            reader.run();
+            isComplete = true;
+         }
+         catch(final RuntimeException inconsistentRead) {
+            // A concurrent write was observed mid-copy.
+         }
+         if(isComplete && this.lock.validate(stamp))
+            return;
+         result.subList(initialSize, result.size()).clear();
+      }
+      final long
+         readStamp = this.lock.readLock();
+      try {
+         reader.run();
+      } finally {
+         this.lock.unlockRead(readStamp);
+      }
+   }
+   
+   /**
+     * @return
+     *    The number of records in this series.
+     */
+   protected abstract int sizeUnderLock();
+   
+   /**
+     * Append one record to this series. This method is called with the write lock held.
+     */
+   protected abstract void appendUnderLock(double time, double value);
+   
+   /**
+     * Copy all records on or after the specified time into a {@link List}, in
+     * time-ascending order.
+     */
+   protected abstract void collectUnderLock(
+      double fromTimeOfInterest,
+      boolean inclusive,
+      List<TimestampedDatum> result
+      );
+   
+   /**
+     * Copy records on or after the specified time into primitive arrays, in
+     * time-ascending order, until the arrays are full.
+     * 
+     * @return
+     *    The number of records copied.
+     */
+   protected abstract int copyUnderLock(
+      double fromTimeOfInterest,
+      boolean inclusive,
+      double[] times,
+      double[] values
+      );
+   
+   /**
+     * Copy records in the specified time range into a {@link List}, in time-ascending
+     * order, at no finer than the specified resolution. By default, this method copies
+     * all records in the time range. Implementations may instead return a reduced set of
+     * records which preserves the extremes of the data at the specified resolution.
+     */
+   protected void collectUnderLock(
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution,
+      final List<TimestampedDatum> result
+      ) {
+      final int
+         initialSize = result.size();
+      collectUnderLock(fromTimeOfInterest, true, result);
+      int
+         end = result.size();
+      while(end > initialSize && result.get(end - 1).getTime() > toTimeOfInterest)
+         --end;
+      result.subList(end, result.size()).clear();
+   }
+   
+   /**
+     * Copy the mean of the records in each interval of the specified time range into a
+     * {@link List}, in time-ascending order. By default, this method computes the means
+     * of all records in the time range with {@link DownsamplingUtils#means(List, double)}.
+     * Implementations may instead use intervals no wider than the specified resolution,
+     * and may include records outside the time range in the intervals at either end.
+     */
+   protected void collectMeansUnderLock(
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution,
+      final List<TimestampedDatum> result
+      ) {
+      final List<TimestampedDatum>
+         records = new ArrayList<TimestampedDatum>();
+      collectUnderLock(fromTimeOfInterest, toTimeOfInterest, 0., records);
+      result.addAll(DownsamplingUtils.means(records, resolution));
+   }
+   
+   /**
+     * Find the index of the first record in the first <code>length</code> entries
+     * of <code>times</code> that is after the specified time.
+     */
+   static int findFirstIndexAfter(
+      final double[] times,
+      final int length,
+      final double time,
+      final boolean inclusive
+      ) {
+      int
+         low = 0,
+         high = length - 1;
+      while(low <= high) {
+         final int
+            middle = (low + high) >>> 1;
+         if(isAfter(times[middle], time, inclusive))
+            high = middle - 1;
+         else
+            low = middle + 1;
+      }
+      return low;
+   }
+   
+   /**
+     * @return
+     *    <code>True</code> if <code>candidate</code> is after <code>time</code>,
+     *    or is equal to <code>time</code> and <code>inclusive</code> is set.
+     */
+   static boolean isAfter(
+      final double candidate,
+      final double time,
+      final boolean inclusive
+      ) {
+      final int
+         order = Double.compare(candidate, time);
+      return order > 0 || (order == 0 && inclusive);
+   }
+}
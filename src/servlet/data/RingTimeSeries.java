@@ -0,0 +1,258 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.util.List;
+
+/**
+  * A time-ordered series of <code>(time, value)</code> records with bounded
+  * retention, stored in a fixed-capacity primitive ring buffer.<br><br>
+  * 
+  * When the ring is full, each new record overwrites the oldest record in constant
+  * time. If a maximum age is specified, records older than the latest time stamp
+  * less the maximum age are also evicted. Neither form of eviction allocates
+  * memory.<br><br>
+  * 
+  * Records arriving out of order are inserted at their sorted position, which costs
+  * time proportional to the number of later records. A record whose time stamp is
+  * already present in the series is discarded.<br><br>
+  * 
+  * This class is thread safe. See also {@link PrimitiveTimeSeries}.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class RingTimeSeries extends PrimitiveTimeSeries {
+   
+   private final double[]
+      times,
+      values;
+   private final double
+      maximumAge;
+   private int
+      head,                                                     // Index of oldest record
+      size;
+   
+   /**
+     * Create an empty {@link RingTimeSeries} object.
+     * 
+     * @param capacity <br>
+     *        The maximum number of records to retain. This argument must be strictly
+     *        positive.
+     * @param maximumAge <br>
+     *        The maximum age of retained records, relative to the latest time stamp in
+     *        the series. This argument must be strictly positive. Use
+     *        {@link Double#POSITIVE_INFINITY} for no age limit.
+     * @throws IllegalArgumentException if either argument is not strictly positive.
+     */
+   RingTimeSeries(
+      final int capacity,
+      final double maximumAge
+      ) {
+      if(capacity <= 0)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": capacity is not strictly positive (value: "
+          + capacity + ")");
+      if(!(maximumAge > 0.))
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": maximum age is not strictly positive (value: "
+          + maximumAge + ")");
+      this.times = new double[capacity];
+      this.values = new double[capacity];
+      this.maximumAge = maximumAge;
+      this.head = 0;
+      this.size = 0;
+   }
+   
+   /**
+     * Convert a logical position (<code>0</code> is the oldest record) into an index in
+     * the underlying arrays.
+     */
+   private int physicalIndex(final int position) {
+      final int
+         index = this.head + position;
+      return index >= this.times.length ? index - this.times.length : index;
+   }
+   
+   @Override
+   protected int sizeUnderLock() {
+      return this.size;
+   }
+   
+   @Override
+   protected void appendUnderLock(final double time, final double value) {
+      if(this.size > 0) {
+         final int
+            order = Double.compare(time, this.times[physicalIndex(this.size - 1)]);
+         if(order == 0)
+            return;
+         if(order < 0) {
+            insert(time, value);
+            return;
+         }
+      }
+      if(this.size == this.times.length)
+         evictOldest();
+      final int
+         index = physicalIndex(this.size);
+      this.times[index] = time;
+      this.values[index] = value;
+      this.size++;
+      evictExpired(time);
+   }
+   
+   /**
+     * Insert a record whose time stamp precedes the last record in this series.
+     */
+   private void insert(final double time, final double value) {
+      final int
+         position = findFirstPositionAfter(time, true);
+      if(position < this.size && Double.compare(this.times[physicalIndex(position)], time) == 0)
+         return;                                               // Duplicate time stamp
+      if(this.size == this.times.length) {
+         if(position == 0)
+            return;                                            // Older than all retained
+         evictOldest();
+         shiftDownAndInsert(position - 1, time, value);
+      }
+      else
+         shiftUpAndInsert(position, time, value);
+      evictExpired(this.times[physicalIndex(this.size - 1)]);
+   }
+   
+   /**
+     * Move the records at positions <code>[position, size)</code> up by one, and write
+     * the new record at <code>position</code>. The ring must not be full.
+     */
+   private void shiftUpAndInsert(
+      final int position,
+      final double time,
+      final double value
+      ) {
+      for(int i = this.size; i> position; --i) {
+         final int
+            to = physicalIndex(i),
+            from = physicalIndex(i - 1);
+         this.times[to] = this.times[from];
+         this.values[to] = this.values[from];
+      }
+      final int
+         index = physicalIndex(position);
+      this.times[index] = time;
+      this.values[index] = value;
+      this.size++;
+   }
+   
+   /**
+     * Make room by moving the records at positions <code>[0, position)</code> down by
+     * one, into the slot vacated by the eviction of the oldest record, and write the new
+     * record at <code>position</code>.
+     */
+   private void shiftDownAndInsert(
+      final int position,
+      final double time,
+      final double value
+      ) {
+      this.head = this.head == 0 ? this.times.length - 1 : this.head - 1;
+      for(int i = 0; i< position; ++i) {
+         final int
+            to = physicalIndex(i),
+            from = physicalIndex(i + 1);
+         this.times[to] = this.times[from];
+         this.values[to] = this.values[from];
+      }
+      final int
+         index = physicalIndex(position);
+      this.times[index] = time;
+      this.values[index] = value;
+      this.size++;
+   }
+   
+   private void evictOldest() {
+      this.head = physicalIndex(1);
+      this.size--;
+   }
+   
+   private void evictExpired(final double latestTime) {
+      if(this.maximumAge == Double.POSITIVE_INFINITY)
+         return;
+      final double
+         cutoff = latestTime - this.maximumAge;
+      while(this.size > 0 && this.times[this.head] < cutoff)
+         evictOldest();
+   }
+   
+   /**
+     * Find the first logical position whose record is after the specified time.
+     */
+   private int findFirstPositionAfter(
+      final double time,
+      final boolean inclusive
+      ) {
+      int
+         low = 0,
+         high = this.size - 1;
+      while(low <= high) {
+         final int
+            middle = (low + high) >>> 1;
+         if(isAfter(this.times[physicalIndex(middle)], time, inclusive))
+            high = middle - 1;
+         else
+            low = middle + 1;
+      }
+      return low;
+   }
+   
+   @Override
+   protected void collectUnderLock(
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final List<TimestampedDatum> result
+      ) {
+      final int
+         size = this.size;
+      for(int i = findFirstPositionAfter(fromTimeOfInterest, inclusive); i< size; ++i) {
+         final int
+            index = physicalIndex(i);
+         result.add(new TimestampedDatum(this.times[index], this.values[index]));
+      }
+   }
+   
+   @Override
+   protected int copyUnderLock(
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final double[] times,
+      final double[] values
+      ) {
+      final int
+         size = this.size;
+      int
+         length = 0;
+      for(int i = findFirstPositionAfter(fromTimeOfInterest, inclusive);
+          i< size && length< times.length; ++i, ++length) {
+         final int
+            index = physicalIndex(i);
+         times[length] = this.times[index];
+         values[length] = this.values[index];
+      }
+      return length;
+   }
+}
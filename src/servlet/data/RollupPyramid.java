@@ -0,0 +1,333 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+  * A multi-resolution summary of a time series. The summary consists of several tiers
+  * of fixed-width time buckets. The bucket widths of the tiers are <code>10</code>,
+  * <code>100</code> and <code>1000</code> times the base resolution of the series. For
+  * each bucket, a tier stores the minimum, maximum, sum and count of the values in the
+  * bucket, and the time stamps of the minimum and maximum values. The mean of each bucket
+  * is therefore also available.<br><br>
+  * 
+  * The base resolution is the median spacing of the first
+  * {@link #CALIBRATION_SIZE} records. Until that many records have been added, the
+  * pyramid has no tiers. Thereafter, each added record updates one bucket per tier in
+  * time <code>O(1)</code> when records arrive in time order.<br><br>
+  * 
+  * Records cannot be removed from a pyramid. This class is not thread safe.<br><br>
+  * 
+  * This class should retain package-private visibility.
+  * 
+  * @author phillips
+  */
+final class RollupPyramid {
+   
+   /**
+     * The number of records used to estimate the base resolution of the series.
+     */
+   static final int
+      CALIBRATION_SIZE = 256;
+   
+   private static final int[]
+      TIER_FACTORS = { 10, 100, 1000 };
+   
+   /**
+     * One tier of buckets, stored in bucket index order in primitive arrays.
+     */
+   private static final class Tier {
+      final double
+         width;
+      long[]
+         indices = new long[16];
+      double[]
+         minima = new double[16],
+         maxima = new double[16],
+         sums = new double[16],
+         minimumTimes = new double[16],
+         maximumTimes = new double[16];
+      int[]
+         counts = new int[16];
+      int
+         size;
+      
+      Tier(final double width) {
+         this.width = width;
+      }
+      
+      void add(final double time, final double value) {
+         final long
+            index = (long) Math.floor(time / this.width);
+         int
+            position;
+         if(this.size > 0 && this.indices[this.size - 1] == index)
+            position = this.size - 1;
+         else if(this.size == 0 || this.indices[this.size - 1] < index)
+            position = insertBucket(this.size, index);
+         else {
+            position = Arrays.binarySearch(this.indices, 0, this.size, index);
+            if(position < 0)
+               position = insertBucket(-(position + 1), index);
+         }
+         if(this.counts[position] == 0 || value < this.minima[position]) {
+            this.minima[position] = value;
+            this.minimumTimes[position] = time;
+         }
+         if(this.counts[position] == 0 || value > this.maxima[position]) {
+            this.maxima[position] = value;
+            this.maximumTimes[position] = time;
+         }
+         this.sums[position] += value;
+         this.counts[position]++;
+      }
+      
+      private int insertBucket(final int position, final long index) {
+         if(this.size == this.indices.length) {
+            final int
+               capacity = this.size * 2;
+            this.indices = Arrays.copyOf(this.indices, capacity);
+            this.minima = Arrays.copyOf(this.minima, capacity);
+            this.maxima = Arrays.copyOf(this.maxima, capacity);
+            this.sums = Arrays.copyOf(this.sums, capacity);
+            this.minimumTimes = Arrays.copyOf(this.minimumTimes, capacity);
+            this.maximumTimes = Arrays.copyOf(this.maximumTimes, capacity);
+            this.counts = Arrays.copyOf(this.counts, capacity);
+         }
+         final int
+            length = this.size - position;
+         System.arraycopy(this.indices, position, this.indices, position + 1, length);
+         System.arraycopy(this.minima, position, this.minima, position + 1, length);
+         System.arraycopy(this.maxima, position, this.maxima, position + 1, length);
+         System.arraycopy(this.sums, position, this.sums, position + 1, length);
+         System.arraycopy(this.minimumTimes, position, this.minimumTimes, position + 1, length);
+         System.arraycopy(this.maximumTimes, position, this.maximumTimes, position + 1, length);
+         System.arraycopy(this.counts, position, this.counts, position + 1, length);
+         this.indices[position] = index;
+         this.sums[position] = 0.;
+         this.counts[position] = 0;
+         this.size++;
+         return position;
+      }
+      
+      /**
+        * Copy the minimum and maximum records of each bucket whose records may lie in
+        * the specified time range, in time order, omitting records outside the range.
+        */
+      void collect(
+         final double fromTime,
+         final double toTime,
+         final List<TimestampedDatum> result
+         ) {
+         final long[]
+            indices = this.indices;
+         final int
+            size = Math.min(this.size, indices.length);
+         int
+            position = Arrays.binarySearch(
+               indices, 0, size, (long) Math.floor(fromTime / this.width));
+         if(position < 0)
+            position = -(position + 1);
+         final long
+            lastIndex = (long) Math.floor(toTime / this.width);
+         for(; position< size && indices[position] <= lastIndex; ++position) {
+            final double
+               minimumTime = this.minimumTimes[position],
+               maximumTime = this.maximumTimes[position];
+            if(minimumTime <= maximumTime) {
+               addIfInRange(minimumTime, this.minima[position], fromTime, toTime, result);
+               if(maximumTime != minimumTime)
+                  addIfInRange(maximumTime, this.maxima[position], fromTime, toTime, result);
+            }
+            else {
+               addIfInRange(maximumTime, this.maxima[position], fromTime, toTime, result);
+               addIfInRange(minimumTime, this.minima[position], fromTime, toTime, result);
+            }
+         }
+      }
+      
+      /**
+        * Copy the mean of each non-empty bucket which overlaps the specified time range,
+        * in time order, time stamped with the middle of the bucket.
+        */
+      void collectMeans(
+         final double fromTime,
+         final double toTime,
+         final List<TimestampedDatum> result
+         ) {
+         final long[]
+            indices = this.indices;
+         final int
+            size = Math.min(this.size, indices.length);
+         int
+            position = Arrays.binarySearch(
+               indices, 0, size, (long) Math.floor(fromTime / this.width));
+         if(position < 0)
+            position = -(position + 1);
+         final long
+            lastIndex = (long) Math.floor(toTime / this.width);
+         for(; position< size && indices[position] <= lastIndex; ++position)
+            if(this.counts[position] > 0)
+               result.add(new TimestampedDatum((indices[position] + .5) * this.width,
+                  this.sums[position] / this.counts[position]));
+      }
+      
+      private static void addIfInRange(
+         final double time,
+         final double value,
+         final double fromTime,
+         final double toTime,
+         final List<TimestampedDatum> result
+         ) {
+         if(time >= fromTime && time <= toTime)
+            result.add(new TimestampedDatum(time, value));
+      }
+   }
+   
+   private double[]
+      calibrationTimes;
+   private double[]
+      calibrationValues;
+   private int
+      calibrationSize;
+   private Tier[]
+      tiers;
+   
+   RollupPyramid() {
+      this.calibrationTimes = new double[CALIBRATION_SIZE];
+      this.calibrationValues = new double[CALIBRATION_SIZE];
+      this.calibrationSize = 0;
+      this.tiers = new Tier[0];
+   }
+   
+   /**
+     * Add a record to this pyramid. Each record should be added at most once.
+     */
+   void add(final double time, final double value) {
+      if(this.calibrationTimes != null) {
+         this.calibrationTimes[this.calibrationSize] = time;
+         this.calibrationValues[this.calibrationSize] = value;
+         if(++this.calibrationSize == CALIBRATION_SIZE)
+            calibrate();
+         return;
+      }
+      for(final Tier tier : this.tiers)
+         tier.add(time, value);
+   }
+   
+   /**
+     * Estimate the base resolution of the series, create the tiers, and add the
+     * calibration records to each tier.
+     */
+   private void calibrate() {
+      final double[]
+         times = Arrays.copyOf(this.calibrationTimes, CALIBRATION_SIZE);
+      Arrays.sort(times);
+      final List<Double>
+         spacings = new ArrayList<Double>();
+      for(int i = 1; i< times.length; ++i)
+         if(times[i] > times[i - 1])
+            spacings.add(times[i] - times[i - 1]);
+      final Tier[]
+         tiers;
+      if(spacings.isEmpty())
+         tiers = new Tier[0];
+      else {
+         final Double[]
+            sorted = spacings.toArray(new Double[0]);
+         Arrays.sort(sorted);
+         final double
+            baseResolution = sorted[sorted.length / 2];
+         tiers = new Tier[TIER_FACTORS.length];
+         for(int i = 0; i< TIER_FACTORS.length; ++i) {
+            tiers[i] = new Tier(baseResolution * TIER_FACTORS[i]);
+            for(int j = 0; j< CALIBRATION_SIZE; ++j)
+               tiers[i].add(this.calibrationTimes[j], this.calibrationValues[j]);
+         }
+      }
+      this.tiers = tiers;
+      this.calibrationTimes = null;
+      this.calibrationValues = null;
+   }
+   
+   /**
+     * Copy a summary of the specified time range at the specified resolution into a
+     * {@link List}. The coarsest tier whose bucket width does not exceed the resolution
+     * is used, and the minimum and maximum records of each bucket are copied.
+     * 
+     * @return
+     *    <code>True</code> if a tier was used, or <code>false</code> if no tier is fine
+     *    enough for the specified resolution (in which case nothing is copied).
+     */
+   boolean collect(
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution,
+      final List<TimestampedDatum> result
+      ) {
+      final Tier
+         tier = selectTier(resolution);
+      if(tier == null)
+         return false;
+      tier.collect(fromTimeOfInterest, toTimeOfInterest, result);
+      return true;
+   }
+   
+   /**
+     * Copy the mean of the records in each bucket of the specified time range into a
+     * {@link List}. The tier is selected as for
+     * {@link #collect(double, double, double, List)}. Each non-empty bucket which
+     * overlaps the time range yields one record, whose time stamp is the middle of the
+     * bucket.
+     * 
+     * @return
+     *    <code>True</code> if a tier was used, or <code>false</code> if no tier is fine
+     *    enough for the specified resolution (in which case nothing is copied).
+     */
+   boolean collectMeans(
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution,
+      final List<TimestampedDatum> result
+      ) {
+      final Tier
+         tier = selectTier(resolution);
+      if(tier == null)
+         return false;
+      tier.collectMeans(fromTimeOfInterest, toTimeOfInterest, result);
+      return true;
+   }
+   
+   /**
+     * @return
+     *    The coarsest tier whose bucket width does not exceed the specified resolution,
+     *    or <code>null</code> if there is no such tier.
+     */
+   private Tier selectTier(final double resolution) {
+      final Tier[]
+         tiers = this.tiers;
+      for(int i = tiers.length - 1; i>= 0; --i)
+         if(tiers[i].width <= resolution)
+            return tiers[i];
+      return null;
+   }
+}
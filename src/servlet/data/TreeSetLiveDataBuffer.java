@@ -18,11 +18,13 @@
   */
 package servlet.data;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.NavigableSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +36,14 @@ import servlet.core.DataSourceConnector;
 
 /**
   * A simple implementation of the {@link LiveDataBuffer} interface. This implementation
-  * provides a data buffer with permanent (application scope) memory/no flushing.
+  * provides a data buffer with permanent (application scope) memory/no flushing.<br><br>
+  * 
+  * Charts with a bounded {@link ChartRetentionPolicy} are trimmed, oldest data first,
+  * after each upload.<br><br>
+  * 
+  * Charts are registered in a {@link ConcurrentHashMap}. Each chart is guarded by
+  * its own monitor, so that uploads and reads may safely happen on different
+  * container threads.
   * 
   * @author phillips
   */
@@ -44,8 +53,14 @@ public final class TreeSetLiveDataBuffer
    private final static Logger
       logger = LoggerFactory.getLogger(TreeSetLiveDataBuffer.class);
    
-   private final HashMap<String, NavigableSet<TimestampedDatum>>
+   private final ConcurrentHashMap<String, NavigableSet<TimestampedDatum>>
       buffer;
+   private final ChartVersions
+      versions;
+   private final ConcurrentHashMap<String, ChartRetentionPolicy>
+      retentionPolicies;
+   private volatile ChartRetentionPolicy
+      defaultRetentionPolicy;
    
    /**
      * Create a {@link TreeSetLiveDataBuffer} object with custom parameters.<br><br>
@@ -59,7 +74,10 @@ public final class TreeSetLiveDataBuffer
    public TreeSetLiveDataBuffer(final String simpleName) {
       super(Preconditions.checkNotNull(simpleName));
       logger.info("loading live data buffer..");
-      this.buffer = new HashMap<String, NavigableSet<TimestampedDatum>>();
+      this.buffer = new ConcurrentHashMap<String, NavigableSet<TimestampedDatum>>();
+      this.versions = new ChartVersions();
+      this.retentionPolicies = new ConcurrentHashMap<String, ChartRetentionPolicy>();
+      this.defaultRetentionPolicy = ChartRetentionPolicy.unbounded();
       logger.info("live data buffer loaded successfully.");
    }
    
@@ -67,8 +85,13 @@ public final class TreeSetLiveDataBuffer
    public List<ChartInformation> getKnownCharts() throws DataSourceException {
       final List<ChartInformation>
          knownCharts = new ArrayList<ChartInformation>();
-      for(final String record : this.buffer.keySet())
-         knownCharts.add(new ChartInformation(record, "Line", this.buffer.get(record).size()));
+      for(final Entry<String, NavigableSet<TimestampedDatum>> record : this.buffer.entrySet()) {
+         final NavigableSet<TimestampedDatum>
+            data = record.getValue();
+         synchronized(data) {
+            knownCharts.add(new ChartInformation(record.getKey(), "Line", data.size()));
+         }
+      }
       return knownCharts;
    }
    
@@ -83,27 +106,148 @@ public final class TreeSetLiveDataBuffer
          throw new IllegalArgumentException(
             getClass().getSimpleName() + ": has_chart: chart name is null or empty.");
       }
-      if(!hasChart(chartName)) {
+      final NavigableSet<TimestampedDatum>
+         data = this.buffer.get(chartName);
+      if(data == null) {
          logger.error("create_chart: chart name is null or empty [{}]", chartName);
          throw new DataSourceException(
             getClass().getSimpleName() + ": get_data: chart name is null or empty.");
       }
-      return new ArrayList<TimestampedDatum>(this.buffer.get(chartName));
+      synchronized(data) {
+         return new ArrayList<TimestampedDatum>(data.tailSet(
+            new TimestampedDatum(fromTimeOfInterest, 0.), inclusive));
+      }
+   }
+   
+   /**
+     * Pass the data of a chart to a {@link DataPointHandler} without creating a
+     * {@link List}. Data points are copied into primitive arrays in blocks of a few
+     * thousand, and are passed to the handler without holding the lock of the chart.
+     */
+   @Override
+   public void streamData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final boolean inclusive,
+      final DataPointHandler handler
+      ) throws DataSourceException, IOException {
+      if(chartName == null || chartName.isEmpty()) {
+         logger.error("get_data: chart name is null or empty [{}]", chartName);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_data: chart name is null or empty.");
+      }
+      final NavigableSet<TimestampedDatum>
+         data = this.buffer.get(chartName);
+      if(data == null) {
+         logger.error("get_data: no chart with name {} exists", chartName);
+         throw new DataSourceException(
+            getClass().getSimpleName() + ": get_data: chart not found.");
+      }
+      final double[]
+         times = new double[PrimitiveTimeSeries.STREAM_BLOCK_SIZE],
+         values = new double[PrimitiveTimeSeries.STREAM_BLOCK_SIZE];
+      double
+         from = fromTimeOfInterest;
+      boolean
+         isInclusive = inclusive;
+      while(true) {
+         int
+            length = 0;
+         synchronized(data) {
+            for(final TimestampedDatum datum :
+               data.tailSet(new TimestampedDatum(from, 0.), isInclusive)) {
+               if(length == times.length)
+                  break;
+               times[length] = datum.getTime();
+               values[length] = datum.getValue();
+               ++length;
+            }
+         }
+         for(int i = 0; i< length; ++i)
+            handler.handle(times[i], values[i]);
+         if(length < times.length)
+            return;
+         from = times[length - 1];
+         isInclusive = false;
+      }
+   }
+   
+   /**
+     * Get data for a chart in a time range. This implementation copies only the data
+     * in the time range, and does not summarize data at coarse resolutions.
+     */
+   @Override
+   public List<TimestampedDatum> getData(
+      final String chartName,
+      final double fromTimeOfInterest,
+      final double toTimeOfInterest,
+      final double resolution
+      ) throws DataSourceException {
+      if(chartName == null || chartName.isEmpty()) {
+         logger.error("get_data: chart name is null or empty [{}]", chartName);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": get_data: chart name is null or empty.");
+      }
+      final NavigableSet<TimestampedDatum>
+         data = this.buffer.get(chartName);
+      if(data == null) {
+         logger.error("get_data: no chart with name {} exists", chartName);
+         throw new DataSourceException(
+            getClass().getSimpleName() + ": get_data: chart not found.");
+      }
+      if(!(fromTimeOfInterest <= toTimeOfInterest))
+         return new ArrayList<TimestampedDatum>();
+      synchronized(data) {
+         return new ArrayList<TimestampedDatum>(data.subSet(
+            new TimestampedDatum(fromTimeOfInterest, 0.), true,
+            new TimestampedDatum(toTimeOfInterest, 0.), true));
+      }
    }
    
    @Override
    public boolean createChart(final String name) {
+      return createChart(name, this.defaultRetentionPolicy);
+   }
+   
+   @Override
+   public boolean createChart(
+      final String name,
+      final ChartRetentionPolicy retentionPolicy
+      ) {
       if(name == null || name.isEmpty()) {
          logger.error("create_chart: chart name is null or empty [{}]", name);
          throw new IllegalArgumentException(
             getClass().getSimpleName() + ": create_chart: chart name is null or empty.");
       }
-      if(hasChart(name))
+      if(retentionPolicy == null) {
+         logger.error("create_chart: retention policy is null for chart {}", name);
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": create_chart: retention policy is null.");
+      }
+      if(this.retentionPolicies.putIfAbsent(name, retentionPolicy) != null)
          return false;
       this.buffer.put(name, new TreeSet<TimestampedDatum>());
       return true;
    }
    
+   @Override
+   public void setDefaultRetentionPolicy(final ChartRetentionPolicy retentionPolicy) {
+      if(retentionPolicy == null)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": default retention policy is null.");
+      this.defaultRetentionPolicy = retentionPolicy;
+      logger.info("default retention policy: {}", retentionPolicy);
+   }
+   
+   /**
+     * The version of a chart is incremented by each call to
+     * {@link #uploadData(String, List)}.
+     */
+   @Override
+   public long getVersion(final String chartName) {
+      return this.buffer.containsKey(chartName) ? this.versions.get(chartName) : -1L;
+   }
+   
    @Override
    public boolean hasChart(String name) {
       if(name == null || name.isEmpty()) {
@@ -124,11 +268,26 @@ public final class TreeSetLiveDataBuffer
          throw new IllegalArgumentException(
             getClass().getSimpleName() + ": upload_data: chart name is null or empty.");
       }
-      if(!this.hasChart(name)) {
+      final NavigableSet<TimestampedDatum>
+         chart = this.buffer.get(name);
+      if(chart == null) {
          logger.error("upload_data: no chart with name {} exists", name);
          throw new DataUploadException(
             getClass().getSimpleName() + ": upload_data: chart not found.");
       }
-      this.buffer.get(name).addAll(data);
+      final ChartRetentionPolicy
+         retentionPolicy = this.retentionPolicies.get(name);
+      synchronized(chart) {
+         chart.addAll(data);
+         if(retentionPolicy.isBounded() && !chart.isEmpty()) {
+            while(chart.size() > retentionPolicy.getMaximumNumberOfPoints())
+               chart.pollFirst();
+            final double
+               cutoff = chart.last().getTime() - retentionPolicy.getMaximumAge();
+            while(chart.first().getTime() < cutoff)
+               chart.pollFirst();
+         }
+      }
+      this.versions.increment(name);
    }
 }
@@ -0,0 +1,453 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+  * A segmented, append-only write-ahead log of opaque records.<br><br>
+  * 
+  * Records are appended by {@link #append(byte[])}, which returns immediately. A
+  * dedicated group-commit thread writes all pending records to the current log segment
+  * and then forces the segment to the storage device once for the whole batch, before
+  * completing the {@link CompletableFuture} of each record in the batch. The cost of
+  * one <code>fsync</code> is therefore shared by all records appended while the
+  * previous batch was being forced.<br><br>
+  * 
+  * Each record is stored as its length, the CRC32 checksum of its payload, and its
+  * payload. When the log is replayed, a torn or corrupt record ends the replay of its
+  * segment. A batch which could not be written is therefore truncated from its segment
+  * (or, failing that, a new segment is started) before the next batch is written.<br><br>
+  * 
+  * The log is divided into segment files named <code>wal-[sequence].log</code>. A new
+  * segment is started before the first batch written after the current segment exceeds
+  * its size limit, and on
+  * demand by {@link #rotate()}. Segments preceding a checkpoint may be deleted by
+  * {@link #deleteSegmentsBefore(long)}.<br><br>
+  * 
+  * This class is thread safe.
+  * 
+  * @author phillips
+  */
+public final class WriteAheadLog implements Closeable {
+   
+   private final static Logger
+      logger = LoggerFactory.getLogger(WriteAheadLog.class);
+   
+   /**
+     * The default size, in bytes, after which a new log segment is started.
+     */
+   public static final long
+      DEFAULT_SEGMENT_SIZE = 64L << 20;
+   
+   private static final String
+      SEGMENT_FILE_PREFIX = "wal-",
+      SEGMENT_FILE_SUFFIX = ".log";
+   private static final int
+      RECORD_HEADER_SIZE = 8;
+   
+   /**
+     * A callback for records replayed by {@link WriteAheadLog#replay(RecordHandler)}.
+     */
+   public interface RecordHandler {
+      /**
+        * Process one replayed record.
+        * 
+        * @param payload <br>
+        *        The payload of the record, as passed to
+        *        {@link WriteAheadLog#append(byte[])}.
+        */
+      public void handle(byte[] payload) throws IOException;
+   }
+   
+   private static final class PendingRecord {
+      final byte[]
+         payload;
+      final CompletableFuture<Void>
+         future;
+      
+      PendingRecord(final byte[] payload) {
+         this.payload = payload;
+         this.future = new CompletableFuture<Void>();
+      }
+   }
+   
+   private static final PendingRecord
+      SHUTDOWN = new PendingRecord(new byte[0]);
+   
+   private final Path
+      directory;
+   private final long
+      segmentSize;
+   private final List<Path>
+      segmentsToReplay;
+   private final LinkedBlockingQueue<PendingRecord>
+      queue;
+   private final Thread
+      writer;
+   
+   private FileChannel
+      channel;                                                 // Guarded by this
+   private long
+      sequence,                                                // Guarded by this
+      damagedPosition;                                         // Guarded by this
+   private volatile boolean
+      isClosed;                                                // Written under queue
+   
+   /**
+     * Create a {@link WriteAheadLog} object with a default segment size.<br><br>
+     * 
+     * See also {@link #WriteAheadLog(Path, long)}.
+     */
+   public WriteAheadLog(final Path directory) throws IOException {
+      this(directory, DEFAULT_SEGMENT_SIZE);
+   }
+   
+   /**
+     * Create a {@link WriteAheadLog} object with custom parameters. Existing log
+     * segments in the specified directory are retained for {@link #replay(RecordHandler)},
+     * and new records are written to a new segment.
+     * 
+     * @param directory <br>
+     *        The directory in which to store log segments. If this directory does not
+     *        exist, it is created. This argument must be non-<code>null</code>.
+     * @param segmentSize <br>
+     *        The size, in bytes, after which a new segment is started. This argument
+     *        must be strictly positive.
+     * @throws IOException if the directory or a new log segment could not be created.
+     * @throws IllegalArgumentException if <code>segmentSize</code> is not strictly
+     *         positive.
+     */
+   public WriteAheadLog(
+      final Path directory,
+      final long segmentSize
+      ) throws IOException {
+      Preconditions.checkNotNull(directory);
+      if(segmentSize <= 0L)
+         throw new IllegalArgumentException(
+            getClass().getSimpleName() + ": segment size is not strictly positive (value: "
+          + segmentSize + ")");
+      this.directory = Files.createDirectories(directory);
+      this.segmentSize = segmentSize;
+      this.segmentsToReplay = listSegments();
+      this.sequence = this.segmentsToReplay.isEmpty() ? 0L :
+         parseSequence(this.segmentsToReplay.get(this.segmentsToReplay.size() - 1)) + 1L;
+      this.channel = openSegment(this.sequence);
+      this.damagedPosition = -1L;
+      this.queue = new LinkedBlockingQueue<PendingRecord>();
+      this.writer = new Thread(this::runGroupCommit, "write-ahead log group commit");
+      this.writer.setDaemon(true);
+      this.writer.start();
+      logger.info("write-ahead log opened in {} ({} existing segments).",
+         directory, this.segmentsToReplay.size());
+   }
+   
+   private List<Path> listSegments() throws IOException {
+      final List<Path>
+         result = new ArrayList<Path>();
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(
+         this.directory, SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+         for(final Path file : files)
+            result.add(file);
+      }
+      Collections.sort(result, (a, b) -> Long.compare(parseSequence(a), parseSequence(b)));
+      return result;
+   }
+   
+   private static long parseSequence(final Path file) {
+      final String
+         name = file.getFileName().toString();
+      return Long.parseLong(name.substring(
+         SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length()));
+   }
+   
+   private FileChannel openSegment(final long sequence) throws IOException {
+      return FileChannel.open(
+         this.directory.resolve(String.format(
+            "%s%016d%s", SEGMENT_FILE_PREFIX, sequence, SEGMENT_FILE_SUFFIX)),
+         StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+   }
+   
+   /**
+     * Replay all records stored in the log segments that existed when this log was
+     * opened, in the order in which they were appended. This method should be called
+     * at most once, before any records are appended.
+     * 
+     * @param handler <br>
+     *        The callback to which records are passed. This argument must be
+     *        non-<code>null</code>.
+     * @return
+     *    The number of records replayed.
+     * @throws IOException if a segment could not be read, or if the handler raised an
+     *         {@link IOException}.
+     */
+   public long replay(final RecordHandler handler) throws IOException {
+      long
+         count = 0L;
+      for(final Path segment : this.segmentsToReplay) {
+         if(!Files.exists(segment))
+            continue;
+         final ByteBuffer
+            data = ByteBuffer.wrap(Files.readAllBytes(segment));
+         final CRC32
+            crc = new CRC32();
+         while(data.remaining() >= RECORD_HEADER_SIZE) {
+            final int
+               length = data.getInt(),
+               checksum = data.getInt();
+            if(length < 0 || length > data.remaining()) {
+               logger.warn("torn record at the end of log segment {}.", segment);
+               break;
+            }
+            final byte[]
+               payload = new byte[length];
+            data.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if((int) crc.getValue() != checksum) {
+               logger.warn("corrupt record in log segment {}; ignoring remainder.", segment);
+               break;
+            }
+            handler.handle(payload);
+            ++count;
+         }
+      }
+      logger.info("replayed {} write-ahead log records.", count);
+      return count;
+   }
+   
+   /**
+     * Append a record to this log. This method does not block.
+     * 
+     * @param payload <br>
+     *        The record to append. This argument must be non-<code>null</code>.
+     * @return
+     *    A {@link CompletableFuture} which completes when the record has been forced to
+     *    the storage device, or completes exceptionally if the record could not be
+     *    written.
+     */
+   public CompletableFuture<Void> append(final byte[] payload) {
+      Preconditions.checkNotNull(payload);
+      final PendingRecord
+         record = new PendingRecord(payload);
+      synchronized(this.queue) {
+         if(this.isClosed)
+            record.future.completeExceptionally(new IOException("write-ahead log is closed."));
+         else
+            this.queue.add(record);
+      }
+      return record.future;
+   }
+   
+   /**
+     * Start a new log segment. Records appended after this method returns are written
+     * to the new segment or to a later segment.
+     * 
+     * @return
+     *    The sequence number of the new segment. All segments with lower sequence numbers
+     *    are sealed, and can be passed to {@link #deleteSegmentsBefore(long)} once their
+     *    records are no longer required.
+     * @throws IOException if the new segment could not be created.
+     */
+   public synchronized long rotate() throws IOException {
+      this.channel.force(false);
+      final FileChannel
+         next = openSegment(this.sequence + 1L);
+      try {
+         this.channel.close();
+      }
+      catch(final IOException e) {
+         logger.warn("failed to close sealed write-ahead log segment: {}", e);
+      }
+      this.channel = next;
+      return ++this.sequence;
+   }
+   
+   /**
+     * Delete all log segments with sequence numbers lower than the specified sequence
+     * number, as returned by {@link #rotate()}.
+     */
+   public void deleteSegmentsBefore(final long sequence) throws IOException {
+      int
+         count = 0;
+      for(final Path segment : listSegments()) {
+         if(parseSequence(segment) >= sequence)
+            break;
+         Files.deleteIfExists(segment);
+         ++count;
+      }
+      logger.info("deleted {} checkpointed write-ahead log segments.", count);
+   }
+   
+   private void runGroupCommit() {
+      final List<PendingRecord>
+         batch = new ArrayList<PendingRecord>();
+      boolean
+         isShutdown = false;
+      while(!isShutdown) {
+         try {
+            batch.add(this.queue.take());
+         }
+         catch(final InterruptedException e) {
+            continue;
+         }
+         this.queue.drainTo(batch);
+         isShutdown = batch.remove(SHUTDOWN);
+         try {
+            writeBatch(batch);
+            for(final PendingRecord record : batch)
+               record.future.complete(null);
+         }
+         catch(final IOException e) {
+            logger.error("failed to write {} write-ahead log records: {}", batch.size(), e);
+            for(final PendingRecord record : batch)
+               record.future.completeExceptionally(e);
+         }
+         batch.clear();
+      }
+   }
+   
+   private synchronized void writeBatch(final List<PendingRecord> batch) throws IOException {
+      if(batch.isEmpty())
+         return;
+      if(this.damagedPosition >= 0L)
+         repairSegment();
+      if(this.channel.position() >= this.segmentSize) {
+         /*
+          * The previous batch filled the segment. Should a new segment not be started,
+          * this batch is written to the current segment, and the next batch tries again:
+          */
+         try {
+            rotate();
+         }
+         catch(final IOException e) {
+            logger.warn("failed to start a new write-ahead log segment: {}", e);
+         }
+      }
+      int
+         length = 0;
+      for(final PendingRecord record : batch)
+         length += RECORD_HEADER_SIZE + record.payload.length;
+      final ByteBuffer
+         data = ByteBuffer.allocate(length);
+      final CRC32
+         crc = new CRC32();
+      for(final PendingRecord record : batch) {
+         crc.reset();
+         crc.update(record.payload);
+         data.putInt(record.payload.length);
+         data.putInt((int) crc.getValue());
+         data.put(record.payload);
+      }
+      data.flip();
+      final long
+         startPosition = this.channel.position();
+      try {
+         while(data.hasRemaining())
+            this.channel.write(data);
+         this.channel.force(false);
+      }
+      catch(final IOException e) {
+         this.damagedPosition = startPosition;
+         try {
+            repairSegment();
+         }
+         catch(final IOException f) {
+            e.addSuppressed(f);
+         }
+         throw e;
+      }
+   }
+   
+   /**
+     * Discard the partially written batch at the end of the current segment, so that
+     * later records are not written behind a torn record, which would end the replay of
+     * the segment. If the segment cannot be truncated, a new segment is started instead.
+     * If neither is possible, the segment remains damaged, and the next batch will
+     * attempt the repair again before it is written.
+     */
+   private synchronized void repairSegment() throws IOException {
+      try {
+         this.channel.truncate(this.damagedPosition);
+         this.channel.position(this.damagedPosition);
+      }
+      catch(final IOException e) {
+         logger.warn("failed to truncate write-ahead log segment: {}; starting a new segment.",
+            e);
+         final FileChannel
+            next = openSegment(this.sequence + 1L);
+         try {
+            this.channel.close();
+         }
+         catch(final IOException f) {
+            logger.warn("failed to close damaged write-ahead log segment: {}", f);
+         }
+         this.channel = next;
+         ++this.sequence;
+      }
+      this.damagedPosition = -1L;
+   }
+   
+   /**
+     * Write all pending records and close this log. Records appended after this method
+     * is called fail with an {@link IOException}.
+     */
+   @Override
+   public void close() throws IOException {
+      synchronized(this.queue) {
+         if(this.isClosed)
+            return;
+         this.isClosed = true;
+         this.queue.add(SHUTDOWN);                // No record can be queued after this
+      }
+      try {
+         this.writer.join();
+      }
+      catch(final InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      final List<PendingRecord>
+         abandoned = new ArrayList<PendingRecord>();
+      this.queue.drainTo(abandoned);
+      for(final PendingRecord record : abandoned)
+         record.future.completeExceptionally(new IOException("write-ahead log is closed."));
+      synchronized(this) {
+         this.channel.close();
+      }
+      logger.info("write-ahead log closed.");
+   }
+}
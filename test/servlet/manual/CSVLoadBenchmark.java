@@ -0,0 +1,118 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.manual;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import servlet.core.TitledCSVDataSource;
+
+/**
+  * A manual benchmark for loading CSV files with {@link TitledCSVDataSource}. The file is
+  * loaded once for each number of threads from one to the number of available processors
+  * (doubling each time), and the throughput in rows per second is reported. Throughput
+  * should increase with the number of threads.<br><br>
+  * 
+  * Usage: <code>CSVLoadBenchmark [file timeColumnName]</code>. If no file is specified,
+  * a synthetic file with {@link #SYNTHETIC_ROWS} rows and {@link #SYNTHETIC_COLUMNS}
+  * columns is generated in the temporary directory.
+  * 
+  * @author phillips
+  */
+public class CSVLoadBenchmark {
+   
+   private static final int
+      SYNTHETIC_ROWS = 200000,
+      SYNTHETIC_COLUMNS = 100,
+      REPETITIONS = 3;
+   
+   /**
+     * @param args
+     */
+   public static void main(String[] args) throws IOException {
+      final Path
+         file;
+      final String
+         timeColumnName;
+      if(args.length >= 2) {
+         file = Paths.get(args[0]);
+         timeColumnName = args[1];
+      }
+      else {
+         file = Files.createTempFile("csv-load-benchmark", ".csv");
+         file.toFile().deleteOnExit();
+         timeColumnName = "Time";
+         writeSyntheticFile(file, timeColumnName);
+      }
+      System.out.printf("%s (%d MB)%n", file, Files.size(file) >> 20);
+      System.out.printf("%8s %12s %14s %10s%n", "threads", "rows", "rows/sec", "speedup");
+      double
+         baseline = 0.;
+      final int
+         processors = Runtime.getRuntime().availableProcessors();
+      for(int threads = 1; threads<= processors; threads = threads < processors ?
+         Math.min(2 * threads, processors) : threads + 1) {
+         long
+            bestNanos = Long.MAX_VALUE;
+         int
+            rows = 0;
+         for(int i = 0; i< REPETITIONS; ++i) {
+            final long
+               start = System.nanoTime();
+            final TitledCSVDataSource
+               source = new TitledCSVDataSource(file.toString(), timeColumnName, threads);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+            rows = source.getKnownCharts().get(0).getSize();
+         }
+         final double
+            rowsPerSecond = rows / (bestNanos / 1.e9);
+         if(threads == 1)
+            baseline = rowsPerSecond;
+         System.out.printf("%8d %12d %14.0f %10.2f%n",
+            threads, rows, rowsPerSecond, rowsPerSecond / baseline);
+      }
+   }
+   
+   private static void writeSyntheticFile(
+      final Path file,
+      final String timeColumnName
+      ) throws IOException {
+      final Random
+         random = new Random(1L);
+      try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+         writer.write(timeColumnName);
+         for(int j = 0; j< SYNTHETIC_COLUMNS; ++j)
+            writer.write("|c" + j);
+         writer.newLine();
+         for(int i = 0; i< SYNTHETIC_ROWS; ++i) {
+            writer.write(Integer.toString(i));
+            for(int j = 0; j< SYNTHETIC_COLUMNS; ++j) {
+               writer.write('|');
+               writer.write(Double.toString(random.nextGaussian()));
+            }
+            writer.newLine();
+         }
+      }
+   }
+}
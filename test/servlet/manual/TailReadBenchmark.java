@@ -0,0 +1,97 @@
+/**
+  * This file is part of web-charts, an interactive web charts program.
+  *
+  * Copyright (C) 2015 John Kieran Phillips
+  * 
+  * web-charts is free software: you can redistribute it and/or modify
+  * it under the terms of the GNU General Public License as published by
+  * the Free Software Foundation, either version 3 of the License, or
+  * (at your option) any later version.
+  * 
+  * web-charts is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU General Public License for more details.
+  * 
+  * You should have received a copy of the GNU General Public License
+  * along with web-charts.  If not, see <http://www.gnu.org/licenses/>.
+  */
+package servlet.manual;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import servlet.core.DataSourceConnector.DataSourceException;
+import servlet.data.ColumnarLiveDataBuffer;
+import servlet.data.LiveDataBuffer;
+import servlet.data.LiveDataBuffer.DataUploadException;
+import servlet.data.TimestampedDatum;
+import servlet.data.TreeSetLiveDataBuffer;
+
+/**
+  * A manual benchmark for browser polling of live charts. Each simulated poll uploads a
+  * small number of new points to a chart, and then requests all data after the last
+  * time already known to the browser (as <code>download_data</code> does). The cost of
+  * each poll should stay flat as the history of the chart grows.
+  * 
+  * @author phillips
+  */
+public class TailReadBenchmark {
+   
+   private static final int
+      POINTS_PER_POLL = 10,
+      POLLS = 2000;
+   
+   private static final int[]
+      HISTORY_SIZES = { 10000, 100000, 1000000, 4000000 };
+   
+   /**
+     * @param args
+     */
+   public static void main(String[] args) throws DataUploadException, DataSourceException {
+      System.out.printf("%-26s %12s %16s%n", "buffer", "history", "mean poll (us)");
+      for(final int historySize : HISTORY_SIZES) {
+         run(new TreeSetLiveDataBuffer("Benchmark"), historySize);
+         run(new ColumnarLiveDataBuffer("Benchmark"), historySize);
+      }
+   }
+   
+   private static void run(
+      final LiveDataBuffer buffer,
+      final int historySize
+      ) throws DataUploadException, DataSourceException {
+      final String
+         chartName = "Benchmark Chart";
+      buffer.createChart(chartName);
+      {
+         final List<TimestampedDatum>
+            history = new ArrayList<TimestampedDatum>(historySize);
+         for(int i = 0; i< historySize; ++i)
+            history.add(TimestampedDatum.create(i, Math.sin(i)));
+         buffer.uploadData(chartName, history);
+      }
+      double
+         lastKnownTime = historySize - 1;
+      long
+         checksum = 0L,
+         elapsedNanos = 0L;
+      for(int poll = 0; poll< POLLS; ++poll) {
+         final List<TimestampedDatum>
+            packet = new ArrayList<TimestampedDatum>(POINTS_PER_POLL);
+         for(int i = 1; i<= POINTS_PER_POLL; ++i)
+            packet.add(TimestampedDatum.create(lastKnownTime + i, i));
+         buffer.uploadData(chartName, packet);
+         final long
+            start = System.nanoTime();
+         final List<TimestampedDatum>
+            newData = buffer.getData(chartName, lastKnownTime, false);
+         elapsedNanos += System.nanoTime() - start;
+         checksum += newData.size();
+         lastKnownTime = newData.get(newData.size() - 1).getTime();
+      }
+      if(checksum != (long) POINTS_PER_POLL * POLLS)
+         throw new IllegalStateException("unexpected number of points returned: " + checksum);
+      System.out.printf("%-26s %12d %16.2f%n",
+         buffer.getClass().getSimpleName(), historySize, elapsedNanos / 1.e3 / POLLS);
+   }
+}